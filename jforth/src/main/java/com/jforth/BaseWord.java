@@ -21,6 +21,11 @@ public abstract class BaseWord implements ExecuteIF {
         this.isPrimitive = isPrimitive;
     }
 
+    // Called when the word is forgotten or shadowed by a new definition of
+    // the same name. Words holding compiled forms of themselves drop them.
+    public void invalidate() {
+    }
+
     public String toString(boolean showDetail) {
 
         if (showDetail) {
@@ -0,0 +1,628 @@
+package com.jforth;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Bytecode Compiler Class
+ * <p/>
+ * Second compilation tier for hot non primitive words. The threaded code of a
+ * word is translated into a generated JVM class implementing ExecuteIF, so the
+ * JVM can optimize a Forth definition like any other Java method. Branches of
+ * the threaded code become real bytecode branches and loops. Each operation is
+ * a call to the matching static method of Ops, which the JVM inlines.
+ * <p/>
+ * Class files are written at version 49 so that no stack map frames are needed.
+ * Each generated class gets its own class loader and is unloaded once the word
+ * drops it.
+ */
+public final class BytecodeCompiler {
+
+    // Largest threaded code translated. Keeps branch offsets within 16 bits.
+    private static final int MAX_THREADED_LENGTH = 2048;
+
+    private static final String OSTACK = "com/jforth/OStack";
+    private static final String OPS = "com/jforth/Ops";
+    private static final String EXECUTE_IF = "com/jforth/ExecuteIF";
+
+    private static final String OP_DESC = "(Lcom/jforth/OStack;Lcom/jforth/OStack;[Ljava/lang/Object;I)Z";
+    private static final String LITERAL_OP_DESC = "(Lcom/jforth/OStack;Lcom/jforth/OStack;[Ljava/lang/Object;II)Z";
+
+    // JVM opcodes used
+    private static final int ICONST_0 = 0x03;
+    private static final int ICONST_1 = 0x04;
+    private static final int BIPUSH = 0x10;
+    private static final int SIPUSH = 0x11;
+    private static final int LDC_W = 0x13;
+    private static final int ILOAD = 0x15;
+    private static final int ALOAD_0 = 0x2a;
+    private static final int ALOAD_1 = 0x2b;
+    private static final int ALOAD_2 = 0x2c;
+    private static final int ALOAD_3 = 0x2d;
+    private static final int AALOAD = 0x32;
+    private static final int ISTORE = 0x36;
+    private static final int ASTORE_3 = 0x4e;
+    private static final int IFEQ = 0x99;
+    private static final int IFNE = 0x9a;
+    private static final int IFLT = 0x9b;
+    private static final int GOTO = 0xa7;
+    private static final int IRETURN = 0xac;
+    private static final int RETURN = 0xb1;
+    private static final int GETFIELD = 0xb4;
+    private static final int PUTFIELD = 0xb5;
+    private static final int INVOKEVIRTUAL = 0xb6;
+    private static final int INVOKESPECIAL = 0xb7;
+    private static final int INVOKESTATIC = 0xb8;
+    private static final int INVOKEINTERFACE = 0xb9;
+    private static final int CHECKCAST = 0xc0;
+
+    // Local variable slots of the generated execute method
+    private static final int LOCAL_FLAG = 4;
+
+    private static int classCount = 0;
+
+    private BytecodeCompiler() {
+    }
+
+    /**
+     * Translate threaded code into an instance of a generated class.
+     *
+     * @param name is the name of the word, used only in the class name
+     * @param tc   is the threaded code of the word
+     * @param out  is where to report a class that fails to load
+     * @return the compiled word or null if the code can't be translated
+     */
+    public static ExecuteIF compile(String name, ThreadedCode tc, OutputSink out) {
+
+        int[] code = tc.getCode();
+
+        if (code.length > MAX_THREADED_LENGTH) {
+            return null;
+        }
+
+        String className;
+
+        synchronized (BytecodeCompiler.class) {
+            className = "com/jforth/Compiled$" + (classCount++) + "$" + mangle(name);
+        }
+
+        byte[] classFile;
+
+        try {
+            classFile = generate(className, code);
+
+        } catch (IOException ioe) {
+            // Writing to a byte array doesn't fail
+            return null;
+        }
+
+        if (classFile == null) {
+            return null;
+        }
+
+        try {
+            Class<?> c = new Loader().define(className.replace('/', '.'), classFile);
+
+            return (ExecuteIF) c.getConstructor(Object[].class).newInstance((Object) tc.getPool());
+
+        } catch (Throwable t) {
+            out.println("Bytecode compile of " + name + " failed: " + t);
+            return null;
+        }
+    }
+
+    // Keep only characters that are safe in a class name
+    private static String mangle(String name) {
+
+        StringBuilder sb = new StringBuilder();
+
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            sb.append(Character.isJavaIdentifierPart(c) ? c : '_');
+        }
+
+        return sb.toString();
+    }
+
+    private static byte[] generate(String className, int[] code) throws IOException {
+
+        ConstantPool cp = new ConstantPool();
+
+        int thisClass = cp.classRef(className);
+        int superClass = cp.classRef("java/lang/Object");
+        int executeIF = cp.classRef(EXECUTE_IF);
+        int poolField = cp.fieldRef(className, "pool", "[Ljava/lang/Object;");
+
+        byte[] execute = executeMethod(cp, code, poolField, executeIF);
+
+        if (execute == null) {
+            return null;
+        }
+
+        byte[] init = initMethod(cp, poolField);
+
+        // Everything referenced below must be in the pool before it is written
+        int poolName = cp.utf8("pool");
+        int poolDesc = cp.utf8("[Ljava/lang/Object;");
+        int initName = cp.utf8("<init>");
+        int initDesc = cp.utf8("([Ljava/lang/Object;)V");
+        int executeName = cp.utf8("execute");
+        int executeDesc = cp.utf8("(Lcom/jforth/OStack;Lcom/jforth/OStack;)I");
+        int codeName = cp.utf8("Code");
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+
+        out.writeInt(0xCAFEBABE);
+        out.writeShort(0);                      // Minor version
+        out.writeShort(49);                     // Major version
+        cp.write(out);
+        out.writeShort(0x0001 | 0x0010 | 0x0020);   // public final super
+        out.writeShort(thisClass);
+        out.writeShort(superClass);
+        out.writeShort(1);                      // Interfaces
+        out.writeShort(executeIF);
+
+        out.writeShort(1);                      // Fields
+        out.writeShort(0x0002 | 0x0010);        // private final
+        out.writeShort(poolName);
+        out.writeShort(poolDesc);
+        out.writeShort(0);
+
+        out.writeShort(2);                      // Methods
+        writeMethod(out, codeName, initName, initDesc, 2, 2, init);
+        writeMethod(out, codeName, executeName, executeDesc, 6, 5, execute);
+
+        out.writeShort(0);                      // Class attributes
+
+        return bytes.toByteArray();
+    }
+
+    private static void writeMethod(DataOutputStream out, int codeName, int name, int desc,
+                                    int maxStack, int maxLocals, byte[] code) throws IOException {
+
+        out.writeShort(0x0001);                 // public
+        out.writeShort(name);
+        out.writeShort(desc);
+        out.writeShort(1);                      // Attributes
+
+        out.writeShort(codeName);
+        out.writeInt(12 + code.length);
+        out.writeShort(maxStack);
+        out.writeShort(maxLocals);
+        out.writeInt(code.length);
+        out.write(code);
+        out.writeShort(0);                      // Exception table
+        out.writeShort(0);                      // Code attributes
+    }
+
+    private static byte[] initMethod(ConstantPool cp, int poolField) {
+
+        Code c = new Code();
+
+        c.op(ALOAD_0);
+        c.op(INVOKESPECIAL);
+        c.u2(cp.methodRef("java/lang/Object", "<init>", "()V"));
+        c.op(ALOAD_0);
+        c.op(ALOAD_1);
+        c.op(PUTFIELD);
+        c.u2(poolField);
+        c.op(RETURN);
+
+        return c.toByteArray();
+    }
+
+    private static byte[] executeMethod(ConstantPool cp, int[] code, int poolField, int executeIF) {
+
+        Code c = new Code();
+
+        // Bytecode address of each threaded code address
+        int[] address = new int[code.length + 1];
+
+        // Cache the constant pool in a local
+        c.op(ALOAD_0);
+        c.op(GETFIELD);
+        c.u2(poolField);
+        c.op(ASTORE_3);
+
+        int ip = 0;
+
+        while (ip < code.length) {
+            address[ip] = c.size();
+
+            int op = code[ip];
+            int operand = (ip + 1 < code.length) ? code[ip + 1] : 0;
+            int operand2 = (ip + 2 < code.length) ? code[ip + 2] : 0;
+
+            switch (op) {
+
+                case ThreadedCode.OP_LIT:
+                    c.op(ALOAD_1);
+                    pushInt(c, cp, operand);
+                    c.op(INVOKEVIRTUAL);
+                    c.u2(cp.methodRef(OSTACK, "pushInt", "(I)V"));
+                    break;
+
+                case ThreadedCode.OP_REF:
+                    c.op(ALOAD_1);
+                    c.op(ALOAD_3);
+                    pushInt(c, cp, operand);
+                    c.op(AALOAD);
+                    c.op(INVOKEVIRTUAL);
+                    c.u2(cp.methodRef(OSTACK, "push", "(Ljava/lang/Object;)V"));
+                    break;
+
+                case ThreadedCode.OP_CALL:
+                    c.op(ALOAD_3);
+                    pushInt(c, cp, operand);
+                    c.op(AALOAD);
+                    c.op(CHECKCAST);
+                    c.u2(executeIF);
+                    c.op(ALOAD_1);
+                    c.op(ALOAD_2);
+                    c.op(INVOKEINTERFACE);
+                    c.u2(cp.interfaceMethodRef(EXECUTE_IF, "execute",
+                            "(Lcom/jforth/OStack;Lcom/jforth/OStack;)I"));
+                    c.u1(3);
+                    c.u1(0);
+                    c.branchToFail(IFEQ);
+                    break;
+
+                case ThreadedCode.OP_BRANCH:
+                    c.branch(GOTO, operand);
+                    break;
+
+                case ThreadedCode.OP_IF:
+                case ThreadedCode.OP_END:
+                    c.op(ALOAD_1);
+                    c.op(INVOKESTATIC);
+                    c.u2(cp.methodRef(OPS, (op == ThreadedCode.OP_IF) ? "ifFlag" : "endFlag",
+                            "(Lcom/jforth/OStack;)I"));
+                    testFlag(c);
+                    c.branch(IFEQ, operand);
+                    break;
+
+                case ThreadedCode.OP_DO:
+                    c.op(ALOAD_1);
+                    c.op(ALOAD_2);
+                    c.op(INVOKESTATIC);
+                    c.u2(cp.methodRef(OPS, "doLoop", "(Lcom/jforth/OStack;Lcom/jforth/OStack;)Z"));
+                    c.branchToFail(IFEQ);
+                    break;
+
+                case ThreadedCode.OP_LOOP:
+                    c.op(ALOAD_2);
+                    c.op(INVOKESTATIC);
+                    c.u2(cp.methodRef(OPS, "loop", "(Lcom/jforth/OStack;)I"));
+                    testFlag(c);
+                    c.branch(IFNE, operand);
+                    break;
+
+                case ThreadedCode.OP_PLUS_LOOP:
+                    c.op(ALOAD_1);
+                    c.op(ALOAD_2);
+                    c.op(INVOKESTATIC);
+                    c.u2(cp.methodRef(OPS, "plusLoop", "(Lcom/jforth/OStack;Lcom/jforth/OStack;)I"));
+                    testFlag(c);
+                    c.branch(IFNE, operand);
+                    break;
+
+                case ThreadedCode.OP_LEAVE:
+                    c.op(ALOAD_2);
+                    c.op(INVOKESTATIC);
+                    c.u2(cp.methodRef(OPS, "leave", "(Lcom/jforth/OStack;)Z"));
+                    c.branchToFail(IFEQ);
+                    break;
+
+                case ThreadedCode.OP_DUP:
+                case ThreadedCode.OP_DROP:
+                case ThreadedCode.OP_SWAP:
+                case ThreadedCode.OP_OVER:
+                    c.op(ALOAD_1);
+                    c.op(INVOKESTATIC);
+                    c.u2(cp.methodRef(OPS, STACK_OPS[op - ThreadedCode.OP_DUP], "(Lcom/jforth/OStack;)Z"));
+                    c.branchToFail(IFEQ);
+                    break;
+
+                case ThreadedCode.OP_I:
+                    c.op(ALOAD_1);
+                    c.op(ALOAD_2);
+                    c.op(INVOKESTATIC);
+                    c.u2(cp.methodRef(OPS, "loopIndex", "(Lcom/jforth/OStack;Lcom/jforth/OStack;)Z"));
+                    c.branchToFail(IFEQ);
+                    break;
+
+                case ThreadedCode.OP_LIT_ADD:
+                case ThreadedCode.OP_LIT_SUB:
+                case ThreadedCode.OP_LIT_MUL:
+                case ThreadedCode.OP_LIT_LT:
+                    c.op(ALOAD_1);
+                    c.op(ALOAD_2);
+                    c.op(ALOAD_3);
+                    pushInt(c, cp, operand);
+                    pushInt(c, cp, operand2);
+                    c.op(INVOKESTATIC);
+                    c.u2(cp.methodRef(OPS, LITERAL_OPS[op - ThreadedCode.OP_LIT_ADD], LITERAL_OP_DESC));
+                    c.branchToFail(IFEQ);
+                    break;
+
+                case ThreadedCode.OP_ZERO_EQ_IF:
+                    c.op(ALOAD_1);
+                    c.op(ALOAD_2);
+                    c.op(ALOAD_3);
+                    pushInt(c, cp, operand2);
+                    c.op(INVOKESTATIC);
+                    c.u2(cp.methodRef(OPS, "zeroEqualFlag",
+                            "(Lcom/jforth/OStack;Lcom/jforth/OStack;[Ljava/lang/Object;I)I"));
+                    testFlag(c);
+                    c.branch(IFEQ, operand);
+                    break;
+
+                default:
+                    String method = OPERAND_OPS.get(op);
+
+                    if (method == null) {
+                        // Opcode this tier doesn't know about
+                        return null;
+                    }
+
+                    c.op(ALOAD_1);
+                    c.op(ALOAD_2);
+                    c.op(ALOAD_3);
+                    pushInt(c, cp, operand);
+                    c.op(INVOKESTATIC);
+                    c.u2(cp.methodRef(OPS, method, OP_DESC));
+                    c.branchToFail(IFEQ);
+                    break;
+            }
+
+            ip += ThreadedCode.length(op);
+        }
+
+        address[code.length] = c.size();
+
+        // Normal end of the definition
+        c.op(ICONST_1);
+        c.op(IRETURN);
+
+        // Common error exit
+        int fail = c.size();
+        c.op(ICONST_0);
+        c.op(IRETURN);
+
+        c.resolve(address, fail);
+
+        return c.toByteArray();
+    }
+
+    private static final String[] STACK_OPS = {"dup", "drop", "swap", "over"};
+
+    // Literal superinstructions, in opcode order from OP_LIT_ADD
+    private static final String[] LITERAL_OPS = {"literalAdd", "literalSub", "literalMul", "literalLessThan"};
+
+    // Inlined primitives and superinstructions taking a pool index as operand
+    private static final HashMap<Integer, String> OPERAND_OPS = new HashMap<Integer, String>();
+
+    static {
+        OPERAND_OPS.put(ThreadedCode.OP_ADD, "add");
+        OPERAND_OPS.put(ThreadedCode.OP_SUB, "sub");
+        OPERAND_OPS.put(ThreadedCode.OP_MUL, "mul");
+        OPERAND_OPS.put(ThreadedCode.OP_INC, "inc");
+        OPERAND_OPS.put(ThreadedCode.OP_DEC, "dec");
+        OPERAND_OPS.put(ThreadedCode.OP_LT, "lessThan");
+        OPERAND_OPS.put(ThreadedCode.OP_EQ, "equal");
+        OPERAND_OPS.put(ThreadedCode.OP_GT, "greaterThan");
+        OPERAND_OPS.put(ThreadedCode.OP_ZERO_EQ, "zeroEqual");
+        OPERAND_OPS.put(ThreadedCode.OP_DUP_MUL, "dupMul");
+        OPERAND_OPS.put(ThreadedCode.OP_VAR_FETCH, "variableFetch");
+        OPERAND_OPS.put(ThreadedCode.OP_VAR_STORE, "variableStore");
+        OPERAND_OPS.put(ThreadedCode.OP_ARRAY_FETCH, "arrayFetch");
+        OPERAND_OPS.put(ThreadedCode.OP_ARRAY_STORE, "arrayStore");
+        OPERAND_OPS.put(ThreadedCode.OP_I_ARRAY_FETCH, "indexArrayFetch");
+    }
+
+    // Leave a flag result in its local, exiting on error. The flag is left on the operand stack.
+    private static void testFlag(Code c) {
+
+        c.op(ISTORE);
+        c.u1(LOCAL_FLAG);
+        c.op(ILOAD);
+        c.u1(LOCAL_FLAG);
+        c.branchToFail(IFLT);
+        c.op(ILOAD);
+        c.u1(LOCAL_FLAG);
+    }
+
+    private static void pushInt(Code c, ConstantPool cp, int value) {
+
+        if ((value >= -1) && (value <= 5)) {
+            c.op(ICONST_0 + value);
+
+        } else if ((value >= Byte.MIN_VALUE) && (value <= Byte.MAX_VALUE)) {
+            c.op(BIPUSH);
+            c.u1(value);
+
+        } else if ((value >= Short.MIN_VALUE) && (value <= Short.MAX_VALUE)) {
+            c.op(SIPUSH);
+            c.u2(value);
+
+        } else {
+            c.op(LDC_W);
+            c.u2(cp.integer(value));
+        }
+    }
+
+    // Method body under construction with branch fixups
+    private static final class Code {
+
+        private ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        // Each fixup is the offset of the branch opcode and the threaded code
+        // target, or -1 for the common error exit
+        private ArrayList<int[]> fixups = new ArrayList<int[]>();
+        private byte[] resolved;
+
+        int size() {
+            return bytes.size();
+        }
+
+        void op(int opcode) {
+            bytes.write(opcode);
+        }
+
+        void u1(int value) {
+            bytes.write(value);
+        }
+
+        void u2(int value) {
+            bytes.write(value >> 8);
+            bytes.write(value);
+        }
+
+        void branch(int opcode, int target) {
+            fixups.add(new int[]{size(), target});
+            op(opcode);
+            u2(0);
+        }
+
+        void branchToFail(int opcode) {
+            branch(opcode, -1);
+        }
+
+        void resolve(int[] address, int fail) {
+
+            resolved = bytes.toByteArray();
+
+            for (int[] fixup : fixups) {
+                int from = fixup[0];
+                int to = (fixup[1] == -1) ? fail : address[fixup[1]];
+                int offset = to - from;
+
+                resolved[from + 1] = (byte) (offset >> 8);
+                resolved[from + 2] = (byte) offset;
+            }
+        }
+
+        byte[] toByteArray() {
+            return (resolved != null) ? resolved : bytes.toByteArray();
+        }
+    }
+
+    // Class file constant pool
+    private static final class ConstantPool {
+
+        private ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private DataOutputStream out = new DataOutputStream(bytes);
+        private HashMap<String, Integer> entries = new HashMap<String, Integer>();
+        private int count = 1;
+
+        private int entry(String key, int tag, int a, int b) {
+
+            Integer index = entries.get(key);
+
+            if (index != null) {
+                return index;
+            }
+
+            try {
+                out.writeByte(tag);
+                out.writeShort(a);
+
+                if (b != -1) {
+                    out.writeShort(b);
+                }
+
+            } catch (IOException ignore) {
+                // Writing to a byte array doesn't fail
+            }
+
+            entries.put(key, count);
+
+            return count++;
+        }
+
+        int utf8(String s) {
+
+            String key = "U" + s;
+            Integer index = entries.get(key);
+
+            if (index != null) {
+                return index;
+            }
+
+            try {
+                out.writeByte(1);
+                out.writeUTF(s);
+
+            } catch (IOException ignore) {
+                // Writing to a byte array doesn't fail
+            }
+
+            entries.put(key, count);
+
+            return count++;
+        }
+
+        int integer(int value) {
+
+            String key = "I" + value;
+            Integer index = entries.get(key);
+
+            if (index != null) {
+                return index;
+            }
+
+            try {
+                out.writeByte(3);
+                out.writeInt(value);
+
+            } catch (IOException ignore) {
+                // Writing to a byte array doesn't fail
+            }
+
+            entries.put(key, count);
+
+            return count++;
+        }
+
+        int classRef(String name) {
+            return entry("C" + name, 7, utf8(name), -1);
+        }
+
+        int nameAndType(String name, String desc) {
+            return entry("N" + name + ":" + desc, 12, utf8(name), utf8(desc));
+        }
+
+        int fieldRef(String owner, String name, String desc) {
+            return entry("F" + owner + "." + name + ":" + desc, 9, classRef(owner), nameAndType(name, desc));
+        }
+
+        int methodRef(String owner, String name, String desc) {
+            return entry("M" + owner + "." + name + desc, 10, classRef(owner), nameAndType(name, desc));
+        }
+
+        int interfaceMethodRef(String owner, String name, String desc) {
+            return entry("IM" + owner + "." + name + desc, 11, classRef(owner), nameAndType(name, desc));
+        }
+
+        void write(DataOutputStream dos) throws IOException {
+            dos.writeShort(count);
+            dos.write(bytes.toByteArray());
+        }
+    }
+
+    // One loader per generated class so it can be unloaded with its word
+    private static final class Loader extends ClassLoader {
+
+        Loader() {
+            super(BytecodeCompiler.class.getClassLoader());
+        }
+
+        Class<?> define(String name, byte[] b) {
+            return defineClass(name, b, 0, b.length);
+        }
+    }
+}
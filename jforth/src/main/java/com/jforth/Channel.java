@@ -0,0 +1,217 @@
+package com.jforth;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Channel Class
+ * <p/>
+ * Bounded first in first out queue for handing cells between interpreters,
+ * sessions and tasks. It is a lock free ring buffer which any number of
+ * threads may send to and receive from at once.
+ * <p/>
+ * Each slot has a sequence number telling whose turn it is: a sender may
+ * fill the slot when it equals the send position and a receiver may empty
+ * it when it is one more. Senders and receivers claim positions by compare
+ * and set on their counter and publish a slot by advancing its sequence
+ * number, so nothing ever waits on a lock. A full or empty channel just
+ * makes the operation fail; waiting is up to the caller.
+ * <p/>
+ * Several cells may be moved at once. They are claimed together, so the
+ * cells sent by one batch arrive one after the other even with other
+ * senders about.
+ */
+public final class Channel {
+
+    // Class data
+    private final int mask;
+    private final AtomicReferenceArray<Object> cells;
+    private final AtomicLongArray sequence;
+    private final AtomicLong sendPosition = new AtomicLong();
+    private final AtomicLong receivePosition = new AtomicLong();
+
+    /**
+     * Make a channel.
+     *
+     * @param capacity is the least number of cells the channel holds,
+     *                 rounded up to a power of two
+     */
+    public Channel(int capacity) {
+
+        if ((capacity < 1) || (capacity > (1 << 30))) {
+            throw new IllegalArgumentException("Bad channel capacity " + capacity);
+        }
+
+        int size = Integer.highestOneBit(capacity);
+
+        if (size < capacity) {
+            size <<= 1;
+        }
+
+        mask = size - 1;
+        cells = new AtomicReferenceArray<Object>(size);
+        sequence = new AtomicLongArray(size);
+
+        for (int i = 0; i < size; i++) {
+            sequence.set(i, i);
+        }
+    }
+
+    public int capacity() {
+        return mask + 1;
+    }
+
+    // Number of cells waiting, which may be out of date as soon as it is returned
+    public int size() {
+
+        long n = sendPosition.get() - receivePosition.get();
+
+        return (int) Math.max(0, Math.min(n, capacity()));
+    }
+
+    /**
+     * Send a cell.
+     *
+     * @param o is the cell, which must not be null
+     * @return false if the channel is full
+     */
+    public boolean send(Object o) {
+
+        while (true) {
+            long pos = sendPosition.get();
+            long diff = sequence.get((int) pos & mask) - pos;
+
+            if (diff < 0) {
+                return false;
+            }
+
+            if ((diff == 0) && sendPosition.compareAndSet(pos, pos + 1)) {
+                put(pos, o);
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Receive a cell.
+     *
+     * @return the cell or null if the channel is empty
+     */
+    public Object receive() {
+
+        while (true) {
+            long pos = receivePosition.get();
+            long diff = sequence.get((int) pos & mask) - (pos + 1);
+
+            if (diff < 0) {
+                return null;
+            }
+
+            if ((diff == 0) && receivePosition.compareAndSet(pos, pos + 1)) {
+                return take(pos);
+            }
+        }
+    }
+
+    /**
+     * Send cells one after the other, all or none.
+     *
+     * @param from   holds the cells, none of which may be null
+     * @param offset is the index of the first cell to send
+     * @param count  is the number of cells, at most the capacity
+     * @return false if there isn't room for them all
+     */
+    public boolean send(Object[] from, int offset, int count) {
+
+        while (true) {
+            long pos = sendPosition.get();
+
+            if (!ready(pos, count, 0)) {
+
+                // Another sender may have moved on, in which case look again
+                if (sendPosition.get() == pos) {
+                    return false;
+                }
+
+                continue;
+            }
+
+            if (sendPosition.compareAndSet(pos, pos + count)) {
+
+                for (int i = 0; i < count; i++) {
+                    put(pos + i, from[offset + i]);
+                }
+
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Receive cells one after the other, all or none.
+     *
+     * @param to     gets the cells
+     * @param offset is the index the first cell goes to
+     * @param count  is the number of cells, at most the capacity
+     * @return false if fewer cells are waiting
+     */
+    public boolean receive(Object[] to, int offset, int count) {
+
+        while (true) {
+            long pos = receivePosition.get();
+
+            if (!ready(pos, count, 1)) {
+
+                if (receivePosition.get() == pos) {
+                    return false;
+                }
+
+                continue;
+            }
+
+            if (receivePosition.compareAndSet(pos, pos + count)) {
+
+                for (int i = 0; i < count; i++) {
+                    to[offset + i] = take(pos + i);
+                }
+
+                return true;
+            }
+        }
+    }
+
+    // Whether the count slots from pos are all free (turn 0) or all full (turn 1)
+    private boolean ready(long pos, int count, int turn) {
+
+        for (int i = 0; i < count; i++) {
+
+            if (sequence.get((int) (pos + i) & mask) != pos + i + turn) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    // Fill a claimed slot and hand it to the receivers
+    private void put(long pos, Object o) {
+
+        int slot = (int) pos & mask;
+
+        cells.lazySet(slot, o);
+        sequence.lazySet(slot, pos + 1);
+    }
+
+    // Empty a claimed slot and hand it back to the senders a lap later
+    private Object take(long pos) {
+
+        int slot = (int) pos & mask;
+        Object o = cells.get(slot);
+
+        cells.lazySet(slot, null);
+        sequence.lazySet(slot, pos + mask + 1);
+
+        return o;
+    }
+}
@@ -0,0 +1,33 @@
+package com.jforth;
+
+/**
+ * Channel Word Class
+ * <p/>
+ * A word defined by channel naming a channel. Like a variable it pushes
+ * itself onto the variable stack, where send and receive expect it. The
+ * channel itself is never copied: forks and sessions of a core frozen with
+ * the word all share it, which is how they pass cells to each other.
+ */
+public final class ChannelWord extends BaseWord {
+
+    // Class data
+    private final Channel channel;
+
+    public ChannelWord(String name, int capacity) {
+        super(name, false, false);
+
+        channel = new Channel(capacity);
+    }
+
+    public Channel getChannel() {
+        return channel;
+    }
+
+    public int execute(OStack dStack, OStack vStack) {
+
+        // Push a reference to this object onto the variable stack
+        vStack.push(this);
+
+        return 1;
+    }
+}
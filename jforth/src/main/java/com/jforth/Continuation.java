@@ -0,0 +1,196 @@
+package com.jforth;
+
+/**
+ * Continuation Class
+ * <p/>
+ * Where a task is in running its word: the task's data and variable stacks
+ * and a stack of frames, each the threaded code of a definition with the
+ * address to carry on from. Nothing is kept on the Java stack between
+ * turns, so any number of tasks share the thread of the interpreter that
+ * runs them and giving up a turn costs no more than a return.
+ * <p/>
+ * Calls from the threaded code of a task come here. A call to a definition
+ * with threaded code pushes a frame for it instead of executing it, and so
+ * does execute given such a definition. Other words are executed as usual,
+ * so a task pauses or waits in them only when they return; a primitive
+ * which would wait for something can instead ask to be run again on the
+ * task's next turn.
+ */
+public final class Continuation {
+
+    // Returned by run and ThreadedCode when the code stopped at a call
+    static final int SUSPENDED = -1;
+
+    private static final int INITIAL_DEPTH = 8;
+
+    // Class data
+    private final BaseWord word;
+    private final OStack dStack;
+    private final OStack vStack;
+    private ThreadedCode[] frames = new ThreadedCode[INITIAL_DEPTH];
+    private int[] addresses = new int[INITIAL_DEPTH];
+    private int depth = 0;
+    private boolean started = false;
+    private BaseWord pending = null;     // Primitive to run again first
+    private ExecuteIF calling = null;    // Code of the primitive being called from threaded code
+    private boolean waiting = false;     // That primitive asked to be run again
+    private boolean yielding = false;    // Give up the turn at the next call
+
+    Continuation(BaseWord word, OStack dStack, OStack vStack) {
+
+        this.word = word;
+        this.dStack = dStack;
+        this.vStack = vStack;
+    }
+
+    /**
+     * Run until the task gives up its turn or its word returns.
+     *
+     * @return 1 when the word has returned, 0 if an error occurred or
+     * SUSPENDED if the task gave up its turn
+     */
+    int run() {
+
+        int result = 1;
+
+        yielding = false;
+
+        if (pending != null) {
+            BaseWord primitive = pending;
+
+            pending = null;
+            result = call(null, 0, primitive);
+
+        } else if (!started) {
+            started = true;
+            result = call(null, 0, word);
+        }
+
+        while (true) {
+
+            if (result == 0) {
+                return 0;
+            }
+
+            if (yielding) {
+                return SUSPENDED;
+            }
+
+            if (depth == 0) {
+                return 1;
+            }
+
+            // Carry on with the innermost frame, which is gone once it returns
+            depth--;
+
+            ThreadedCode code = frames[depth];
+
+            frames[depth] = null;
+            result = code.run(dStack, vStack, addresses[depth], this);
+        }
+    }
+
+    /**
+     * Call a word from threaded code.
+     *
+     * @param caller is the code making the call, or null at the top level
+     * @param resume is the address in the caller to carry on from
+     * @param eif    is the word called
+     * @return 1 if the caller is to carry on, 0 if an error occurred or
+     * SUSPENDED if the caller's frame has been saved to carry on later
+     */
+    int call(ThreadedCode caller, int resume, ExecuteIF eif) {
+
+        if ((eif == JForth.EXECUTE) && !dStack.empty() && (dStack.peek() instanceof BaseWord)) {
+            eif = (BaseWord) dStack.pop();
+        }
+
+        if (eif instanceof NonPrimitiveWord) {
+            ThreadedCode code = ((NonPrimitiveWord) eif).taskCode();
+
+            if (code != null) {
+                save(caller, resume);
+                push(code, 0);
+
+                return SUSPENDED;
+            }
+        }
+
+        calling = (eif instanceof PrimitiveWord) ? ((PrimitiveWord) eif).getExecuteIF() : null;
+
+        int result;
+
+        try {
+            result = eif.execute(dStack, vStack);
+
+        } finally {
+            calling = null;
+        }
+
+        if (result == 0) {
+            return 0;
+        }
+
+        if (waiting) {
+            waiting = false;
+            pending = (BaseWord) eif;
+            yielding = true;
+        }
+
+        if (yielding) {
+            save(caller, resume);
+
+            return SUSPENDED;
+        }
+
+        return 1;
+    }
+
+    // Give up the turn at the next call
+    void yield() {
+        yielding = true;
+    }
+
+    /**
+     * Have a primitive run again on the next turn instead of waiting now.
+     * Only a primitive called straight from the task's threaded code can be.
+     *
+     * @param primitive is the code of the primitive
+     * @return false if the primitive must wait now
+     */
+    boolean retry(ExecuteIF primitive) {
+
+        if ((primitive == null) || (primitive != calling)) {
+            return false;
+        }
+
+        waiting = true;
+
+        return true;
+    }
+
+    private void save(ThreadedCode caller, int resume) {
+
+        if (caller != null) {
+            push(caller, resume);
+        }
+    }
+
+    private void push(ThreadedCode code, int address) {
+
+        if (depth == frames.length) {
+            ThreadedCode[] moreFrames = new ThreadedCode[depth << 1];
+            int[] moreAddresses = new int[depth << 1];
+
+            System.arraycopy(frames, 0, moreFrames, 0, depth);
+            System.arraycopy(addresses, 0, moreAddresses, 0, depth);
+
+            frames = moreFrames;
+            addresses = moreAddresses;
+        }
+
+        frames[depth] = code;
+        addresses[depth] = address;
+        depth++;
+    }
+}
@@ -0,0 +1,687 @@
+package com.jforth;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * Dictionary Image Class
+ * <p/>
+ * Binary form of the words defined on top of the primitives, so a dictionary
+ * can be restored without interpreting any source. The image is laid out as
+ * <p/>
+ * magic, version<br/>
+ * the names of the primitives referred to<br/>
+ * a header for each word: kind, name, flags, size and the offset of its body<br/>
+ * the bodies
+ * <p/>
+ * A body is the cells of a definition or the contents of a variable or
+ * array. Each cell is a tag byte followed by its value. Primitives are
+ * referred to by their index in the name table and other words by their
+ * index in the image, so an image can be loaded into any interpreter having
+ * the same primitives. The loop body of a parallel do loop is held in its
+ * cell: the number of cells in the body, the cells and the reduction word.
+ * <p/>
+ * Tasks and channels have no body. A task is saved by its name alone, as
+ * activate gives it its word in each session, and a channel by its name and
+ * capacity; it is restored empty.
+ * <p/>
+ * An image may also hold words defined on top of a context: words already
+ * in the dictionary, referred to by their index in the context. Such an
+ * image must be read against the same context.
+ * <p/>
+ * An image may be read lazily. Only the headers are read, giving words whose
+ * bodies are decoded from the image the first time each word is used, so the
+ * cost of loading a large library is paid only for the words a program uses.
+ */
+public final class DictionaryImage {
+
+    private static final int MAGIC = 0x4A464931;      // "JFI1"
+    private static final int VERSION = 2;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    // Word kinds
+    private static final int COLON = 0;
+    private static final int STORAGE = 1;
+    private static final int TASK = 2;
+    private static final int CHANNEL = 3;
+
+    // Word flags
+    private static final int IMMEDIATE = 1;
+    private static final int CONSTANT = 2;
+    private static final int SHARED = 4;
+
+    // Cell tags
+    private static final int NUMBER = 0;
+    private static final int STRING = 1;
+    private static final int PRIMITIVE = 2;
+    private static final int WORD = 3;
+    private static final int IF = 4;
+    private static final int ELSE = 5;
+    private static final int END = 6;
+    private static final int LOOP = 7;
+    private static final int PLUS_LOOP = 8;
+    private static final int DO = 9;
+    private static final int LEAVE = 10;
+    private static final int NULL = 11;
+    private static final int CONTEXT = 12;
+    private static final int PARALLEL_DO = 13;
+
+    private DictionaryImage() {
+    }
+
+    /**
+     * Write an image of words.
+     *
+     * @param out   is where the image goes
+     * @param words are the words to save in definition order. Words may only
+     *              refer to primitives and to words before them in the list.
+     * @throws IOException if a word refers to a word not in the image
+     */
+    public static void write(DataOutputStream out, List<BaseWord> words) throws IOException {
+        write(out, Collections.<BaseWord>emptyList(), words);
+    }
+
+    /**
+     * Write an image of words defined on top of a context.
+     *
+     * @param out     is where the image goes
+     * @param context are words the image may refer to without containing them
+     * @param words   are the words to save in definition order
+     * @throws IOException if a word refers to a word in neither list
+     */
+    public static void write(DataOutputStream out, List<BaseWord> context, List<BaseWord> words)
+            throws IOException {
+        write(out, context, words, null);
+    }
+
+    /**
+     * Write an image of words defined on top of a context, as a session
+     * sees them. Variables and arrays shared with other sessions are saved
+     * with the contents the session has given them.
+     *
+     * @param out     is where the image goes
+     * @param context are words the image may refer to without containing them
+     * @param words   are the words to save in definition order
+     * @param vStack  is the variable stack of the session, or null to save
+     *                the contents the words were frozen with
+     * @throws IOException if a word refers to a word in neither list
+     */
+    public static void write(DataOutputStream out, List<BaseWord> context, List<BaseWord> words, OStack vStack)
+            throws IOException {
+
+        IdentityHashMap<BaseWord, Integer> index = new IdentityHashMap<BaseWord, Integer>();
+        IdentityHashMap<BaseWord, Integer> contextIndex = new IdentityHashMap<BaseWord, Integer>();
+        LinkedHashMap<String, Integer> primitives = new LinkedHashMap<String, Integer>();
+
+        for (int i = 0; i < words.size(); i++) {
+            index.put(words.get(i), i);
+        }
+
+        for (int i = 0; i < context.size(); i++) {
+            contextIndex.put(context.get(i), i);
+        }
+
+        // Bodies first, so the header can give their offsets
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream bodies = new DataOutputStream(bytes);
+        int[] offsets = new int[words.size()];
+
+        for (int i = 0; i < words.size(); i++) {
+            BaseWord bw = words.get(i);
+
+            offsets[i] = bodies.size();
+
+            if (bw instanceof NonPrimitiveWord) {
+                NonPrimitiveWord npw = (NonPrimitiveWord) bw;
+
+                for (int c = 0; c < npw.size(); c++) {
+                    writeCell(bodies, npw.getWord(c), index, contextIndex, primitives);
+                }
+
+            } else if (bw instanceof StorageWord) {
+                StorageWord sw = (StorageWord) bw;
+
+                for (int c = 0; c < sw.getSize(); c++) {
+                    writeCell(bodies, sw.fetch(vStack, c), index, contextIndex, primitives);
+                }
+
+            } else if (!(bw instanceof TaskWord) && !(bw instanceof ChannelWord)) {
+                throw new IOException("Can't save word \"" + bw.name + "\"");
+            }
+        }
+
+        bodies.flush();
+
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+
+        out.writeInt(primitives.size());
+
+        for (String name : primitives.keySet()) {
+            writeUTF8(out, name);
+        }
+
+        out.writeInt(words.size());
+
+        for (int i = 0; i < words.size(); i++) {
+            BaseWord bw = words.get(i);
+            int flags = bw.immediate ? IMMEDIATE : 0;
+
+            if (bw instanceof NonPrimitiveWord) {
+                NonPrimitiveWord npw = (NonPrimitiveWord) bw;
+
+                if (npw.getConstantValue() != null) {
+                    flags |= CONSTANT;
+                }
+
+                out.writeByte(COLON);
+                writeUTF8(out, bw.name);
+                out.writeByte(flags);
+                out.writeInt(npw.size());
+
+            } else if (bw instanceof TaskWord) {
+                out.writeByte(TASK);
+                writeUTF8(out, bw.name);
+                out.writeByte(flags);
+                out.writeInt(0);
+
+            } else if (bw instanceof ChannelWord) {
+                out.writeByte(CHANNEL);
+                writeUTF8(out, bw.name);
+                out.writeByte(flags);
+                out.writeInt(((ChannelWord) bw).getChannel().capacity());
+
+            } else {
+
+                if (((StorageWord) bw).isAtomic()) {
+                    flags |= SHARED;
+                }
+
+                out.writeByte(STORAGE);
+                writeUTF8(out, bw.name);
+                out.writeByte(flags);
+                out.writeInt(((StorageWord) bw).getSize());
+            }
+
+            out.writeInt(offsets[i]);
+        }
+
+        out.writeInt(bytes.size());
+        bytes.writeTo(out);
+        out.flush();
+    }
+
+    /**
+     * Read an image.
+     *
+     * @param image      holds the image
+     * @param primitives are the primitive words of the interpreter loading the image
+     * @return the words of the image in definition order
+     * @throws IOException if the image is damaged or needs a primitive that doesn't exist
+     */
+    public static List<BaseWord> read(ByteBuffer image, BaseWord[] primitives) throws IOException {
+        return read(image, primitives, Collections.<BaseWord>emptyList(), false);
+    }
+
+    /**
+     * Read an image of words defined on top of a context.
+     *
+     * @param image      holds the image
+     * @param primitives are the primitive words of the interpreter loading the image
+     * @param context    are the words the image was written against
+     * @return the words of the image in definition order
+     * @throws IOException if the image is damaged or doesn't fit the context
+     */
+    public static List<BaseWord> read(ByteBuffer image, BaseWord[] primitives, List<BaseWord> context)
+            throws IOException {
+        return read(image, primitives, context, false);
+    }
+
+    /**
+     * Read the headers of an image, leaving each body to be decoded the first
+     * time its word is used. The image must not change while any of its words
+     * are in use, which for a mapped file means the file must not be rewritten.
+     *
+     * @param image      holds the image
+     * @param primitives are the primitive words of the interpreter loading the image
+     * @return the words of the image in definition order
+     * @throws IOException if the headers are damaged or a primitive doesn't exist
+     */
+    public static List<BaseWord> readLazily(ByteBuffer image, BaseWord[] primitives) throws IOException {
+        return readLazily(image, primitives, Collections.<BaseWord>emptyList());
+    }
+
+    /**
+     * Read the headers of an image of words defined on top of a context,
+     * leaving the bodies to be decoded on first use.
+     *
+     * @param image      holds the image
+     * @param primitives are the primitive words of the interpreter loading the image
+     * @param context    are the words the image was written against
+     * @return the words of the image in definition order
+     * @throws IOException if the headers are damaged or a primitive doesn't exist
+     */
+    public static List<BaseWord> readLazily(ByteBuffer image, BaseWord[] primitives, List<BaseWord> context)
+            throws IOException {
+        return read(image, primitives, context, true);
+    }
+
+    private static List<BaseWord> read(ByteBuffer image, BaseWord[] primitives, List<BaseWord> context,
+                                       boolean lazy) throws IOException {
+
+        ByteBuffer in = image.duplicate();
+
+        try {
+            if ((in.getInt() != MAGIC) || (in.getInt() != VERSION)) {
+                throw new IOException("Not a dictionary image");
+            }
+
+            HashMap<String, BaseWord> byName = new HashMap<String, BaseWord>();
+
+            for (BaseWord bw : primitives) {
+                byName.put(bw.name, bw);
+            }
+
+            BaseWord[] names = new BaseWord[in.getInt()];
+
+            for (int i = 0; i < names.length; i++) {
+                String name = readString(in);
+
+                names[i] = byName.get(name);
+
+                if (names[i] == null) {
+                    throw new IOException("Image needs missing primitive \"" + name + "\"");
+                }
+            }
+
+            // Make every word first, then fill in the bodies which refer to them
+            int count = in.getInt();
+            ArrayList<BaseWord> words = new ArrayList<BaseWord>(count);
+            int[] sizes = new int[count];
+            int[] offsets = new int[count];
+
+            for (int i = 0; i < count; i++) {
+                int kind = in.get();
+                String name = readString(in);
+                int flags = in.get();
+
+                sizes[i] = in.getInt();
+                offsets[i] = in.getInt();
+
+                if (kind == COLON) {
+                    NonPrimitiveWord npw = new NonPrimitiveWord(name);
+
+                    if ((flags & IMMEDIATE) != 0) {
+                        npw.setImmediate();
+                    }
+
+                    if ((flags & CONSTANT) != 0) {
+                        npw.setConstant();
+                    }
+
+                    words.add(npw);
+
+                } else if (kind == STORAGE) {
+                    words.add(new StorageWord(name, sizes[i], (flags & SHARED) != 0));
+
+                } else if (kind == TASK) {
+                    words.add(new TaskWord(name));
+
+                } else if (kind == CHANNEL) {
+
+                    if ((sizes[i] < 1) || (sizes[i] > JForth.MAX_CHANNEL_CAPACITY)) {
+                        throw new IOException("Bad channel capacity " + sizes[i]);
+                    }
+
+                    words.add(new ChannelWord(name, sizes[i]));
+
+                    // Nothing in the body to decode
+                    sizes[i] = 0;
+
+                } else {
+                    throw new IOException("Bad word kind " + kind);
+                }
+            }
+
+            int length = in.getInt();
+
+            if (length > in.remaining()) {
+                throw new IOException("Image is truncated");
+            }
+
+            in.limit(in.position() + length);
+
+            Source source = new Source(in.slice(), names, words, context);
+
+            for (int i = 0; i < count; i++) {
+
+                if ((offsets[i] < 0) || (offsets[i] > length)) {
+                    throw new IOException("Bad body offset " + offsets[i]);
+                }
+
+                Body body = new Body(source, offsets[i], sizes[i]);
+                BaseWord bw = words.get(i);
+
+                if ((bw instanceof TaskWord) || (bw instanceof ChannelWord)) {
+                    continue;
+                }
+
+                if (lazy) {
+
+                    if (bw instanceof NonPrimitiveWord) {
+                        ((NonPrimitiveWord) bw).setBody(body);
+
+                    } else {
+                        ((StorageWord) bw).setBody(body);
+                    }
+
+                } else {
+                    body.fill(words.get(i));
+                }
+            }
+
+            return words;
+
+        } catch (BufferUnderflowException bue) {
+            throw new IOException("Image is truncated");
+        }
+    }
+
+    // What the bodies of an image are decoded against
+    private static final class Source {
+
+        private final ByteBuffer bodies;
+        private final BaseWord[] names;
+        private final List<BaseWord> words;
+        private final List<BaseWord> context;
+
+        Source(ByteBuffer bodies, BaseWord[] names, List<BaseWord> words, List<BaseWord> context) {
+            this.bodies = bodies;
+            this.names = names;
+            this.words = words;
+            this.context = context;
+        }
+    }
+
+    /**
+     * The body of a word in an image. Words read lazily hold on to theirs
+     * until they are first used.
+     */
+    static final class Body {
+
+        private final Source source;
+        private final int offset;
+        private final int size;
+
+        Body(Source source, int offset, int size) {
+            this.source = source;
+            this.offset = offset;
+            this.size = size;
+        }
+
+        /**
+         * Decode the body into its word.
+         *
+         * @param bw is the word made for this body from its header
+         * @throws IOException if the body is damaged
+         */
+        void fill(BaseWord bw) throws IOException {
+
+            // Each decode has its own position so words may be filled concurrently
+            ByteBuffer in = source.bodies.duplicate();
+            in.position(offset);
+
+            try {
+                for (int c = 0; c < size; c++) {
+                    Object cell = readCell(in, source.names, source.words, source.context);
+
+                    if (bw instanceof NonPrimitiveWord) {
+                        ((NonPrimitiveWord) bw).addWord((ExecuteIF) cell);
+
+                    } else if (!((StorageWord) bw).set(c, storageValue(cell))) {
+                        throw new IOException("Shared \"" + bw.name + "\" holds something other than a number");
+                    }
+                }
+
+            } catch (BufferUnderflowException bue) {
+                throw new IOException("Body of \"" + bw.name + "\" is truncated");
+
+            } catch (IndexOutOfBoundsException ioobe) {
+                throw new IOException("Body of \"" + bw.name + "\" is damaged");
+            }
+        }
+    }
+
+    // Write a definition cell or a storage value
+    private static void writeCell(DataOutputStream out, Object o, IdentityHashMap<BaseWord, Integer> index,
+                                  IdentityHashMap<BaseWord, Integer> contextIndex,
+                                  LinkedHashMap<String, Integer> primitives) throws IOException {
+
+        if (o == null) {
+            out.writeByte(NULL);
+
+        } else if (o instanceof Integer) {
+            out.writeByte(NUMBER);
+            out.writeInt(((Integer) o).intValue());
+
+        } else if (o instanceof NumericLiteral) {
+            out.writeByte(NUMBER);
+            out.writeInt(((NumericLiteral) o).getNumber());
+
+        } else if (o instanceof String) {
+            writeString(out, (String) o);
+
+        } else if (o instanceof StringLiteral) {
+            writeString(out, ((StringLiteral) o).getString());
+
+        } else if (o instanceof IfControlWord) {
+            out.writeByte(IF);
+            out.writeInt(((IfControlWord) o).getFalseIndexIncrement());
+
+        } else if (o instanceof ElseControlWord) {
+            out.writeByte(ELSE);
+            out.writeInt(((ElseControlWord) o).getIndexIncrement());
+
+        } else if (o instanceof EndLoopControlWord) {
+            out.writeByte(END);
+            out.writeInt(((EndLoopControlWord) o).getIndexIncrement());
+
+        } else if (o instanceof LoopControlWord) {
+            out.writeByte(LOOP);
+            out.writeInt(((LoopControlWord) o).getIndexIncrement());
+
+        } else if (o instanceof PlusLoopControlWord) {
+            out.writeByte(PLUS_LOOP);
+            out.writeInt(((PlusLoopControlWord) o).getIndexIncrement());
+
+        } else if (o instanceof DoLoopControlWord) {
+            out.writeByte(DO);
+
+        } else if (o instanceof LeaveLoopControlWord) {
+            out.writeByte(LEAVE);
+
+        } else if (o instanceof ParallelDoControlWord) {
+            ParallelDoControlWord pdcw = (ParallelDoControlWord) o;
+            NonPrimitiveWord body = pdcw.getBody();
+
+            out.writeByte(PARALLEL_DO);
+            out.writeInt(body.size());
+
+            for (int c = 0; c < body.size(); c++) {
+                writeCell(out, body.getWord(c), index, contextIndex, primitives);
+            }
+
+            writeCell(out, pdcw.getReduction(), index, contextIndex, primitives);
+
+        } else if (o instanceof PrimitiveWord) {
+            String name = ((PrimitiveWord) o).name;
+            Integer i = primitives.get(name);
+
+            if (i == null) {
+                i = primitives.size();
+                primitives.put(name, i);
+            }
+
+            out.writeByte(PRIMITIVE);
+            out.writeInt(i);
+
+        } else if (index.containsKey(o)) {
+            out.writeByte(WORD);
+            out.writeInt(index.get(o));
+
+        } else if (contextIndex.containsKey(o)) {
+            out.writeByte(CONTEXT);
+            out.writeInt(contextIndex.get(o));
+
+        } else {
+            throw new IOException("Reference to a word not in the image");
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+
+        out.writeByte(STRING);
+        writeUTF8(out, s);
+    }
+
+    // Strings are a length followed by that many bytes of UTF-8
+    private static void writeUTF8(DataOutputStream out, String s) throws IOException {
+
+        byte[] b = s.getBytes(UTF8);
+
+        out.writeInt(b.length);
+        out.write(b);
+    }
+
+    private static String readString(ByteBuffer in) throws IOException {
+
+        int length = in.getInt();
+
+        if ((length < 0) || (length > in.remaining())) {
+            throw new IOException("Bad string length " + length);
+        }
+
+        byte[] b = new byte[length];
+        in.get(b);
+
+        return new String(b, UTF8);
+    }
+
+    // Value held by a variable for a cell read from the image
+    private static Object storageValue(Object cell) {
+
+        if (cell instanceof NumericLiteral) {
+            return NumberParser.valueOf(((NumericLiteral) cell).getNumber());
+
+        } else if (cell instanceof StringLiteral) {
+            return ((StringLiteral) cell).getString();
+        }
+
+        return cell;
+    }
+
+    // Read a cell. Numbers and strings come back as literals; the caller
+    // storing into a variable unwraps them.
+    private static Object readCell(ByteBuffer in, BaseWord[] names, List<BaseWord> words,
+                                   List<BaseWord> context) throws IOException {
+
+        int tag = in.get();
+
+        switch (tag) {
+
+            case NUMBER:
+                return new NumericLiteral(in.getInt());
+
+            case STRING:
+                return new StringLiteral(readString(in));
+
+            case PRIMITIVE:
+                return names[in.getInt()];
+
+            case WORD:
+                return words.get(in.getInt());
+
+            case CONTEXT:
+                int i = in.getInt();
+
+                if (i >= context.size()) {
+                    throw new IOException("Image doesn't fit the dictionary");
+                }
+
+                return context.get(i);
+
+            case IF:
+                IfControlWord ifcw = new IfControlWord(0);
+                ifcw.setThenIndex(in.getInt());
+                return ifcw;
+
+            case ELSE:
+                ElseControlWord ecw = new ElseControlWord(1);
+                ecw.setThenIndexIncrement(in.getInt());
+                return ecw;
+
+            case END:
+                return new EndLoopControlWord(in.getInt());
+
+            case LOOP:
+                return new LoopControlWord(in.getInt());
+
+            case PLUS_LOOP:
+                return new PlusLoopControlWord(in.getInt());
+
+            case DO:
+                return new DoLoopControlWord();
+
+            case LEAVE:
+                return new LeaveLoopControlWord();
+
+            case PARALLEL_DO:
+                return readParallelDo(in, names, words, context);
+
+            case NULL:
+                return null;
+
+            default:
+                throw new IOException("Bad cell tag " + tag);
+        }
+    }
+
+    // Read a parallel do loop with its body
+    private static ParallelDoControlWord readParallelDo(ByteBuffer in, BaseWord[] names, List<BaseWord> words,
+                                                        List<BaseWord> context) throws IOException {
+
+        int size = in.getInt();
+
+        if ((size < 0) || (size > in.remaining())) {
+            throw new IOException("Bad loop body size " + size);
+        }
+
+        NonPrimitiveWord body = new NonPrimitiveWord("");
+
+        for (int c = 0; c < size; c++) {
+            body.addWord((ExecuteIF) readCell(in, names, words, context));
+        }
+
+        Object reduction = readCell(in, names, words, context);
+
+        if ((reduction != null) && !(reduction instanceof BaseWord)) {
+            throw new IOException("Bad reduction word");
+        }
+
+        ParallelDoControlWord pdcw = new ParallelDoControlWord();
+        pdcw.setBody(body, (BaseWord) reduction);
+
+        return pdcw;
+    }
+}
@@ -21,19 +21,18 @@ public final class DoLoopControlWord extends BaseWord {
             return 0;
         }
 
-        // Pop index and limit off of the stack
-        Object o1 = dStack.pop();    // Pop start index
-        Object o2 = dStack.pop();    // Pop end index + 1
-
         // Index and limit must be integer values
-        if ((o1 instanceof Integer) && (o2 instanceof Integer)) {
-            vStack.push(o2);         // Push limit onto the variable stack
-            vStack.push(o1);         // Push index onto the variable stack
+        if (dStack.isInt(0) && dStack.isInt(1)) {
+            int index = dStack.popInt();    // Pop start index
+            int limit = dStack.popInt();    // Pop end index + 1
+
+            // Start a new loop frame
+            vStack.loops().enter(index, limit);
 
             return 1;                // Return a positive one index increment
 
         } else {
-            System.out.println("Do requires 2 numeric stack entries");
+            dStack.out().println("Do requires 2 numeric stack entries");
             return 0;
         }
     }
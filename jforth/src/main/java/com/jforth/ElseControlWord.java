@@ -24,7 +24,12 @@ public final class ElseControlWord extends BaseWord {
         this.thenIndexIncrement = thenIndexIncrement;
     }
 
-    public int execute(OStack dStack, OStack vStack) {
+    // Instruction index increment to the word following then
+    public int getIndexIncrement() {
         return thenIndexIncrement - indexFollowingElse + 1;
     }
+
+    public int execute(OStack dStack, OStack vStack) {
+        return getIndexIncrement();
+    }
 }
@@ -19,20 +19,23 @@ public final class EndLoopControlWord extends BaseWord {
         this.indexIncrement = indexIncrement;
     }
 
+    // Instruction index increment back to the start of the loop body
+    public int getIndexIncrement() {
+        return indexIncrement;
+    }
+
     public int execute(OStack dStack, OStack vStack) {
 
         if (dStack.empty()) {
             return 0;
         }
 
-        Object o = dStack.pop();
-
-        if (!(o instanceof Integer)) {
-            System.out.println("EndWord requires numeric stack entry");
+        if (!dStack.isInt()) {
+            dStack.out().println("EndWord requires numeric stack entry");
             return 0;
         }
 
-        if (((Integer) o) == JForth.TRUE) {
+        if (dStack.popInt() == JForth.TRUE) {
 
             return 1;
 
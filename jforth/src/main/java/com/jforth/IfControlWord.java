@@ -33,17 +33,26 @@ public final class IfControlWord extends BaseWord {
         elseIndexIncrement = elseIndex - currentIndex;
     }
 
+    // Instruction index increment taken when the flag is false
+    public int getFalseIndexIncrement() {
+
+        if (elseIndexIncrement != 0) {
+            return elseIndexIncrement;
+        }
+
+        return thenIndexIncrement;
+    }
+
     public int execute(OStack dStack, OStack vStack) {
 
         if (dStack.empty()) {
             return 0;
         }
 
-        Object o = dStack.pop();    // Pop flag
-
-        if (o instanceof Integer) {
+        if (dStack.isInt()) {
 
-            if (((Integer) o) == JForth.TRUE) {
+            // Pop flag
+            if (dStack.popInt() == JForth.TRUE) {
 
                 // Flag is true, advance instruction index by one to true portion of if
                 return 1;
@@ -60,7 +69,7 @@ public final class IfControlWord extends BaseWord {
             }
 
         } else {
-            System.out.println("if - requires numeric flag on stack");
+            dStack.out().println("if - requires numeric flag on stack");
             return 0;
         }
     }
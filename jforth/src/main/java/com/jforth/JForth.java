@@ -1,50 +1,128 @@
 package com.jforth;
 
 import java.io.*;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CodingErrorAction;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * A Forth like language implemented in Java
  * <p/>
+ * A JForth is one session of the interpreter. It holds what a running
+ * program changes: the stacks, the compile state, the number base, the
+ * words defined in the session and its own copies of any library variables
+ * it stores into. Everything else is in the JForthCore it runs on, which
+ * any number of sessions can share. A session is used by one thread at a
+ * time; separate sessions on a shared core can run concurrently.
+ * <p/>
  * Written by: Craig A. Lindley
  * Last Update: 03/03/2008
  */
 public class JForth {
 
-    public static final Integer TRUE = new Integer(1);
-    public static final Integer FALSE = new Integer(0);
+    public static final int TRUE = 1;
+    public static final int FALSE = 0;
     private static final String PROMPT = "\n> ";
     private static final String OK = " OK";
+    static final int MAX_CHANNEL_CAPACITY = 1 << 20;
+    private static final int CHANNEL_SPINS = 64;     // Yields before a full or empty channel sleeps
+
+    // Words which only work on the data stack, with the number of items they
+    // take from it. Applied to literals they are folded at compile time.
+    private static final HashMap<String, Integer> FOLDABLE = new HashMap<String, Integer>();
+
+    static {
+        String[] nullary = {"true", "false"};
+        String[] unary = {"0<", "0=", "0>", "not", "1+", "1-", "2+", "2-", "abs"};
+        String[] binary = {"<", "=", ">", "+", "-", "*", "/", "mod", "max", "min", "and", "or", "xor"};
+
+        for (String name : nullary) {
+            FOLDABLE.put(name, 0);
+        }
+
+        for (String name : unary) {
+            FOLDABLE.put(name, 1);
+        }
+
+        for (String name : binary) {
+            FOLDABLE.put(name, 2);
+        }
+    }
 
     // Class data
 
+    private final JForthCore core;
     private OStack dStack = new OStack();            // Data stack
     private OStack vStack = new OStack();            // Variable stack
-    private WordsList dictionary = new WordsList();
+    private OutputSink out = new OutputSink(System.out);
+    private PicturedNumber picture = new PicturedNumber();
+    private WordsList dictionary;                    // Words defined in this session
+    private IdentityHashMap<StorageWord, Object[]> storage = null;
+    private Map<StorageWord, Object[]> inherited = null;   // Storage at the last fork, shared with the forks
+    private JForthCore forkCore = null;                     // Core made for forks at dictionary version forkVersion
+    private int forkVersion;
+    private List<BaseWord> markWords = null;                // Baseline recorded by mark
+    private int markVersion;
+    private int markBase;
+    private OutputSink markOut;
 
     private boolean compiling;
     private int base;
 
-    private StreamTokenizer st = null;
+    private SourceScanner scanner = new SourceScanner();
     private NonPrimitiveWord wordBeingDefined = null;
+    private int definitionLine = 0;                  // Source line the definition started on
     private Random random;
+    private OStack foldStack = new OStack(16);       // Scratch stack for constant folding
+    private LoadCache loadCache = defaultLoadCache();
+    private boolean definitionsOnly = false;         // File being loaded has only defined words so far
+    private int loadDepth;                           // Data stack depth when the file load started
+    private Scheduler scheduler = null;              // Made when a task word is first used
+
+    // Tasks run the word execute is given as part of their continuation, so
+    // they need to know execute when they call it
+    static final PrimitiveWord EXECUTE = new PrimitiveWord("execute", false, new ExecuteIF() {
+        public int execute(OStack dStack, OStack vStack) {
+
+            if (dStack.empty()) {
+                return 0;
+            }
 
-    // List of Words
-    private BaseWord[] forthWords = {
+            Object o = dStack.pop();
 
-            new PrimitiveWord("(", true, new ExecuteIF() {
+            if (o instanceof BaseWord) {
+                BaseWord bw = (BaseWord) o;
 
-                public int execute(OStack dStack, OStack vStack) {
+                return bw.execute(dStack, vStack);
 
-                    // Comment token found. Consume all tokens up to and including closing )
+            } else {
+                dStack.out().println("execute - requires word on stack");
+                return 0;
+            }
+        }
+    });
 
-                    // Get the next input token
-                    String token = getNextToken();
+    // List of Words. Shared by every session, which they get from the stacks.
+    private static final BaseWord[] PRIMITIVES = {
 
-                    while ((token != null) && (!token.equals(")")))
-                        token = getNextToken();
+            new PrimitiveWord("(", true, new ExecuteIF() {
+
+                public int execute(OStack dStack, OStack vStack) {
+
+                    JForth forth = dStack.getSession();
 
-                    if (token != null) {
+                    // Comment token found. Consume all tokens up to and including closing )
+                    if (forth.scanner.skipComment()) {
                         return 1;
 
                     } else {
@@ -56,25 +134,21 @@ public class JForth {
             new PrimitiveWord("'", true, new ExecuteIF() {
                 public int execute(OStack dStack, OStack vStack) {
 
+                    JForth forth = dStack.getSession();
+
                     // Ignore if compiling as next word will already be
                     // placed in the word being defined definition
-                    if (compiling) {
+                    if (forth.compiling) {
                         return 1;
                     }
 
                     // Get the name of the next word
-                    String name = getNextToken();
+                    String name = forth.getNextToken();
                     if (name == null) {
                         return 0;
                     }
 
-                    BaseWord bw = null;
-                    try {
-                        bw = dictionary.search(name);
-
-                    } catch (Exception ignore) {
-                        // NOP
-                    }
+                    BaseWord bw = forth.dictionary.search(name);
 
                     if (bw != null) {
                         // Found the word push address on stack
@@ -82,47 +156,30 @@ public class JForth {
                         return 1;
 
                     } else {
-                        System.out.println("\' - word after tick not found");
+                        dStack.out().println("\' - word after tick not found");
                         return 0;
                     }
                 }
             }),
 
-            new PrimitiveWord("execute", false, new ExecuteIF() {
-                public int execute(OStack dStack, OStack vStack) {
-
-                    if (dStack.empty()) {
-                        return 0;
-                    }
-
-                    Object o = dStack.pop();
-
-                    if (o instanceof BaseWord) {
-                        BaseWord bw = (BaseWord) o;
-
-                        return bw.execute(dStack, vStack);
-
-                    } else {
-                        System.out.println("execute - requires word on stack");
-                        return 0;
-                    }
-                }
-            }),
+            EXECUTE,
 
             // Flow control words
 
             new PrimitiveWord("if", true, new ExecuteIF() {
                 public int execute(OStack dStack, OStack vStack) {
 
-                    if (!compiling) {
+                    JForth forth = dStack.getSession();
+
+                    if (!forth.compiling) {
                         return 1;
                     }
 
-                    int currentIndex = wordBeingDefined.getNextWordIndex();
+                    int currentIndex = forth.wordBeingDefined.getNextWordIndex();
 
                     IfControlWord ifcw = new IfControlWord(currentIndex);
 
-                    wordBeingDefined.addWord(ifcw);
+                    forth.wordBeingDefined.addWord(ifcw);
 
                     // Push execute address of if word onto variable stack
                     vStack.push(ifcw);
@@ -134,7 +191,9 @@ public class JForth {
             new PrimitiveWord("then", true, new ExecuteIF() {
                 public int execute(OStack dStack, OStack vStack) {
 
-                    if (!compiling) {
+                    JForth forth = dStack.getSession();
+
+                    if (!forth.compiling) {
                         return 1;
                     }
 
@@ -146,7 +205,7 @@ public class JForth {
                     Object o = vStack.pop();
 
                     // Get the index of the next free slot in the non-primitive being defined.
-                    int thenIndex = wordBeingDefined.getNextWordIndex();
+                    int thenIndex = forth.wordBeingDefined.getNextWordIndex();
 
                     // What type of control word does o represent ?
                     if (o instanceof ElseControlWord) {
@@ -162,7 +221,7 @@ public class JForth {
                         ((IfControlWord) o).setThenIndex(thenIndex);
 
                     } else {
-                        System.out.println("then - requires previous if or else");
+                        dStack.out().println("then - requires previous if or else");
                         return 0;
                     }
 
@@ -173,7 +232,9 @@ public class JForth {
             new PrimitiveWord("else", true, new ExecuteIF() {
                 public int execute(OStack dStack, OStack vStack) {
 
-                    if (!compiling) {
+                    JForth forth = dStack.getSession();
+
+                    if (!forth.compiling) {
                         return 1;
                     }
 
@@ -186,19 +247,19 @@ public class JForth {
                     if (o instanceof IfControlWord) {
 
                         // Get the index past where else will be
-                        int elseIndex = wordBeingDefined.getNextWordIndex() + 1;
+                        int elseIndex = forth.wordBeingDefined.getNextWordIndex() + 1;
 
                         // Instantiate the else runtime code passing the  index following else
                         ElseControlWord ecw = new ElseControlWord(elseIndex);
 
-                        wordBeingDefined.addWord(ecw);
+                        forth.wordBeingDefined.addWord(ecw);
                         vStack.push(ecw);
 
                         // Inform the if control word of this index as well
                         ((IfControlWord) o).setElseIndex(elseIndex);
 
                     } else {
-                        System.out.println("else - requires previous if");
+                        dStack.out().println("else - requires previous if");
                         return 0;
                     }
 
@@ -209,16 +270,18 @@ public class JForth {
             new PrimitiveWord("do", true, new ExecuteIF() {
                 public int execute(OStack dStack, OStack vStack) {
 
-                    if (!compiling) {
+                    JForth forth = dStack.getSession();
+
+                    if (!forth.compiling) {
                         return 1;
                     }
 
                     DoLoopControlWord dlcw = new DoLoopControlWord();
-                    wordBeingDefined.addWord(dlcw);
+                    forth.wordBeingDefined.addWord(dlcw);
 
                     // Push index of the next non-primitive word onto variable stack
-                    int index = wordBeingDefined.getNextWordIndex();
-                    vStack.push(new Integer(index));
+                    int index = forth.wordBeingDefined.getNextWordIndex();
+                    vStack.pushInt(index);
 
                     return 1;
                 }
@@ -227,12 +290,13 @@ public class JForth {
             new PrimitiveWord("i", false, new ExecuteIF() {
                 public int execute(OStack dStack, OStack vStack) {
 
-                    if (vStack.empty()) {
+                    LoopStack loops = vStack.loops();
+
+                    if (loops.empty()) {
                         return 0;
                     }
 
-                    Object o = vStack.peek();
-                    dStack.push(o);
+                    dStack.pushInt(loops.index());
 
                     return 1;
                 }
@@ -241,18 +305,14 @@ public class JForth {
             new PrimitiveWord("j", false, new ExecuteIF() {
                 public int execute(OStack dStack, OStack vStack) {
 
-                    if (vStack.size() < 4) {
+                    LoopStack loops = vStack.loops();
+
+                    if (loops.size() < 2) {
                         return 0;
                     }
 
-                    Object o1 = vStack.pop();
-                    Object o2 = vStack.pop();
-                    Object o3 = vStack.peek();
-
-                    dStack.push(o3);
-
-                    vStack.push(o2);
-                    vStack.push(o1);
+                    // Index of the enclosing loop
+                    dStack.pushInt(loops.index(1));
 
                     return 1;
                 }
@@ -261,16 +321,19 @@ public class JForth {
             new PrimitiveWord("leave", true, new ExecuteIF() {
                 public int execute(OStack dStack, OStack vStack) {
 
-                    if (!compiling) {
+                    JForth forth = dStack.getSession();
+
+                    if (!forth.compiling) {
                         return 1;
                     }
 
-                    if (vStack.size() < 2) {
+                    // Must be inside a do loop being compiled
+                    if (vStack.empty()) {
                         return 0;
                     }
 
                     LeaveLoopControlWord llcw = new LeaveLoopControlWord();
-                    wordBeingDefined.addWord(llcw);
+                    forth.wordBeingDefined.addWord(llcw);
 
                     return 1;
                 }
@@ -279,7 +342,9 @@ public class JForth {
             new PrimitiveWord("loop", true, new ExecuteIF() {
                 public int execute(OStack dStack, OStack vStack) {
 
-                    if (!compiling) {
+                    JForth forth = dStack.getSession();
+
+                    if (!forth.compiling) {
                         return 1;
                     }
 
@@ -288,19 +353,17 @@ public class JForth {
                     }
 
                     // Pop the index entry off of the variable stack
-                    Object o = vStack.pop();
-
-                    if (!(o instanceof Integer)) {
-                        System.out.println("loop - requires numeric stack entry");
+                    if (!vStack.isInt()) {
+                        dStack.out().println("loop - requires numeric stack entry");
                         return 0;
                     }
 
-                    int beginIndex = ((Integer) o).intValue();
-                    int endIndex = wordBeingDefined.getNextWordIndex();
+                    int beginIndex = vStack.popInt();
+                    int endIndex = forth.wordBeingDefined.getNextWordIndex();
                     int increment = beginIndex - endIndex;
 
                     LoopControlWord lcw = new LoopControlWord(increment);
-                    wordBeingDefined.addWord(lcw);
+                    forth.wordBeingDefined.addWord(lcw);
 
                     return 1;
                 }
@@ -309,7 +372,9 @@ public class JForth {
             new PrimitiveWord("+loop", true, new ExecuteIF() {
                 public int execute(OStack dStack, OStack vStack) {
 
-                    if (!compiling) {
+                    JForth forth = dStack.getSession();
+
+                    if (!forth.compiling) {
                         return 1;
                     }
 
@@ -318,35 +383,96 @@ public class JForth {
                     }
 
                     // Pop the index entry off of the variable stack
-                    Object o = vStack.pop();
-
-                    if (!(o instanceof Integer)) {
-                        System.out.println("loop - requires numeric stack entry");
+                    if (!vStack.isInt()) {
+                        dStack.out().println("loop - requires numeric stack entry");
                         return 0;
                     }
 
-                    int beginIndex = ((Integer) o).intValue();
-                    int endIndex = wordBeingDefined.getNextWordIndex();
+                    int beginIndex = vStack.popInt();
+                    int endIndex = forth.wordBeingDefined.getNextWordIndex();
                     int increment = beginIndex - endIndex;
 
                     PlusLoopControlWord plcw = new PlusLoopControlWord(increment);
-                    wordBeingDefined.addWord(plcw);
+                    forth.wordBeingDefined.addWord(plcw);
+
+                    return 1;
+                }
+            }),
+
+            new PrimitiveWord("pdo", true, new ExecuteIF() {
+                public int execute(OStack dStack, OStack vStack) {
+
+                    JForth forth = dStack.getSession();
+
+                    if (!forth.compiling) {
+                        return 1;
+                    }
+
+                    // Gets its loop body when ploop or preduce is compiled
+                    ParallelDoControlWord pdcw = new ParallelDoControlWord();
+                    forth.wordBeingDefined.addWord(pdcw);
+
+                    // Push index of the next non-primitive word onto variable stack
+                    int index = forth.wordBeingDefined.getNextWordIndex();
+                    vStack.pushInt(index);
 
                     return 1;
                 }
             }),
 
+            new PrimitiveWord("ploop", true, new ExecuteIF() {
+                public int execute(OStack dStack, OStack vStack) {
+
+                    JForth forth = dStack.getSession();
+
+                    if (!forth.compiling) {
+                        return 1;
+                    }
+
+                    return forth.endParallelLoop("ploop", null);
+                }
+            }),
+
+            new PrimitiveWord("preduce", true, new ExecuteIF() {
+                public int execute(OStack dStack, OStack vStack) {
+
+                    JForth forth = dStack.getSession();
+
+                    // Get the name of the reduction word
+                    String name = forth.getNextToken();
+
+                    if (name == null) {
+                        return 0;
+                    }
+
+                    if (!forth.compiling) {
+                        return 1;
+                    }
+
+                    BaseWord reduction = forth.dictionary.search(name);
+
+                    if (reduction == null) {
+                        dStack.out().println("preduce - reduction word \"" + name + "\" not found");
+                        return 0;
+                    }
+
+                    return forth.endParallelLoop("preduce", reduction);
+                }
+            }),
+
             new PrimitiveWord("begin", true, new ExecuteIF() {
                 public int execute(OStack dStack, OStack vStack) {
 
+                    JForth forth = dStack.getSession();
+
                     // Begin word doesn't have runtime behavior
-                    if (!compiling) {
+                    if (!forth.compiling) {
                         return 1;
                     }
 
                     // Push index of next non-primitive word onto variable stack
-                    int index = wordBeingDefined.getNextWordIndex();
-                    vStack.push(new Integer(index));
+                    int index = forth.wordBeingDefined.getNextWordIndex();
+                    vStack.pushInt(index);
 
                     return 1;
                 }
@@ -355,7 +481,9 @@ public class JForth {
             new PrimitiveWord("end", true, new ExecuteIF() {
                 public int execute(OStack dStack, OStack vStack) {
 
-                    if (!compiling) {
+                    JForth forth = dStack.getSession();
+
+                    if (!forth.compiling) {
                         return 1;
                     }
 
@@ -364,19 +492,17 @@ public class JForth {
                     }
 
                     // Pop the index entry off of the variable stack
-                    Object o = vStack.pop();
-
-                    if (!(o instanceof Integer)) {
-                        System.out.println("end - requires numeric stack entry");
+                    if (!vStack.isInt()) {
+                        dStack.out().println("end - requires numeric stack entry");
                         return 0;
                     }
 
-                    int beginIndex = ((Integer) o).intValue();
-                    int endIndex = wordBeingDefined.getNextWordIndex();
+                    int beginIndex = vStack.popInt();
+                    int endIndex = forth.wordBeingDefined.getNextWordIndex();
                     int increment = beginIndex - endIndex;
 
                     EndLoopControlWord ecw = new EndLoopControlWord(increment);
-                    wordBeingDefined.addWord(ecw);
+                    forth.wordBeingDefined.addWord(ecw);
 
                     return 1;
                 }
@@ -391,8 +517,7 @@ public class JForth {
                         return 0;
                     }
 
-                    Object o = dStack.peek();
-                    dStack.push(o);
+                    dStack.dup();
 
                     return 1;
                 }
@@ -405,7 +530,7 @@ public class JForth {
                         return 0;
                     }
 
-                    dStack.pop();
+                    dStack.drop();
 
                     return 1;
                 }
@@ -418,11 +543,7 @@ public class JForth {
                         return 0;
                     }
 
-                    Object o1 = dStack.pop();
-                    Object o2 = dStack.pop();
-
-                    dStack.push(o1);
-                    dStack.push(o2);
+                    dStack.swap();
 
                     return 1;
                 }
@@ -435,12 +556,7 @@ public class JForth {
                         return 0;
                     }
 
-                    Object o1 = dStack.pop();
-                    Object o2 = dStack.pop();
-
-                    dStack.push(o2);
-                    dStack.push(o1);
-                    dStack.push(o2);
+                    dStack.over();
 
                     return 1;
                 }
@@ -453,13 +569,7 @@ public class JForth {
                         return 0;
                     }
 
-                    Object o3 = dStack.pop();
-                    Object o2 = dStack.pop();
-                    Object o1 = dStack.pop();
-
-                    dStack.push(o2);
-                    dStack.push(o3);
-                    dStack.push(o1);
+                    dStack.rot();
 
                     return 1;
                 }
@@ -468,8 +578,7 @@ public class JForth {
             new PrimitiveWord("depth", false, new ExecuteIF() {
                 public int execute(OStack dStack, OStack vStack) {
 
-                    Integer i = new Integer(dStack.size());
-                    dStack.push(i);
+                    dStack.pushInt(dStack.size());
 
                     return 1;
                 }
@@ -484,37 +593,30 @@ public class JForth {
                         return 0;
                     }
 
-                    Object o2 = dStack.pop();
-                    Object o1 = dStack.pop();
+                    if (dStack.isInt(0) && dStack.isInt(1)) {
 
-                    if ((o1 instanceof Integer) && (o2 instanceof Integer)) {
+                        int i2 = dStack.popInt();
+                        int i1 = dStack.popInt();
 
-                        int i1 = ((Integer) o1).intValue();
-                        int i2 = ((Integer) o2).intValue();
+                        dStack.pushInt((i1 < i2) ? TRUE : FALSE);
 
-                        if (i1 < i2) {
-                            dStack.push(TRUE);
+                        return 1;
+                    }
 
-                        } else {
-                            dStack.push(FALSE);
-                        }
+                    Object o2 = PicturedNumber.text(dStack.pop());
+                    Object o1 = PicturedNumber.text(dStack.pop());
 
-                    } else if ((o1 instanceof String) && (o2 instanceof String)) {
+                    if ((o1 instanceof String) && (o2 instanceof String)) {
 
                         String s1 = (String) o1;
                         String s2 = (String) o2;
 
                         int result = s1.compareTo(s2);
 
-                        if (result < 0) {
-                            dStack.push(TRUE);
-
-                        } else {
-                            dStack.push(FALSE);
-                        }
+                        dStack.pushInt((result < 0) ? TRUE : FALSE);
 
                     } else {
-                        System.out.println("< - cannot compare items of different types");
+                        dStack.out().println("< - cannot compare items of different types");
                         return 0;
                     }
 
@@ -529,36 +631,30 @@ public class JForth {
                         return 0;
                     }
 
-                    Object o2 = dStack.pop();
-                    Object o1 = dStack.pop();
+                    if (dStack.isInt(0) && dStack.isInt(1)) {
 
-                    if ((o1 instanceof Integer) && (o2 instanceof Integer)) {
+                        int i2 = dStack.popInt();
+                        int i1 = dStack.popInt();
 
-                        int i1 = ((Integer) o1).intValue();
-                        int i2 = ((Integer) o2).intValue();
+                        dStack.pushInt((i1 == i2) ? TRUE : FALSE);
 
-                        if (i1 == i2) {
-                            dStack.push(TRUE);
-                        } else {
-                            dStack.push(FALSE);
-                        }
+                        return 1;
+                    }
 
-                    } else if ((o1 instanceof String) && (o2 instanceof String)) {
+                    Object o2 = PicturedNumber.text(dStack.pop());
+                    Object o1 = PicturedNumber.text(dStack.pop());
+
+                    if ((o1 instanceof String) && (o2 instanceof String)) {
 
                         String s1 = (String) o1;
                         String s2 = (String) o2;
 
                         int result = s1.compareTo(s2);
 
-                        if (result == 0) {
-                            dStack.push(TRUE);
-
-                        } else {
-                            dStack.push(FALSE);
-                        }
+                        dStack.pushInt((result == 0) ? TRUE : FALSE);
 
                     } else {
-                        System.out.println("< - cannot compare items of different types");
+                        dStack.out().println("< - cannot compare items of different types");
                         return 0;
                     }
 
@@ -573,34 +669,30 @@ public class JForth {
                         return 0;
                     }
 
-                    Object o2 = dStack.pop();
-                    Object o1 = dStack.pop();
+                    if (dStack.isInt(0) && dStack.isInt(1)) {
 
-                    if ((o1 instanceof Integer) && (o2 instanceof Integer)) {
+                        int i2 = dStack.popInt();
+                        int i1 = dStack.popInt();
 
-                        int i1 = ((Integer) o1).intValue();
-                        int i2 = ((Integer) o2).intValue();
+                        dStack.pushInt((i1 > i2) ? TRUE : FALSE);
 
-                        if (i1 > i2) {
-                            dStack.push(TRUE);
-                        } else {
-                            dStack.push(FALSE);
-                        }
+                        return 1;
+                    }
 
-                    } else if ((o1 instanceof String) && (o2 instanceof String)) {
+                    Object o2 = PicturedNumber.text(dStack.pop());
+                    Object o1 = PicturedNumber.text(dStack.pop());
+
+                    if ((o1 instanceof String) && (o2 instanceof String)) {
 
                         String s1 = (String) o1;
                         String s2 = (String) o2;
 
                         int result = s1.compareTo(s2);
 
-                        if (result > 0)
-                            dStack.push(TRUE);
-                        else
-                            dStack.push(FALSE);
+                        dStack.pushInt((result > 0) ? TRUE : FALSE);
 
                     } else {
-                        System.out.println("< - cannot compare items of different types");
+                        dStack.out().println("< - cannot compare items of different types");
                         return 0;
                     }
                     return 1;
@@ -614,17 +706,15 @@ public class JForth {
                         return 0;
                     }
 
-                    Object o1 = dStack.pop();
-
-                    if (o1 instanceof Integer) {
-                        int i1 = ((Integer) o1).intValue();
+                    if (dStack.isInt()) {
+                        int i1 = dStack.popInt();
 
-                        dStack.push((i1 < 0) ? TRUE : FALSE);
+                        dStack.pushInt((i1 < 0) ? TRUE : FALSE);
 
                         return 1;
 
                     } else {
-                        System.out.println("0< - tos must be numeric");
+                        dStack.out().println("0< - tos must be numeric");
                         return 0;
                     }
                 }
@@ -637,16 +727,14 @@ public class JForth {
                         return 0;
                     }
 
-                    Object o1 = dStack.pop();
-
-                    if (o1 instanceof Integer) {
-                        int i1 = ((Integer) o1).intValue();
-                        dStack.push((i1 == 0) ? TRUE : FALSE);
+                    if (dStack.isInt()) {
+                        int i1 = dStack.popInt();
+                        dStack.pushInt((i1 == 0) ? TRUE : FALSE);
 
                         return 1;
 
                     } else {
-                        System.out.println("0< - tos must be numeric");
+                        dStack.out().println("0< - tos must be numeric");
                         return 0;
                     }
                 }
@@ -659,16 +747,14 @@ public class JForth {
                         return 0;
                     }
 
-                    Object o1 = dStack.pop();
-
-                    if (o1 instanceof Integer) {
-                        int i1 = ((Integer) o1).intValue();
-                        dStack.push((i1 > 0) ? TRUE : FALSE);
+                    if (dStack.isInt()) {
+                        int i1 = dStack.popInt();
+                        dStack.pushInt((i1 > 0) ? TRUE : FALSE);
 
                         return 1;
 
                     } else {
-                        System.out.println("0< - tos must be numeric");
+                        dStack.out().println("0< - tos must be numeric");
                         return 0;
                     }
                 }
@@ -681,16 +767,14 @@ public class JForth {
                         return 0;
                     }
 
-                    Object o1 = dStack.pop();
-
-                    if (o1 instanceof Integer) {
-                        int i1 = ((Integer) o1).intValue();
-                        dStack.push((i1 == 0) ? TRUE : FALSE);
+                    if (dStack.isInt()) {
+                        int i1 = dStack.popInt();
+                        dStack.pushInt((i1 == 0) ? TRUE : FALSE);
 
                         return 1;
 
                     } else {
-                        System.out.println("0< - tos must be numeric");
+                        dStack.out().println("0< - tos must be numeric");
                         return 0;
                     }
                 }
@@ -699,7 +783,7 @@ public class JForth {
             new PrimitiveWord("true", false, new ExecuteIF() {
                 public int execute(OStack dStack, OStack vStack) {
 
-                    dStack.push(TRUE);
+                    dStack.pushInt(TRUE);
                     return 1;
                 }
             }),
@@ -707,7 +791,7 @@ public class JForth {
             new PrimitiveWord("false", false, new ExecuteIF() {
                 public int execute(OStack dStack, OStack vStack) {
 
-                    dStack.push(FALSE);
+                    dStack.pushInt(FALSE);
                     return 1;
                 }
             }),
@@ -721,23 +805,25 @@ public class JForth {
                         return 0;
                     }
 
-                    Object o1 = dStack.pop();
-                    Object o2 = dStack.pop();
-
                     // Determine if both are of the same type
-                    if ((o1 instanceof Integer) && (o2 instanceof Integer)) {
-                        int i1 = ((Integer) o1).intValue();
-                        int i2 = ((Integer) o2).intValue();
+                    if (dStack.isInt(0) && dStack.isInt(1)) {
+                        int i1 = dStack.popInt();
+                        int i2 = dStack.popInt();
 
-                        i1 += i2;
-                        dStack.push(new Integer(i1));
+                        dStack.pushInt(i1 + i2);
 
-                    } else if ((o1 instanceof String) && (o2 instanceof String)) {
+                        return 1;
+                    }
+
+                    Object o1 = PicturedNumber.text(dStack.pop());
+                    Object o2 = PicturedNumber.text(dStack.pop());
+
+                    if ((o1 instanceof String) && (o2 instanceof String)) {
                         String s = (String) o2 + (String) o1;
                         dStack.push(s);
 
                     } else {
-                        System.out.println("+ - cannot add items of different types");
+                        dStack.out().println("+ - cannot add items of different types");
                         return 0;
                     }
 
@@ -752,21 +838,17 @@ public class JForth {
                         return 0;
                     }
 
-                    Object o1 = dStack.pop();
-                    Object o2 = dStack.pop();
-
                     // Determine if both are of the same type
-                    if ((o1 instanceof Integer) && (o2 instanceof Integer)) {
-                        int i1 = ((Integer) o1).intValue();
-                        int i2 = ((Integer) o2).intValue();
+                    if (dStack.isInt(0) && dStack.isInt(1)) {
+                        int i1 = dStack.popInt();
+                        int i2 = dStack.popInt();
 
-                        i2 -= i1;
-                        dStack.push(new Integer(i2));
+                        dStack.pushInt(i2 - i1);
 
                         return 1;
 
                     } else {
-                        System.out.println("- - cannot subtract strings");
+                        dStack.out().println("- - cannot subtract strings");
                         return 0;
                     }
                 }
@@ -779,18 +861,13 @@ public class JForth {
                         return 0;
                     }
 
-                    Object o1 = dStack.pop();
-
-                    // Determine if both are of the same type
-                    if (o1 instanceof Integer) {
-
-                        int i1 = ((Integer) o1).intValue();
-                        dStack.push(new Integer(i1 + 1));
+                    if (dStack.isInt()) {
+                        dStack.pushInt(dStack.popInt() + 1);
 
                         return 1;
 
                     } else {
-                        System.out.println("1+ - cannot increment strings");
+                        dStack.out().println("1+ - cannot increment strings");
                         return 0;
                     }
                 }
@@ -803,17 +880,13 @@ public class JForth {
                         return 0;
                     }
 
-                    Object o1 = dStack.pop();
-
-                    // Determine if both are of the same type
-                    if (o1 instanceof Integer) {
-                        int i1 = ((Integer) o1).intValue();
-                        dStack.push(new Integer(i1 - 1));
+                    if (dStack.isInt()) {
+                        dStack.pushInt(dStack.popInt() - 1);
 
                         return 1;
 
                     } else {
-                        System.out.println("1- - cannot decrement strings");
+                        dStack.out().println("1- - cannot decrement strings");
                         return 0;
                     }
                 }
@@ -826,17 +899,13 @@ public class JForth {
                         return 0;
                     }
 
-                    Object o1 = dStack.pop();
-
-                    // Determine if both are of the same type
-                    if (o1 instanceof Integer) {
-                        int i1 = ((Integer) o1).intValue();
-                        dStack.push(new Integer(i1 + 2));
+                    if (dStack.isInt()) {
+                        dStack.pushInt(dStack.popInt() + 2);
 
                         return 1;
 
                     } else {
-                        System.out.println("2+ - cannot increment strings");
+                        dStack.out().println("2+ - cannot increment strings");
                         return 0;
                     }
                 }
@@ -849,17 +918,13 @@ public class JForth {
                         return 0;
                     }
 
-                    Object o1 = dStack.pop();
-
-                    // Determine if both are of the same type
-                    if (o1 instanceof Integer) {
-                        int i1 = ((Integer) o1).intValue();
-                        dStack.push(new Integer(i1 - 2));
+                    if (dStack.isInt()) {
+                        dStack.pushInt(dStack.popInt() - 2);
 
                         return 1;
 
                     } else {
-                        System.out.println("2- - cannot decrement strings");
+                        dStack.out().println("2- - cannot decrement strings");
                         return 0;
                     }
                 }
@@ -872,21 +937,17 @@ public class JForth {
                         return 0;
                     }
 
-                    Object o1 = dStack.pop();
-                    Object o2 = dStack.pop();
-
                     // Determine if both are of the same type
-                    if ((o1 instanceof Integer) && (o2 instanceof Integer)) {
-                        int i1 = ((Integer) o1).intValue();
-                        int i2 = ((Integer) o2).intValue();
+                    if (dStack.isInt(0) && dStack.isInt(1)) {
+                        int i1 = dStack.popInt();
+                        int i2 = dStack.popInt();
 
-                        i2 *= i1;
-                        dStack.push(new Integer(i2));
+                        dStack.pushInt(i2 * i1);
 
                         return 1;
 
                     } else {
-                        System.out.println("* - cannot multiply strings");
+                        dStack.out().println("* - cannot multiply strings");
                         return 0;
                     }
                 }
@@ -899,21 +960,17 @@ public class JForth {
                         return 0;
                     }
 
-                    Object o1 = dStack.pop();
-                    Object o2 = dStack.pop();
-
                     // Determine if both are of the same type
-                    if ((o1 instanceof Integer) && (o2 instanceof Integer)) {
-                        int i1 = ((Integer) o1).intValue();
-                        int i2 = ((Integer) o2).intValue();
+                    if (dStack.isInt(0) && dStack.isInt(1)) {
+                        int i1 = dStack.popInt();
+                        int i2 = dStack.popInt();
 
-                        i2 /= i1;
-                        dStack.push(new Integer(i2));
+                        dStack.pushInt(i2 / i1);
 
                         return 1;
 
                     } else {
-                        System.out.println("/ - cannot divide strings");
+                        dStack.out().println("/ - cannot divide strings");
                         return 0;
                     }
                 }
@@ -926,19 +983,15 @@ public class JForth {
                         return 0;
                     }
 
-                    Object o1 = dStack.pop();
-                    Object o2 = dStack.pop();
-
                     // Determine if both are of the same type
-                    if ((o1 instanceof Integer) && (o2 instanceof Integer)) {
-                        int i1 = ((Integer) o1).intValue();
-                        int i2 = ((Integer) o2).intValue();
+                    if (dStack.isInt(0) && dStack.isInt(1)) {
+                        int i1 = dStack.popInt();
+                        int i2 = dStack.popInt();
 
-                        int i3 = i2 % i1;
-                        dStack.push(new Integer(i3));
+                        dStack.pushInt(i2 % i1);
 
                     } else {
-                        System.out.println("mod - only works with numeric items");
+                        dStack.out().println("mod - only works with numeric items");
                         return 0;
                     }
 
@@ -953,18 +1006,20 @@ public class JForth {
                         return 0;
                     }
 
-                    Object o1 = dStack.pop();
-                    Object o2 = dStack.pop();
-
                     // Determine if both are of the same type
-                    if ((o1 instanceof Integer) && (o2 instanceof Integer)) {
-                        int i1 = ((Integer) o1).intValue();
-                        int i2 = ((Integer) o2).intValue();
+                    if (dStack.isInt(0) && dStack.isInt(1)) {
+                        int i1 = dStack.popInt();
+                        int i2 = dStack.popInt();
 
-                        i2 = Math.max(i1, i2);
-                        dStack.push(new Integer(i2));
+                        dStack.pushInt(Math.max(i1, i2));
 
-                    } else if ((o1 instanceof String) && (o2 instanceof String)) {
+                        return 1;
+                    }
+
+                    Object o1 = PicturedNumber.text(dStack.pop());
+                    Object o2 = PicturedNumber.text(dStack.pop());
+
+                    if ((o1 instanceof String) && (o2 instanceof String)) {
 
                         String s1 = (String) o1;
                         String s2 = (String) o2;
@@ -973,7 +1028,7 @@ public class JForth {
                         dStack.push(s2);
 
                     } else {
-                        System.out.println("max - only works items of the same type");
+                        dStack.out().println("max - only works items of the same type");
                         return 0;
                     }
 
@@ -988,18 +1043,20 @@ public class JForth {
                         return 0;
                     }
 
-                    Object o1 = dStack.pop();
-                    Object o2 = dStack.pop();
-
                     // Determine if both are of the same type
-                    if ((o1 instanceof Integer) && (o2 instanceof Integer)) {
-                        int i1 = ((Integer) o1).intValue();
-                        int i2 = ((Integer) o2).intValue();
+                    if (dStack.isInt(0) && dStack.isInt(1)) {
+                        int i1 = dStack.popInt();
+                        int i2 = dStack.popInt();
+
+                        dStack.pushInt(Math.min(i1, i2));
 
-                        i2 = Math.min(i1, i2);
-                        dStack.push(new Integer(i2));
+                        return 1;
+                    }
 
-                    } else if ((o1 instanceof String) && (o2 instanceof String)) {
+                    Object o1 = PicturedNumber.text(dStack.pop());
+                    Object o2 = PicturedNumber.text(dStack.pop());
+
+                    if ((o1 instanceof String) && (o2 instanceof String)) {
 
                         String s1 = (String) o1;
                         String s2 = (String) o2;
@@ -1008,7 +1065,7 @@ public class JForth {
                         dStack.push(s2);
 
                     } else {
-                        System.out.println("min - only works items of the same type");
+                        dStack.out().println("min - only works items of the same type");
                         return 0;
                     }
                     return 1;
@@ -1023,16 +1080,11 @@ public class JForth {
                     }
 
                     // Numeric argument ?
-                    Object o1 = dStack.pop();
-
-                    if (o1 instanceof Integer) {
-                        int i1 = ((Integer) o1).intValue();
-
-                        i1 = Math.abs(i1);
-                        dStack.push(new Integer(i1));
+                    if (dStack.isInt()) {
+                        dStack.pushInt(Math.abs(dStack.popInt()));
 
                     } else {
-                        System.out.println("abs - only works on numeric items");
+                        dStack.out().println("abs - only works on numeric items");
                         return 0;
                     }
 
@@ -1047,19 +1099,15 @@ public class JForth {
                         return 0;
                     }
 
-                    Object o1 = dStack.pop();
-                    Object o2 = dStack.pop();
-
                     // Determine if both are of the same type
-                    if ((o1 instanceof Integer) && (o2 instanceof Integer)) {
-                        int i1 = ((Integer) o1).intValue();
-                        int i2 = ((Integer) o2).intValue();
+                    if (dStack.isInt(0) && dStack.isInt(1)) {
+                        int i1 = dStack.popInt();
+                        int i2 = dStack.popInt();
 
-                        int i3 = i2 & i1;
-                        dStack.push(new Integer(i3));
+                        dStack.pushInt(i2 & i1);
 
                     } else {
-                        System.out.println("and - only works with numeric items");
+                        dStack.out().println("and - only works with numeric items");
                         return 0;
                     }
 
@@ -1074,19 +1122,15 @@ public class JForth {
                         return 0;
                     }
 
-                    Object o1 = dStack.pop();
-                    Object o2 = dStack.pop();
-
                     // Determine if both are of the same type
-                    if ((o1 instanceof Integer) && (o2 instanceof Integer)) {
-                        int i1 = ((Integer) o1).intValue();
-                        int i2 = ((Integer) o2).intValue();
+                    if (dStack.isInt(0) && dStack.isInt(1)) {
+                        int i1 = dStack.popInt();
+                        int i2 = dStack.popInt();
 
-                        int i3 = i2 | i1;
-                        dStack.push(new Integer(i3));
+                        dStack.pushInt(i2 | i1);
 
                     } else {
-                        System.out.println("or - only works with numeric items");
+                        dStack.out().println("or - only works with numeric items");
                         return 0;
                     }
 
@@ -1101,19 +1145,15 @@ public class JForth {
                         return 0;
                     }
 
-                    Object o1 = dStack.pop();
-                    Object o2 = dStack.pop();
-
                     // Determine if both are of the same type
-                    if ((o1 instanceof Integer) && (o2 instanceof Integer)) {
-                        int i1 = ((Integer) o1).intValue();
-                        int i2 = ((Integer) o2).intValue();
+                    if (dStack.isInt(0) && dStack.isInt(1)) {
+                        int i1 = dStack.popInt();
+                        int i2 = dStack.popInt();
 
-                        int i3 = i2 ^ i1;
-                        dStack.push(new Integer(i3));
+                        dStack.pushInt(i2 ^ i1);
 
                     } else {
-                        System.out.println("xor - only works with numeric items");
+                        dStack.out().println("xor - only works with numeric items");
                         return 0;
                     }
 
@@ -1131,19 +1171,28 @@ public class JForth {
                     }
 
                     String outStr = "";
-                    Object o = dStack.pop();
 
-                    if (o instanceof Integer) {
-                        outStr = Integer.toString(((Integer) o).intValue(), base).toUpperCase();
+                    if (dStack.isInt()) {
+                        dStack.out().print(dStack.popInt(), base(dStack));
+                        return 1;
+                    }
+
+                    Object o = dStack.pop();
 
-                    } else if (o instanceof String) {
+                    if (o instanceof String) {
                         outStr = (String) o;
 
+                    } else if (o instanceof PicturedNumber) {
+                        PicturedNumber picture = (PicturedNumber) o;
+
+                        dStack.out().print(picture.buffer(), picture.start(), picture.length());
+                        return 1;
+
                     } else if (o instanceof BaseWord) {
                         outStr = "BaseWord address on stack";
                     }
 
-                    System.out.print(outStr);
+                    dStack.out().print(outStr);
                     return 1;
                 }
             }),
@@ -1151,7 +1200,15 @@ public class JForth {
             new PrimitiveWord("cr", false, new ExecuteIF() {
                 public int execute(OStack dStack, OStack vStack) {
 
-                    System.out.println();
+                    dStack.out().println();
+                    return 1;
+                }
+            }),
+
+            new PrimitiveWord("flush", false, new ExecuteIF() {
+                public int execute(OStack dStack, OStack vStack) {
+
+                    dStack.out().flush();
                     return 1;
                 }
             }),
@@ -1163,21 +1220,12 @@ public class JForth {
                         return 0;
                     }
 
-                    Object o1 = dStack.pop();
-
-                    if (o1 instanceof Integer) {
-                        int i1 = ((Integer) o1).intValue();
-
-                        StringBuffer sb = new StringBuffer();
-                        for (int i = 0; i < i1; i++) {
-                            sb.append(" ");
-                        }
-
-                        System.out.print(sb.toString());
+                    if (dStack.isInt()) {
+                        dStack.out().spaces(dStack.popInt());
                         return 1;
 
                     } else {
-                        System.out.println("spaces - requires number on stack");
+                        dStack.out().println("spaces - requires number on stack");
                         return 0;
                     }
                 }
@@ -1188,7 +1236,7 @@ public class JForth {
             new PrimitiveWord("binary", false, new ExecuteIF() {
                 public int execute(OStack dStack, OStack vStack) {
 
-                    base = 2;
+                    setBase(dStack, 2);
                     return 1;
                 }
             }),
@@ -1196,7 +1244,7 @@ public class JForth {
             new PrimitiveWord("decimal", false, new ExecuteIF() {
                 public int execute(OStack dStack, OStack vStack) {
 
-                    base = 10;
+                    setBase(dStack, 10);
                     return 1;
                 }
             }),
@@ -1204,92 +1252,240 @@ public class JForth {
             new PrimitiveWord("hex", false, new ExecuteIF() {
                 public int execute(OStack dStack, OStack vStack) {
 
-                    base = 16;
+                    setBase(dStack, 16);
                     return 1;
                 }
             }),
 
-            new PrimitiveWord(":", false, new ExecuteIF() {
+            new PrimitiveWord(".r", false, new ExecuteIF() {
                 public int execute(OStack dStack, OStack vStack) {
 
-                    compiling = true;
-
-                    // Get the name of the new word
-                    String name = getNextToken();
-                    if (name == null) {
+                    if (dStack.size() < 2) {
                         return 0;
                     }
 
-                    // Start its definition
-                    wordBeingDefined = new NonPrimitiveWord(name);
+                    if (dStack.isInt(0) && dStack.isInt(1)) {
+                        int width = dStack.popInt();
 
-                    return 1;
+                        dStack.out().print(dStack.popInt(), base(dStack), width);
+                        return 1;
+
+                    } else {
+                        dStack.out().println(".r - requires number and width on stack");
+                        return 0;
+                    }
                 }
             }),
 
-            new PrimitiveWord(";", true, new ExecuteIF() {
-                public int execute(OStack dStack, OStack vStack) {
-
-                    compiling = false;
+            // Pictured Numeric Output Words
 
-                    // Now add the new word to the dictionary
-                    dictionary.add(wordBeingDefined);
+            new PrimitiveWord("<#", false, new ExecuteIF() {
+                public int execute(OStack dStack, OStack vStack) {
 
+                    picture(dStack).begin();
                     return 1;
                 }
             }),
 
-            new PrimitiveWord("words", false, new ExecuteIF() {
+            new PrimitiveWord("#", false, new ExecuteIF() {
                 public int execute(OStack dStack, OStack vStack) {
 
-                    System.out.println(dictionary.toString(false));
+                    if (dStack.empty()) {
+                        return 0;
+                    }
+
+                    if (!dStack.isInt()) {
+                        dStack.out().println("# - requires number on stack");
+                        return 0;
+                    }
+
+                    if (picture(dStack).isFull()) {
+                        dStack.out().println("# - picture too long");
+                        return 0;
+                    }
 
+                    dStack.pushInt(picture(dStack).digit(dStack.popInt(), base(dStack)));
                     return 1;
                 }
             }),
 
-            new PrimitiveWord("wordsd", false, new ExecuteIF() {
+            new PrimitiveWord("#s", false, new ExecuteIF() {
                 public int execute(OStack dStack, OStack vStack) {
 
-                    System.out.println(dictionary.toString(true));
-
-                    return 1;
+                    if (dStack.empty()) {
+                        return 0;
+                    }
+
+                    if (!dStack.isInt()) {
+                        dStack.out().println("#s - requires number on stack");
+                        return 0;
+                    }
+
+                    if (picture(dStack).isFull()) {
+                        dStack.out().println("#s - picture too long");
+                        return 0;
+                    }
+
+                    dStack.pushInt(picture(dStack).digits(dStack.popInt(), base(dStack)));
+                    return 1;
                 }
             }),
 
-            new PrimitiveWord("forget", true, new ExecuteIF() {
+            new PrimitiveWord("hold", false, new ExecuteIF() {
                 public int execute(OStack dStack, OStack vStack) {
 
-                    // Get the name of the word to forget
-                    String name = getNextToken();
+                    if (dStack.empty()) {
+                        return 0;
+                    }
+
+                    if (!dStack.isInt()) {
+                        dStack.out().println("hold - requires character code on stack");
+                        return 0;
+                    }
+
+                    if (!picture(dStack).hold((char) dStack.popInt())) {
+                        dStack.out().println("hold - picture too long");
+                        return 0;
+                    }
+
+                    return 1;
+                }
+            }),
+
+            new PrimitiveWord("sign", false, new ExecuteIF() {
+                public int execute(OStack dStack, OStack vStack) {
+
+                    if (dStack.empty()) {
+                        return 0;
+                    }
 
+                    if (!dStack.isInt()) {
+                        dStack.out().println("sign - requires number on stack");
+                        return 0;
+                    }
+
+                    if (picture(dStack).isFull()) {
+                        dStack.out().println("sign - picture too long");
+                        return 0;
+                    }
+
+                    picture(dStack).sign(dStack.popInt());
+                    return 1;
+                }
+            }),
+
+            new PrimitiveWord("#>", false, new ExecuteIF() {
+                public int execute(OStack dStack, OStack vStack) {
+
+                    if (dStack.empty()) {
+                        return 0;
+                    }
+
+                    // Replace the number left over by a view of the finished picture
+                    dStack.pop();
+                    dStack.push(picture(dStack));
+                    return 1;
+                }
+            }),
+
+            new PrimitiveWord(":", false, new ExecuteIF() {
+                public int execute(OStack dStack, OStack vStack) {
+
+                    JForth forth = dStack.getSession();
+
+                    forth.compiling = true;
+
+                    // Get the name of the new word
+                    String name = forth.getNextToken();
                     if (name == null) {
                         return 0;
                     }
 
-                    // Look up the word in the dictionary
-                    BaseWord bw = null;
+                    // Start its definition
+                    forth.wordBeingDefined = new NonPrimitiveWord(name);
+                    forth.definitionLine = forth.scanner.line();
 
-                    try {
-                        bw = dictionary.search(name);
+                    return 1;
+                }
+            }),
+
+            new PrimitiveWord(";", true, new ExecuteIF() {
+                public int execute(OStack dStack, OStack vStack) {
+
+                    JForth forth = dStack.getSession();
+
+                    forth.compiling = false;
+
+                    // Now add the new word to the dictionary
+                    forth.dictionary.add(forth.wordBeingDefined);
+
+                    if (NonPrimitiveWord.isThreadedCode()) {
+                        forth.wordBeingDefined.compile();
+                    }
+
+                    return 1;
+                }
+            }),
+
+            new PrimitiveWord("words", false, new ExecuteIF() {
+                public int execute(OStack dStack, OStack vStack) {
+
+                    JForth forth = dStack.getSession();
+
+                    dStack.out().println(forth.dictionary.toString(false));
+
+                    return 1;
+                }
+            }),
+
+            new PrimitiveWord("fusions", false, new ExecuteIF() {
+                public int execute(OStack dStack, OStack vStack) {
+
+                    dStack.out().println(Peephole.report());
+
+                    return 1;
+                }
+            }),
+
+            new PrimitiveWord("wordsd", false, new ExecuteIF() {
+                public int execute(OStack dStack, OStack vStack) {
+
+                    JForth forth = dStack.getSession();
+
+                    dStack.out().println(forth.dictionary.toString(true));
+
+                    return 1;
+                }
+            }),
+
+            new PrimitiveWord("forget", true, new ExecuteIF() {
+                public int execute(OStack dStack, OStack vStack) {
+
+                    JForth forth = dStack.getSession();
+
+                    // Get the name of the word to forget
+                    String name = forth.getNextToken();
 
-                    } catch (Exception ignore) {
-                        // NOP
+                    if (name == null) {
+                        return 0;
                     }
 
+                    // Look up the word in the dictionary
+                    BaseWord bw = forth.dictionary.search(name);
+
                     if (bw != null) {
 
                         // Found the word to forget. Can only forget non-primitive words.
-                        if (!bw.isPrimitive) {
-                            // Truncate the dictionary
-                            dictionary.truncateList(bw);
+                        if (bw.isPrimitive) {
+                            dStack.out().println("Forget - cannot forget primitives");
 
-                        } else {
-                            System.out.println("Forget - cannot forget primitives");
+                        } else if (!forth.dictionary.truncateList(bw)) {
+                            // Truncating only works on the words of this session
+                            dStack.out().println("Forget - cannot forget library words");
                         }
 
                     } else
-                        System.out.println("Forget - didn't find word \"" + name + "\" to forget");
+                        dStack.out().println("Forget - didn't find word \"" + name + "\" to forget");
 
                     return 1;
                 }
@@ -1298,12 +1494,14 @@ public class JForth {
             new PrimitiveWord("constant", false, new ExecuteIF() {
                 public int execute(OStack dStack, OStack vStack) {
 
+                    JForth forth = dStack.getSession();
+
                     if (dStack.empty()) {
                         return 0;
                     }
 
                     // Get the name of the new constant
-                    String name = getNextToken();
+                    String name = forth.getNextToken();
 
                     if (name == null) {
                         return 0;
@@ -1312,12 +1510,9 @@ public class JForth {
                     // Start the definition of the new constant
                     NonPrimitiveWord constant = new NonPrimitiveWord(name);
 
-                    // Add this word to the dictionary
-                    dictionary.add(constant);
-
                     // Now determine what type of constant is required.
                     // Pop item off of stack. This is the value of the constant.
-                    Object o1 = dStack.pop();
+                    Object o1 = PicturedNumber.text(dStack.pop());
 
                     if (o1 instanceof String) {
                         String stringConstant = (String) o1;
@@ -1325,9 +1520,15 @@ public class JForth {
 
                     } else {
                         Integer numericConstant = (Integer) o1;
-                        constant.addWord(new NumericLiteral(numericConstant));
+                        constant.addWord(new NumericLiteral(numericConstant.intValue()));
                     }
 
+                    constant.setConstant();
+
+                    // Add this word to the dictionary only once it is complete,
+                    // as sessions on other threads may find it straight away
+                    forth.dictionary.add(constant);
+
                     return 1;
                 }
             }),
@@ -1335,8 +1536,10 @@ public class JForth {
             new PrimitiveWord("variable", false, new ExecuteIF() {
                 public int execute(OStack dStack, OStack vStack) {
 
+                    JForth forth = dStack.getSession();
+
                     // Get the name of the new constant
-                    String name = getNextToken();
+                    String name = forth.getNextToken();
 
                     if (name == null) {
                         return 0;
@@ -1346,342 +1549,1393 @@ public class JForth {
                     StorageWord sw = new StorageWord(name, 1);
 
                     // Add this storage word to the dictionary
-                    dictionary.add(sw);
+                    forth.dictionary.add(sw);
 
                     return 1;
                 }
             }),
 
-            new PrimitiveWord(">r", false, new ExecuteIF() {
+            new PrimitiveWord("task:", false, new ExecuteIF() {
                 public int execute(OStack dStack, OStack vStack) {
 
-                    if (dStack.empty()) {
+                    JForth forth = dStack.getSession();
+
+                    // Get the name of the new task
+                    String name = forth.getNextToken();
+
+                    if (name == null) {
                         return 0;
                     }
 
-                    Object o = dStack.pop();
-                    vStack.push(o);
+                    // Add the task to the dictionary. It isn't running until activated.
+                    forth.dictionary.add(new TaskWord(name));
 
                     return 1;
                 }
             }),
 
-            new PrimitiveWord("r>", false, new ExecuteIF() {
+            new PrimitiveWord("activate", false, new ExecuteIF() {
                 public int execute(OStack dStack, OStack vStack) {
 
-                    if (vStack.empty()) {
+                    JForth forth = dStack.getSession();
+
+                    if (dStack.empty() || vStack.empty()) {
                         return 0;
                     }
 
-                    Object o = vStack.pop();
-                    dStack.push(o);
+                    Object o1 = vStack.pop();
+                    Object o2 = dStack.pop();
+
+                    if (!(o1 instanceof TaskWord) || !(o2 instanceof BaseWord)) {
+                        dStack.out().println("activate - requires word on stack and task");
+                        return 0;
+                    }
+
+                    TaskWord tw = (TaskWord) o1;
+
+                    if (!forth.scheduler().activate(tw, (BaseWord) o2)) {
+                        dStack.out().println("activate - task " + tw.name + " is already running");
+                        return 0;
+                    }
 
                     return 1;
                 }
             }),
 
-            new PrimitiveWord("r@", false, new ExecuteIF() {
+            new PrimitiveWord("pause", false, new ExecuteIF() {
                 public int execute(OStack dStack, OStack vStack) {
 
-                    if (vStack.empty()) {
+                    JForth forth = dStack.getSession();
+
+                    forth.scheduler().pause();
+
+                    return 1;
+                }
+            }),
+
+            new PrimitiveWord("stop", false, new ExecuteIF() {
+                public int execute(OStack dStack, OStack vStack) {
+
+                    JForth forth = dStack.getSession();
+
+                    // Doesn't return if called from a task
+                    if (!forth.scheduler().stop()) {
+                        dStack.out().println("stop - not in a task");
                         return 0;
                     }
 
-                    Object o = vStack.peek();
-                    dStack.push(o);
-
                     return 1;
                 }
             }),
 
-            new PrimitiveWord("!", false, new ExecuteIF() {
+            new PrimitiveWord("channel", false, new ExecuteIF() {
                 public int execute(OStack dStack, OStack vStack) {
 
-                    if (vStack.empty()) {
-                        System.out.println("Return stack empty");
+                    JForth forth = dStack.getSession();
+
+                    if (dStack.empty()) {
                         return 0;
                     }
 
-                    // Pop the top item off of the variable stack and see
-                    // if it is a reference to a StorageWord which it must be.
-                    Object o = vStack.pop();
+                    if (!dStack.isInt()) {
+                        dStack.out().println("channel - required int capacity");
+                        return 0;
+                    }
 
-                    if (!(o instanceof StorageWord)) {
-                        System.out.println("Data found on return stack");
+                    int capacity = dStack.popInt();
+
+                    if ((capacity < 1) || (capacity > MAX_CHANNEL_CAPACITY)) {
+                        dStack.out().println("channel - capacity must be 1 to " + MAX_CHANNEL_CAPACITY);
                         return 0;
                     }
 
-                    StorageWord sw = (StorageWord) o;
+                    // Get the name of the new channel
+                    String name = forth.getNextToken();
 
-                    // Are we dealing with an array here
-                    if (!sw.isArray()) {
+                    if (name == null) {
+                        return 0;
+                    }
 
-                        // We have a simple variable. Make sure we have at least one element on the data stack
-                        if (dStack.empty()) {
-                            return 0;
-                        }
+                    forth.dictionary.add(new ChannelWord(name, capacity));
 
-                        Object data = dStack.pop();
-                        sw.store(vStack, data, 0);
+                    return 1;
+                }
+            }),
 
-                    } else {
+            new PrimitiveWord("send", false, new ExecuteIF() {
+                public int execute(OStack dStack, OStack vStack) {
 
-                        // We have an array. Make sure there is data and an offset on the stack.
-                        if (dStack.size() < 2) {
-                            return 0;
+                    JForth forth = dStack.getSession();
+                    ChannelWord cw = channel(dStack, vStack, 1);
+
+                    if (cw == null) {
+                        return 0;
+                    }
+
+                    Object o = PicturedNumber.text(dStack.pop());
+
+                    // Wait for room
+                    for (int tries = 0; !cw.getChannel().send(o); tries++) {
+
+                        if (forth.backOff(this, tries)) {
+                            dStack.push(o);
+                            vStack.push(cw);
+                            return 1;
                         }
+                    }
 
-                        // Offset should be on the top of the stack
-                        Object off = dStack.pop();
+                    return 1;
+                }
+            }),
 
-                        if (!(off instanceof Integer)) {
-                            System.out.println("Offset number be an integer");
-                            return 0;
+            new PrimitiveWord("try-send", false, new ExecuteIF() {
+                public int execute(OStack dStack, OStack vStack) {
+
+                    ChannelWord cw = channel(dStack, vStack, 1);
+
+                    if (cw == null) {
+                        return 0;
+                    }
+
+                    dStack.pushInt(cw.getChannel().send(PicturedNumber.text(dStack.pop())) ? TRUE : FALSE);
+
+                    return 1;
+                }
+            }),
+
+            new PrimitiveWord("receive", false, new ExecuteIF() {
+                public int execute(OStack dStack, OStack vStack) {
+
+                    JForth forth = dStack.getSession();
+                    ChannelWord cw = channel(dStack, vStack, 0);
+
+                    if (cw == null) {
+                        return 0;
+                    }
+
+                    Object o;
+
+                    // Wait for a cell
+                    for (int tries = 0; (o = cw.getChannel().receive()) == null; tries++) {
+
+                        if (forth.backOff(this, tries)) {
+                            vStack.push(cw);
+                            return 1;
                         }
+                    }
 
-                        int offset = ((Integer) off).intValue();
+                    dStack.push(o);
 
-                        // Now pop the data item from the stack
-                        Object data = dStack.pop();
+                    return 1;
+                }
+            }),
 
-                        sw.store(vStack, data, offset);
+            new PrimitiveWord("try-receive", false, new ExecuteIF() {
+                public int execute(OStack dStack, OStack vStack) {
+
+                    ChannelWord cw = channel(dStack, vStack, 0);
+
+                    if (cw == null) {
+                        return 0;
+                    }
+
+                    Object o = cw.getChannel().receive();
+
+                    // Leaves the cell and true, or just false
+                    if (o != null) {
+                        dStack.push(o);
+                        dStack.pushInt(TRUE);
+
+                    } else {
+                        dStack.pushInt(FALSE);
                     }
 
                     return 1;
                 }
             }),
 
-            new PrimitiveWord("+!", false, new ExecuteIF() {
+            new PrimitiveWord("send-n", false, new ExecuteIF() {
                 public int execute(OStack dStack, OStack vStack) {
 
-                    if (vStack.empty()) {
-                        System.out.println("Return stack empty");
+                    JForth forth = dStack.getSession();
+                    ChannelWord cw = channel(dStack, vStack, 1);
+
+                    if (cw == null) {
                         return 0;
                     }
 
-                    // Pop the top item off of the variable stack and see
-                    // if it is a reference to a StorageWord which it must be.
-                    Object o = vStack.pop();
-                    if (!(o instanceof StorageWord)) {
-                        System.out.println("Data found on return stack");
+                    Channel channel = cw.getChannel();
+                    int count = batchCount(dStack, channel, "send-n");
+
+                    if ((count < 0) || (dStack.size() < count)) {
                         return 0;
                     }
 
-                    StorageWord sw = (StorageWord) o;
+                    // The deepest cell is sent first
+                    Object[] cells = new Object[count];
+
+                    for (int i = count - 1; i >= 0; i--) {
+                        cells[i] = PicturedNumber.text(dStack.pop());
+                    }
+
+                    for (int tries = 0; !channel.send(cells, 0, count); tries++) {
+
+                        if (forth.backOff(this, tries)) {
+
+                            for (Object o : cells) {
+                                dStack.push(o);
+                            }
+
+                            dStack.pushInt(count);
+                            vStack.push(cw);
+                            return 1;
+                        }
+                    }
+
+                    return 1;
+                }
+            }),
+
+            new PrimitiveWord("receive-n", false, new ExecuteIF() {
+                public int execute(OStack dStack, OStack vStack) {
+
+                    JForth forth = dStack.getSession();
+                    ChannelWord cw = channel(dStack, vStack, 1);
+
+                    if (cw == null) {
+                        return 0;
+                    }
+
+                    Channel channel = cw.getChannel();
+                    int count = batchCount(dStack, channel, "receive-n");
+
+                    if (count < 0) {
+                        return 0;
+                    }
+
+                    Object[] cells = new Object[count];
+
+                    for (int tries = 0; !channel.receive(cells, 0, count); tries++) {
+
+                        if (forth.backOff(this, tries)) {
+                            dStack.pushInt(count);
+                            vStack.push(cw);
+                            return 1;
+                        }
+                    }
+
+                    for (Object o : cells) {
+                        dStack.push(o);
+                    }
+
+                    return 1;
+                }
+            }),
+
+            new PrimitiveWord(">r", false, new ExecuteIF() {
+                public int execute(OStack dStack, OStack vStack) {
+
+                    if (dStack.empty()) {
+                        return 0;
+                    }
+
+                    Object o = dStack.pop();
+                    vStack.push(o);
+
+                    return 1;
+                }
+            }),
+
+            new PrimitiveWord("r>", false, new ExecuteIF() {
+                public int execute(OStack dStack, OStack vStack) {
+
+                    if (vStack.empty()) {
+                        return 0;
+                    }
+
+                    Object o = vStack.pop();
+                    dStack.push(o);
+
+                    return 1;
+                }
+            }),
+
+            new PrimitiveWord("r@", false, new ExecuteIF() {
+                public int execute(OStack dStack, OStack vStack) {
+
+                    if (vStack.empty()) {
+                        return 0;
+                    }
+
+                    Object o = vStack.peek();
+                    dStack.push(o);
+
+                    return 1;
+                }
+            }),
+
+            new PrimitiveWord("!", false, new ExecuteIF() {
+                public int execute(OStack dStack, OStack vStack) {
+
+                    if (vStack.empty()) {
+                        dStack.out().println("Return stack empty");
+                        return 0;
+                    }
+
+                    // Pop the top item off of the variable stack and see
+                    // if it is a reference to a StorageWord which it must be.
+                    Object o = vStack.pop();
+
+                    if (!(o instanceof StorageWord)) {
+                        dStack.out().println("Data found on return stack");
+                        return 0;
+                    }
+
+                    StorageWord sw = (StorageWord) o;
+
+                    // Are we dealing with an array here
+                    if (!sw.isArray()) {
+
+                        // We have a simple variable. Make sure we have at least one element on the data stack
+                        if (dStack.empty()) {
+                            return 0;
+                        }
+
+                        Object data = dStack.pop();
+                        sw.store(vStack, data, 0);
+
+                    } else {
+
+                        // We have an array. Make sure there is data and an offset on the stack.
+                        if (dStack.size() < 2) {
+                            return 0;
+                        }
+
+                        // Offset should be on the top of the stack
+                        if (!dStack.isInt()) {
+                            dStack.out().println("Offset number be an integer");
+                            return 0;
+                        }
+
+                        int offset = dStack.popInt();
+
+                        // Now pop the data item from the stack
+                        Object data = dStack.pop();
+
+                        sw.store(vStack, data, offset);
+                    }
+
+                    return 1;
+                }
+            }),
+
+            new PrimitiveWord("+!", false, new ExecuteIF() {
+                public int execute(OStack dStack, OStack vStack) {
+
+                    if (vStack.empty()) {
+                        dStack.out().println("Return stack empty");
+                        return 0;
+                    }
+
+                    // Pop the top item off of the variable stack and see
+                    // if it is a reference to a StorageWord which it must be.
+                    Object o = vStack.pop();
+                    if (!(o instanceof StorageWord)) {
+                        dStack.out().println("Data found on return stack");
+                        return 0;
+                    }
+
+                    StorageWord sw = (StorageWord) o;
+
+                    // Are we dealing with an array here
+                    if (!sw.isArray()) {
+
+                        // We have a simple variable. Make sure we have at least one element on the data stack
+                        if (dStack.empty()) {
+                            return 0;
+                        }
+
+                        Object data = dStack.pop();
+                        sw.plusStore(vStack, data, 0);
+
+                    } else {
+
+                        // We have an array. Make sure there is data and an offset on the stack.
+                        if (dStack.size() < 2) {
+                            return 0;
+                        }
+
+                        // Offset should be on the top of the stack
+                        if (!dStack.isInt()) {
+                            dStack.out().println("Offset number be an integer");
+                            return 0;
+                        }
+
+                        int offset = dStack.popInt();
+
+                        // Now pop the data item from the stack
+                        Object data = dStack.pop();
+
+                        sw.plusStore(vStack, data, offset);
+                    }
+
+                    return 1;
+                }
+            }),
+
+            new PrimitiveWord("@", false, new ExecuteIF() {
+                public int execute(OStack dStack, OStack vStack) {
+
+                    if (vStack.empty()) {
+                        dStack.out().println("Variable stack empty");
+                        return 0;
+                    }
+
+                    // Pop the top item off of the variable stack and see
+                    // if it is a reference to a StorageWord which it must be.
+                    Object o = vStack.pop();
+
+                    if (!(o instanceof StorageWord)) {
+                        dStack.out().println("Data found on variable stack");
+                        return 0;
+                    }
+
+                    StorageWord sw = (StorageWord) o;
+                    Object data;
+
+                    // Are we dealing with an array here
+                    if (!sw.isArray()) {
+
+                        // We have a simple variable. Fetch its value
+                        data = sw.fetch(vStack, 0);
+
+                    } else {
+
+                        // We have an array. Make sure there is an offset on the stack.
+                        if (dStack.empty()) {
+                            return 0;
+                        }
+
+                        // Offset should be on the top of the stack
+                        if (!dStack.isInt()) {
+                            dStack.out().println("Offset number be an integer");
+                            return 0;
+                        }
+
+                        int offset = dStack.popInt();
+
+                        // Fetch the data at the specified offset
+                        data = sw.fetch(vStack, offset);
+                    }
+
+                    dStack.push(data);
+                    return 1;
+                }
+            }),
+
+            new PrimitiveWord("array", false, new ExecuteIF() {
+                public int execute(OStack dStack, OStack vStack) {
+
+                    JForth forth = dStack.getSession();
+
+                    if (dStack.empty()) {
+                        return 0;
+                    }
+
+                    if (!dStack.isInt()) {
+                        dStack.out().println("array - required int size");
+                        return 0;
+                    }
+
+                    int size = dStack.popInt();
+
+                    // Get the name of the new constant
+                    String name = forth.getNextToken();
+
+                    if (name == null) {
+                        return 0;
+                    }
+
+                    // Start the definition of the new constant
+                    StorageWord sw = new StorageWord(name, size);
+
+                    // Add this storage word to the dictionary
+                    forth.dictionary.add(sw);
+
+                    return 1;
+                }
+            }),
+
+            new PrimitiveWord("shared-variable", false, new ExecuteIF() {
+                public int execute(OStack dStack, OStack vStack) {
+
+                    JForth forth = dStack.getSession();
+
+                    // Get the name of the new variable
+                    String name = forth.getNextToken();
+
+                    if (name == null) {
+                        return 0;
+                    }
+
+                    forth.dictionary.add(new StorageWord(name, 1, true));
+
+                    return 1;
+                }
+            }),
+
+            new PrimitiveWord("shared-array", false, new ExecuteIF() {
+                public int execute(OStack dStack, OStack vStack) {
+
+                    JForth forth = dStack.getSession();
+
+                    if (dStack.empty()) {
+                        return 0;
+                    }
+
+                    if (!dStack.isInt()) {
+                        dStack.out().println("shared-array - required int size");
+                        return 0;
+                    }
+
+                    int size = dStack.popInt();
+
+                    // Get the name of the new array
+                    String name = forth.getNextToken();
+
+                    if (name == null) {
+                        return 0;
+                    }
+
+                    forth.dictionary.add(new StorageWord(name, size, true));
+
+                    return 1;
+                }
+            }),
+
+            new PrimitiveWord("atomic+!", false, new ExecuteIF() {
+                public int execute(OStack dStack, OStack vStack) {
+
+                    StorageWord sw = sharedStorage(dStack, vStack, "atomic+!", 1);
+
+                    if (sw == null) {
+                        return 0;
+                    }
+
+                    int offset = sw.isArray() ? dStack.popInt() : 0;
+
+                    return (sw.fetchAndAdd(vStack, dStack.popInt(), offset) != null) ? 1 : 0;
+                }
+            }),
+
+            new PrimitiveWord("@+!", false, new ExecuteIF() {
+                public int execute(OStack dStack, OStack vStack) {
+
+                    StorageWord sw = sharedStorage(dStack, vStack, "@+!", 1);
+
+                    if (sw == null) {
+                        return 0;
+                    }
+
+                    int offset = sw.isArray() ? dStack.popInt() : 0;
+                    Integer before = sw.fetchAndAdd(vStack, dStack.popInt(), offset);
+
+                    // Out of range, which has been reported
+                    if (before == null) {
+                        return 0;
+                    }
+
+                    // Leaves the value from before the add
+                    dStack.pushInt(before.intValue());
+
+                    return 1;
+                }
+            }),
+
+            new PrimitiveWord("cas!", false, new ExecuteIF() {
+                public int execute(OStack dStack, OStack vStack) {
+
+                    StorageWord sw = sharedStorage(dStack, vStack, "cas!", 2);
+
+                    if (sw == null) {
+                        return 0;
+                    }
+
+                    int offset = sw.isArray() ? dStack.popInt() : 0;
+                    int update = dStack.popInt();
+                    int expected = dStack.popInt();
+
+                    dStack.pushInt(sw.compareAndSet(vStack, expected, update, offset) ? TRUE : FALSE);
+
+                    return 1;
+                }
+            }),
+
+            new PrimitiveWord("load", false, new ExecuteIF() {
+                public int execute(OStack dStack, OStack vStack) {
+
+                    JForth forth = dStack.getSession();
+
+                    if (dStack.empty()) {
+                        return 0;
+                    }
+
+                    // Pop filename off of stack
+                    Object o1 = dStack.pop();
+
+                    if (o1 instanceof String) {
+                        String fileName = (String) o1;
+
+                        // Attempt to load the text in the specified file
+                        return forth.fileLoad(fileName);
+
+                    } else {
+                        dStack.out().println("load - requires filename string on stack");
+                        return 0;
+                    }
+                }
+            }),
+
+            new PrimitiveWord("save-image", false, new ExecuteIF() {
+                public int execute(OStack dStack, OStack vStack) {
+
+                    JForth forth = dStack.getSession();
+
+                    if (dStack.empty()) {
+                        return 0;
+                    }
+
+                    // Pop filename off of stack
+                    Object o1 = dStack.pop();
+
+                    if (!(o1 instanceof String)) {
+                        dStack.out().println("save-image - requires filename string on stack");
+                        return 0;
+                    }
+
+                    try {
+                        forth.saveImage((String) o1);
+                        return 1;
+
+                    } catch (IOException ioe) {
+                        dStack.out().println("save-image - " + ioe.getMessage());
+                        return 0;
+                    }
+                }
+            }),
+
+            new PrimitiveWord("load-image", false, new ExecuteIF() {
+                public int execute(OStack dStack, OStack vStack) {
+
+                    JForth forth = dStack.getSession();
+
+                    if (dStack.empty()) {
+                        return 0;
+                    }
+
+                    // Pop filename off of stack
+                    Object o1 = dStack.pop();
+
+                    if (!(o1 instanceof String)) {
+                        dStack.out().println("load-image - requires filename string on stack");
+                        return 0;
+                    }
+
+                    try {
+                        forth.loadImage((String) o1);
+                        return 1;
+
+                    } catch (IOException ioe) {
+                        dStack.out().println("load-image - " + ioe.getMessage());
+                        return 0;
+                    }
+                }
+            }),
+
+            new PrimitiveWord("map-image", false, new ExecuteIF() {
+                public int execute(OStack dStack, OStack vStack) {
+
+                    JForth forth = dStack.getSession();
+
+                    if (dStack.empty()) {
+                        return 0;
+                    }
+
+                    // Pop filename off of stack
+                    Object o1 = dStack.pop();
+
+                    if (!(o1 instanceof String)) {
+                        dStack.out().println("map-image - requires filename string on stack");
+                        return 0;
+                    }
+
+                    try {
+                        forth.loadImage((String) o1, true);
+                        return 1;
+
+                    } catch (IOException ioe) {
+                        dStack.out().println("map-image - " + ioe.getMessage());
+                        return 0;
+                    }
+                }
+            }),
+
+            new PrimitiveWord("random", false, new ExecuteIF() {
+                public int execute(OStack dStack, OStack vStack) {
+
+                    JForth forth = dStack.getSession();
+
+                    if (dStack.empty()) {
+                        return 0;
+                    }
+
+                    if (dStack.isInt()) {
+                        int mult = dStack.popInt();
+
+                        double number = forth.random.nextGaussian() * mult;
+                        dStack.pushInt((int) number);
+
+                        return 1;
+
+                    } else {
+                        dStack.out().println("random - requires numeric value on stack");
+                        return 0;
+                    }
+                }
+            }),
+
+            // This isn't correct
+            new PrimitiveWord("key", false, new ExecuteIF() {
+                public int execute(OStack dStack, OStack vStack) {
+
+                    try {
+                        int inChar = System.in.read();
+                        dStack.pushInt(inChar);
+
+                        return 1;
+
+                    } catch (Exception e) {
+                        return 0;
+                    }
+                }
+            }),
+
+            new PrimitiveWord("bye", false, new ExecuteIF() {
+                public int execute(OStack dStack, OStack vStack) {
+
+                    dStack.out().flush();
+                    System.exit(0);
+                    return 1;
+                }
+            }),
+    };
+    public JForth() {
+        this(JForthCore.standard());
+    }
+
+    /**
+     * Start a session on a core.
+     *
+     * @param core holds the primitives and library words to run with
+     */
+    public JForth(JForthCore core) {
+
+        this.core = core;
+
+        // Words defined here are searched before those of the core
+        dictionary = new WordsList(core.getDictionary());
+
+        // Primitives are given only the stacks, so find the session through them
+        dStack.setSession(this);
+        vStack.setSession(this);
+        foldStack.setSession(this);
+
+        // Initially in run mode not compile mode
+        compiling = false;
+
+        // Number base is 10 until changed
+        base = 10;
+
+        // Seed the random number generator
+        random = new Random();
+    }
+
+    /**
+     * Direct the output of the interpreter somewhere else. Anything still
+     * buffered for the old sink is written out first.
+     *
+     * @param sink is the new output sink
+     */
+    public void setOutput(OutputSink sink) {
+
+        out.flush();
+        out = sink;
+    }
+
+    public OutputSink getOutput() {
+        return out;
+    }
+
+    // Scheduler of this session's tasks
+    public Scheduler scheduler() {
+
+        if (scheduler == null) {
+            scheduler = new Scheduler(this);
+        }
+
+        return scheduler;
+    }
+
+    // The primitive words, shared by all sessions
+    static BaseWord[] primitives() {
+        return PRIMITIVES;
+    }
+
+    public JForthCore getCore() {
+        return core;
+    }
+
+    /**
+     * Make a core whose library is this session's core library followed by
+     * the words defined in this session. The words are shared from then on
+     * and must not be redefined in place; forgetting them here doesn't
+     * remove them from the new core.
+     *
+     * @return the new core
+     */
+    public JForthCore freeze() {
+        return core.extend(userWords());
+    }
+
+    /**
+     * Fork this session. The new session runs on a core holding this
+     * session's words, so every definition, compiled or not, is shared
+     * rather than copied. It starts with empty stacks, this session's number
+     * base and load cache, and sees the contents of variables and arrays as
+     * they are now. From then on the two sessions are independent: words
+     * defined in one aren't seen by the other and storage is copied by
+     * whichever session first writes to it.
+     * <p/>
+     * The core is made the first time and reused by later forks for as long
+     * as no words are defined or forgotten here, so a fork then costs little
+     * more than the new session's stacks.
+     *
+     * @return the new session
+     */
+    public JForth fork() {
+
+        if ((forkCore == null) || (forkVersion != dictionary.getVersion())) {
+            forkCore = freeze();
+            forkVersion = dictionary.getVersion();
+        }
+
+        // What this session has written becomes a snapshot both sessions read from
+        snapshotStorage();
+
+        JForth child = new JForth(forkCore);
+
+        child.inherited = inherited;
+        child.base = base;
+        child.loadCache = loadCache;
+
+        return child;
+    }
+
+    /**
+     * Record the state of this session as the baseline reset returns it to:
+     * the words defined, the contents of variables and arrays, the number
+     * base and the output sink.
+     */
+    public void mark() {
+
+        // Storage is copied on write from now on, so writes can be dropped
+        for (BaseWord bw : userWords()) {
+
+            if (bw instanceof StorageWord) {
+                ((StorageWord) bw).freeze();
+            }
+        }
+
+        snapshotStorage();
+
+        markWords = userWords();
+        markVersion = dictionary.getVersion();
+        markBase = base;
+        markOut = out;
+    }
+
+    /**
+     * Return this session to the baseline recorded by mark. The stacks are
+     * cleared, any definition in progress is abandoned, tasks are ended,
+     * words defined since the mark are forgotten and words forgotten since
+     * are restored, and variables and arrays get back the contents they had.
+     * Output still buffered is written out first.
+     */
+    public void reset() {
+
+        if (markWords == null) {
+            throw new IllegalStateException("reset without mark");
+        }
+
+        dStack.clear();
+        vStack.clear();
+        vStack.loops().clear();
+
+        compiling = false;
+        wordBeingDefined = null;
+        definitionsOnly = false;
+
+        if (dictionary.getVersion() != markVersion) {
+            int keep = 0;
+
+            while ((keep < dictionary.size()) && (keep < markWords.size())
+                    && (dictionary.get(keep) == markWords.get(keep))) {
+                keep++;
+            }
+
+            if (keep < dictionary.size()) {
+                dictionary.truncateList(dictionary.get(keep));
+            }
+
+            for (int i = keep; i < markWords.size(); i++) {
+                dictionary.add(markWords.get(i));
+            }
+
+            markVersion = dictionary.getVersion();
+        }
+
+        if (scheduler != null) {
+            scheduler.cancel();
+        }
+
+        storage = null;
+        base = markBase;
+
+        out.flush();
+        out = markOut;
+    }
+
+    // Number base of the words running against dStack. The chunks of a pdo
+    // loop have their own, so they can't change the session's.
+    static int base(OStack dStack) {
+
+        int radix = dStack.getBase();
+
+        return (radix != 0) ? radix : dStack.getSession().base;
+    }
+
+    private static void setBase(OStack dStack, int radix) {
+
+        if (dStack.getBase() != 0) {
+            dStack.setBase(radix);
+
+        } else {
+            dStack.getSession().base = radix;
+        }
+    }
+
+    // Hold buffer of the words running against dStack. The chunks of a pdo
+    // loop have their own, as a picture is built a digit at a time.
+    private static PicturedNumber picture(OStack dStack) {
+
+        PicturedNumber picture = dStack.getPicture();
+
+        return (picture != null) ? picture : dStack.getSession().picture;
+    }
+
+    // Shared variable or array on the variable stack, with numbers for its
+    // offset, if an array, and count more below on the data stack
+    private static StorageWord sharedStorage(OStack dStack, OStack vStack, String name, int count) {
+
+        if (vStack.empty()) {
+            dStack.out().println("Variable stack empty");
+            return null;
+        }
+
+        Object o = vStack.pop();
+
+        if (!(o instanceof StorageWord) || !((StorageWord) o).isAtomic()) {
+            dStack.out().println(name + " - requires shared variable or array");
+            return null;
+        }
+
+        StorageWord sw = (StorageWord) o;
+
+        if (sw.isArray()) {
+            count++;
+        }
+
+        if (dStack.size() < count) {
+            return null;
+        }
+
+        for (int i = 0; i < count; i++) {
+
+            if (!dStack.isInt(i)) {
+                dStack.out().println(name + " - requires numbers");
+                return null;
+            }
+        }
+
+        return sw;
+    }
+
+    // Channel on the variable stack, with at least cells entries on the data stack
+    private static ChannelWord channel(OStack dStack, OStack vStack, int cells) {
+
+        if (vStack.empty()) {
+            dStack.out().println("Variable stack empty");
+            return null;
+        }
+
+        if (!(vStack.peek() instanceof ChannelWord)) {
+            dStack.out().println("Channel required on variable stack");
+            return null;
+        }
+
+        ChannelWord cw = (ChannelWord) vStack.pop();
+
+        if (dStack.size() < cells) {
+            return null;
+        }
+
+        return cw;
+    }
+
+    // Number of cells for send-n or receive-n, or -1 if it is bad
+    private static int batchCount(OStack dStack, Channel channel, String name) {
+
+        if (dStack.empty() || !dStack.isInt()) {
+            dStack.out().println(name + " - requires numeric count");
+            return -1;
+        }
+
+        int count = dStack.popInt();
+
+        if ((count < 0) || (count > channel.capacity())) {
+            dStack.out().println(name + " - count must be 0 to the channel capacity " + channel.capacity());
+            return -1;
+        }
+
+        return count;
+    }
+
+    // Wait before a primitive tries a full or empty channel again. The
+    // session's other tasks run meanwhile, as one of them may be at the other
+    // end. Called by a task, the primitive gives up the task's turn instead
+    // and is run again on its next one; true is returned if it is to put the
+    // stacks back as they were and return.
+    private boolean backOff(ExecuteIF primitive, int tries) {
+
+        if (scheduler != null) {
+
+            if (scheduler.retry(primitive)) {
+                return true;
+            }
+
+            if (scheduler.size() > 0) {
+                scheduler.pause();
+            }
+        }
+
+        if (tries < CHANNEL_SPINS) {
+            Thread.yield();
+
+        } else {
+            // Sleep a little longer each time, up to a millisecond
+            LockSupport.parkNanos(1000L << Math.min(tries - CHANNEL_SPINS, 10));
+        }
+
+        return false;
+    }
+
+    // Move the body of the pdo loop being compiled into a word of its own
+    // which runs it as a do loop, and hand that word to the pdo
+    private int endParallelLoop(String name, BaseWord reduction) {
+
+        if (vStack.empty()) {
+            return 0;
+        }
+
+        // Pop the index entry off of the variable stack
+        if (!vStack.isInt()) {
+            dStack.out().println(name + " - requires numeric stack entry");
+            return 0;
+        }
+
+        int beginIndex = vStack.popInt();
+        NonPrimitiveWord npw = wordBeingDefined;
+
+        if ((beginIndex < 2) || !(npw.getWord(beginIndex - 2) instanceof ParallelDoControlWord)) {
+            dStack.out().println(name + " - must end a pdo loop");
+            return 0;
+        }
+
+        ParallelDoControlWord pdcw = (ParallelDoControlWord) npw.getWord(beginIndex - 2);
+        NonPrimitiveWord body = new NonPrimitiveWord("");
+
+        body.addWord(new DoLoopControlWord());
+
+        for (int i = beginIndex - 1; i < npw.size(); i++) {
+            body.addWord(npw.getWord(i));
+        }
+
+        // Branch back to the first word of the body, just after the do
+        int endIndex = body.getNextWordIndex();
+        body.addWord(new LoopControlWord(2 - endIndex));
 
-                    // Are we dealing with an array here
-                    if (!sw.isArray()) {
+        pdcw.setBody(body, reduction);
+        npw.replaceTail(npw.size() - beginIndex + 2, pdcw);
 
-                        // We have a simple variable. Make sure we have at least one element on the data stack
-                        if (dStack.empty()) {
-                            return 0;
-                        }
+        if (NonPrimitiveWord.isThreadedCode()) {
+            compileCalls(body, new IdentityHashMap<NonPrimitiveWord, Boolean>());
+        }
 
-                        Object data = dStack.pop();
-                        sw.plusStore(vStack, data, 0);
+        return 1;
+    }
 
-                    } else {
+    // Compile a pdo loop body and the definitions it calls now, rather than
+    // have the chunks of the loop race to compile them when first run. The
+    // word being defined isn't finished, so it is left until it runs.
+    private void compileCalls(NonPrimitiveWord npw, IdentityHashMap<NonPrimitiveWord, Boolean> compiled) {
 
-                        // We have an array. Make sure there is data and an offset on the stack.
-                        if (dStack.size() < 2) {
-                            return 0;
-                        }
+        if ((npw == wordBeingDefined) || (compiled.put(npw, Boolean.TRUE) != null)) {
+            return;
+        }
 
-                        // Offset should be on the top of the stack
-                        Object off = dStack.pop();
-                        if (!(off instanceof Integer)) {
-                            System.out.println("Offset number be an integer");
-                            return 0;
-                        }
+        npw.compile();
 
-                        int offset = ((Integer) off).intValue();
+        for (int i = 0; i < npw.size(); i++) {
+            ExecuteIF eif = npw.getWord(i);
 
-                        // Now pop the data item from the stack
-                        Object data = dStack.pop();
+            if (eif instanceof NonPrimitiveWord) {
+                compileCalls((NonPrimitiveWord) eif, compiled);
 
-                        sw.plusStore(vStack, data, offset);
-                    }
+            } else if (eif instanceof ParallelDoControlWord) {
+                compileCalls(((ParallelDoControlWord) eif).getBody(), compiled);
+            }
+        }
+    }
 
-                    return 1;
-                }
-            }),
+    // Fold what this session has written into the read only contents it
+    // starts from, so later writes are copied afresh
+    private void snapshotStorage() {
 
-            new PrimitiveWord("@", false, new ExecuteIF() {
-                public int execute(OStack dStack, OStack vStack) {
+        if ((storage != null) && !storage.isEmpty()) {
+            IdentityHashMap<StorageWord, Object[]> snapshot = (inherited != null)
+                    ? new IdentityHashMap<StorageWord, Object[]>(inherited)
+                    : new IdentityHashMap<StorageWord, Object[]>();
 
-                    if (vStack.empty()) {
-                        System.out.println("Variable stack empty");
-                        return 0;
-                    }
+            snapshot.putAll(storage);
+            inherited = Collections.unmodifiableMap(snapshot);
+            storage = null;
+        }
+    }
 
-                    // Pop the top item off of the variable stack and see
-                    // if it is a reference to a StorageWord which it must be.
-                    Object o = vStack.pop();
+    // Contents of a frozen variable or array as seen by this session. The
+    // shared contents are read until the session first writes, which gives
+    // it a copy of its own. The chunks of a pdo loop may ask at the same time.
+    synchronized Object[] storage(StorageWord sw, Object[] shared, boolean writing) {
 
-                    if (!(o instanceof StorageWord)) {
-                        System.out.println("Data found on variable stack");
-                        return 0;
-                    }
+        Object[] own = (storage != null) ? storage.get(sw) : null;
 
-                    StorageWord sw = (StorageWord) o;
-                    Object data;
+        if (own != null) {
+            return own;
+        }
 
-                    // Are we dealing with an array here
-                    if (!sw.isArray()) {
+        // Contents as of the last fork, if they had been written to by then
+        Object[] current = (inherited != null) ? inherited.get(sw) : null;
 
-                        // We have a simple variable. Fetch its value
-                        data = sw.fetch(vStack, 0);
+        if (current == null) {
+            current = shared;
+        }
 
-                    } else {
+        if (!writing) {
+            return current;
+        }
 
-                        // We have an array. Make sure there is an offset on the stack.
-                        if (dStack.empty()) {
-                            return 0;
-                        }
+        if (storage == null) {
+            storage = new IdentityHashMap<StorageWord, Object[]>();
+        }
 
-                        // Offset should be on the top of the stack
-                        Object off = dStack.pop();
+        own = current.clone();
+        storage.put(sw, own);
 
-                        if (!(off instanceof Integer)) {
-                            System.out.println("Offset number be an integer");
-                            return 0;
-                        }
+        return own;
+    }
 
-                        int offset = ((Integer) off).intValue();
+    // The load cache is on if the system property jforth.load.cache names its directory
+    private static LoadCache defaultLoadCache() {
 
-                        // Fetch the data at the specified offset
-                        data = sw.fetch(vStack, offset);
-                    }
+        String directory = System.getProperty("jforth.load.cache");
 
-                    dStack.push(data);
-                    return 1;
-                }
-            }),
+        return (directory != null) ? new LoadCache(new File(directory)) : null;
+    }
 
-            new PrimitiveWord("array", false, new ExecuteIF() {
-                public int execute(OStack dStack, OStack vStack) {
+    /**
+     * Set the directory caching the words defined by loading files.
+     *
+     * @param directory is the cache directory or null to turn the cache off
+     */
+    public void setLoadCache(File directory) {
+        loadCache = (directory != null) ? new LoadCache(directory) : null;
+    }
 
-                    if (dStack.empty()) {
-                        return 0;
-                    }
+    // Words defined on top of the primitives, in definition order
+    private List<BaseWord> userWords() {
 
-                    Object o = dStack.pop();
+        ArrayList<BaseWord> words = new ArrayList<BaseWord>();
 
-                    if (!(o instanceof Integer)) {
-                        System.out.println("array - required int size");
-                        return 0;
-                    }
+        for (int i = 0; i < dictionary.size(); i++) {
+            words.add(dictionary.get(i));
+        }
 
-                    int size = ((Integer) o).intValue();
+        return words;
+    }
 
-                    // Get the name of the new constant
-                    String name = getNextToken();
+    // Words of the core library followed by those of the session
+    private List<BaseWord> definedWords() {
 
-                    if (name == null) {
-                        return 0;
-                    }
+        ArrayList<BaseWord> words = new ArrayList<BaseWord>(core.getLibrary());
 
-                    // Start the definition of the new constant
-                    StorageWord sw = new StorageWord(name, size);
+        words.addAll(userWords());
 
-                    // Add this storage word to the dictionary
-                    dictionary.add(sw);
+        return words;
+    }
 
-                    return 1;
-                }
-            }),
+    /**
+     * Save the words defined in this session to an image file. They may refer
+     * to the words of the core library, which the image doesn't include.
+     *
+     * @param fileName is the image file to write
+     * @throws IOException if the image can't be written
+     */
+    public void saveImage(String fileName) throws IOException {
 
-            new PrimitiveWord("load", false, new ExecuteIF() {
-                public int execute(OStack dStack, OStack vStack) {
+        List<BaseWord> words = userWords();
 
-                    if (dStack.empty()) {
-                        return 0;
-                    }
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(fileName)));
 
-                    // Pop filename off of stack
-                    Object o1 = dStack.pop();
+        try {
+            DictionaryImage.write(out, core.getLibrary(), words, vStack);
 
-                    if (o1 instanceof String) {
-                        String fileName = (String) o1;
+        } finally {
+            out.close();
+        }
+    }
 
-                        // Attempt to load the text in the specified file
-                        return fileLoad(fileName);
+    /**
+     * Replace the words defined in this session with those of an image file
+     * saved on top of the same core library. The dictionary is left alone if
+     * the image can't be read.
+     *
+     * @param fileName is the image file to read
+     * @throws IOException if the image can't be read
+     */
+    public void loadImage(String fileName) throws IOException {
+        loadImage(fileName, false);
+    }
 
-                    } else {
-                        System.out.println("load - requires filename string on stack");
-                        return 0;
-                    }
-                }
-            }),
+    /**
+     * Replace the words defined in this session with those of an image file
+     * saved on top of the same core library. Read lazily, only the names of
+     * the words are read up front and each definition is decoded the first
+     * time it is used. The file is mapped and must not be rewritten while
+     * its words are in use.
+     *
+     * @param fileName is the image file to read
+     * @param lazy     is true to decode each word on first use
+     * @throws IOException if the image can't be read
+     */
+    public void loadImage(String fileName, boolean lazy) throws IOException {
+
+        FileInputStream file = new FileInputStream(fileName);
+        List<BaseWord> words;
 
-            new PrimitiveWord("random", false, new ExecuteIF() {
-                public int execute(OStack dStack, OStack vStack) {
+        try {
+            FileChannel channel = file.getChannel();
+            MappedByteBuffer image = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
 
-                    if (dStack.empty()) {
-                        return 0;
-                    }
+            List<BaseWord> library = core.getLibrary();
 
-                    Object o = dStack.pop();
+            words = lazy ? DictionaryImage.readLazily(image, PRIMITIVES, library)
+                    : DictionaryImage.read(image, PRIMITIVES, library);
 
-                    if (o instanceof Integer) {
-                        int mult = ((Integer) o).intValue();
+        } finally {
+            file.close();
+        }
 
-                        double number = random.nextGaussian() * mult;
-                        dStack.push(new Integer((int) number));
+        if (!dictionary.isEmpty()) {
+            dictionary.truncateList(dictionary.get(0));
+        }
 
-                        return 1;
+        for (BaseWord bw : words) {
+            dictionary.add(bw);
+        }
+    }
 
-                    } else {
-                        System.out.println("random - requires numeric value on stack");
-                        return 0;
-                    }
-                }
-            }),
+    /**
+     * Run a batch of files straight through, without prompts or OK echoes.
+     * The batch stops at the first error.
+     *
+     * @param files are the files to run in order. "-" stands for standard
+     *              input, which is also what runs if no files are given.
+     * @return 0 if the whole batch ran, 1 if it stopped on an error
+     */
+    public int runBatch(String[] files) {
+
+        if (files.length == 0) {
+            files = new String[]{"-"};
+        }
 
-            // This isn't correct
-            new PrimitiveWord("key", false, new ExecuteIF() {
-                public int execute(OStack dStack, OStack vStack) {
+        try {
+            for (String fileName : files) {
 
-                    try {
-                        int inChar = System.in.read();
-                        dStack.push(new Integer(inChar));
+                boolean ok;
 
-                        return 1;
+                if (fileName.equals("-")) {
+                    ok = standardInputLoad();
 
-                    } catch (Exception e) {
-                        return 0;
-                    }
+                } else {
+                    ok = (fileLoad(fileName) != 0);
                 }
-            }),
-
-            new PrimitiveWord("bye", false, new ExecuteIF() {
-                public int execute(OStack dStack, OStack vStack) {
 
-                    System.exit(1);
+                if (!ok) {
                     return 1;
                 }
-            }),
-    };
-    public JForth() {
-
-        // Add all of the defined words to the dictionary
-        for (int i = 0; i < forthWords.length; i++) {
-            dictionary.add(forthWords[i]);
-        }
-
-        // Initially in run mode not compile mode
-        compiling = false;
+            }
 
-        // Number base is 10 until changed
-        base = 10;
+            return 0;
 
-        // Seed the random number generator
-        random = new Random();
+        } finally {
+            out.flush();
+        }
     }
 
+    /**
+     * With no arguments the interpreter is interactive. Otherwise the files
+     * named are run as a batch and the exit code tells whether they ran
+     * without error. The -b option alone runs standard input as a batch.
+     */
     public static void main(String[] args) {
+
         JForth forth = new JForth();
-        forth.outerInterpreter();
+
+        if (args.length == 0) {
+            forth.outerInterpreter();
+            return;
+        }
+
+        ArrayList<String> files = new ArrayList<String>();
+
+        for (String arg : args) {
+
+            if (!arg.equals("-b")) {
+                files.add(arg);
+            }
+        }
+
+        System.exit(forth.runBatch(files.toArray(new String[files.size()])));
     }
 
     // Helper methods
@@ -1689,84 +2943,115 @@ public class JForth {
     private String getNextToken() {
 
         // Attempt to retrieve the next token from the input
-        try {
-            if (st.nextToken() != StreamTokenizer.TT_EOF)
-                return st.sval;
-            else
-                return null;
-        } catch (IOException ioe) {
-            ioe.printStackTrace();
+        if (scanner.next() != SourceScanner.EOF)
+            return scanner.token();
+        else
             return null;
+    }
+
+    /**
+     * Add a word to the definition being compiled. A constant is added as
+     * the literal it stands for. A foldable primitive whose arguments are all
+     * literals is run now and its arguments replaced by the literal result.
+     *
+     * @param bw is the word to compile
+     */
+    private void compileWord(BaseWord bw) {
+
+        if (bw instanceof NonPrimitiveWord) {
+            ExecuteIF value = ((NonPrimitiveWord) bw).getConstantValue();
+
+            if (value != null) {
+                wordBeingDefined.addWord(value);
+                return;
+            }
+        }
+
+        if (!bw.isPrimitive || !fold(bw)) {
+            wordBeingDefined.addWord(bw);
         }
     }
 
-    private Integer parseNumber(String word) {
+    // Fold a primitive with literal arguments. Returns false if it can't be folded.
+    private boolean fold(BaseWord bw) {
 
-        // Attempt to convert word to a number using the current base
-        boolean isNumber = false;
-        int number = 0;
-        try {
-            number = Integer.parseInt(word, base);
-            isNumber = true;
+        Integer arity = FOLDABLE.get(bw.name);
 
-        } catch (NumberFormatException nfe) {
-            // NOP
+        if ((arity == null) || (wordBeingDefined.trailingLiterals() < arity)) {
+            return false;
         }
 
-        if (isNumber) {
-            return new Integer(number);
+        int size = wordBeingDefined.size();
 
-        } else {
-            return null;
+        foldStack.clear();
+
+        for (int i = size - arity; i < size; i++) {
+            foldStack.pushInt(((NumericLiteral) wordBeingDefined.getWord(i)).getNumber());
+        }
+
+        // Leave division by zero to run time
+        if ((bw.name.equals("/") || bw.name.equals("mod")) && (foldStack.peekInt() == 0)) {
+            return false;
+        }
+
+        if ((bw.execute(foldStack, foldStack) == 0) || (foldStack.size() != 1)) {
+            return false;
         }
+
+        wordBeingDefined.replaceTail(arity, new NumericLiteral(foldStack.popInt()));
+
+        return true;
     }
 
     private boolean interpretLine(String text) {
 
-        try {
-            // Create a tokenizer to look at each word individually
-            StringReader sr = new StringReader(text);
-            st = new StreamTokenizer(sr);
+        // Scan the line to look at each word individually
+        scanner.reset(text);
 
-            // Configure the tokenizer carefully
-            st.resetSyntax();
-            st.wordChars('!', 'z');
-            st.quoteChar('"');
-            st.whitespaceChars('\u0000', '\u0020');
+        return interpret();
+    }
+
+    // Interpret the source the scanner has been given, stopping at the first error
+    private boolean interpret() {
+
+        try {
+            SourceScanner sc = scanner;
 
             // Parse first token
-            int tokenType = st.nextToken();
+            int tokenType = sc.next();
 
             // For each word typed in do ...
-            while (tokenType != StreamTokenizer.TT_EOF) {
-
-                // Get a word to examine
-                String word = st.sval;
+            while (tokenType != SourceScanner.EOF) {
 
                 // Which mode are we in ?
                 if (!compiling) {
 
                     // In interactive mode
-                    if (tokenType == '"') {
+                    if (tokenType == SourceScanner.STRING) {
 
                         // We have a string constant
-                        dStack.push(word);
-                        tokenType = st.nextToken();
+                        dStack.push(sc.token());
+                        tokenType = sc.next();
 
                         continue;
                     }
 
                     // Word was not a string constant
                     // Attempt to look up the specified word in the dictionary
-                    BaseWord bw = dictionary.search(word);
+                    BaseWord bw = dictionary.search(sc.buffer(), sc.start(), sc.length());
 
                     if (bw != null) {
 
+                        if (definitionsOnly) {
+                            noteExecution(bw);
+                        }
+
                         // Found the word, execute it
                         if (bw.execute(dStack, vStack) == 0) {
 
                             // An error occurred in its execution
-                            System.out.println(word + " - word execution or stack error");
+                            out.println(bw.name + " - word execution or stack error");
+                            compiling = false;
 
                             return false;
                         }
@@ -1774,16 +3059,16 @@ public class JForth {
                     } else {
 
                         // Word was not found. See if it is a number.
-                        Integer num = parseNumber(word);
+                        long num = NumberParser.parse(sc.buffer(), sc.start(), sc.length(), base);
 
-                        if (num != null) {
+                        if (num != NumberParser.NOT_A_NUMBER) {
                             // Yes it was a number. Push it onto the stack
-                            dStack.push(num);
+                            dStack.pushInt((int) num);
 
                         } else {
                             // If word was not a string constant, a word or a
                             // number it must be an error
-                            System.out.println(word + " ?");
+                            out.println(sc.token() + " ?");
 
                             return false;
                         }
@@ -1792,44 +3077,52 @@ public class JForth {
                 } else {
                     // In compile mode
 
-                    if (tokenType == '"') {
+                    if (tokenType == SourceScanner.STRING) {
 
                         // We have a string constant
-                        wordBeingDefined.addWord(new StringLiteral(word));
-                        tokenType = st.nextToken();
+                        wordBeingDefined.addWord(new StringLiteral(sc.token()));
+                        tokenType = sc.next();
 
                         continue;
                     }
 
                     // Word was not a string constant.
                     // Attempt to look up the specified word in the dictionary
-                    BaseWord bw = dictionary.search(word);
+                    BaseWord bw = dictionary.search(sc.buffer(), sc.start(), sc.length());
 
                     if (bw != null) {
 
                         // Found the word
                         if (bw.immediate) {
+
                             // Word was immediate, execute it now
-                            bw.execute(dStack, vStack);
+                            if (bw.execute(dStack, vStack) == 0) {
+
+                                // An error occurred in its execution. The definition is dropped.
+                                out.println(bw.name + " - word execution or stack error");
+                                compiling = false;
+
+                                return false;
+                            }
 
                         } else {
                             // Word wasn't immediate, add it to the word being defined.
-                            wordBeingDefined.addWord(bw);
+                            compileWord(bw);
                         }
 
                     } else {
 
                         // Word was not found. See if it is a number.
-                        Integer num = parseNumber(word);
+                        long num = NumberParser.parse(sc.buffer(), sc.start(), sc.length(), base);
 
-                        if (num != null) {
+                        if (num != NumberParser.NOT_A_NUMBER) {
                             // Yes it was a number. Add it as literal
-                            wordBeingDefined.addWord(new NumericLiteral(num));
+                            wordBeingDefined.addWord(new NumericLiteral((int) num));
 
                         } else {
 
                             // If word was not a string constant, a word or a number it must be an error
-                            System.out.println(word + " ?");
+                            out.println(sc.token() + " ?");
                             compiling = false;
 
                             return false;
@@ -1837,17 +3130,93 @@ public class JForth {
                     }
                 }
 
-                tokenType = st.nextToken();
+                tokenType = sc.next();
             }
 
             return true;
 
+        } catch (StackException se) {
+            // Stack overflow or underflow detected by the stack itself
+            out.println(se.getMessage());
+            compiling = false;
+
+            return false;
+
         } catch (Exception e) {
             e.printStackTrace();
             return false;
         }
     }
 
+    // A file can only be cached if all it does is define words. Note whether
+    // a word run while loading keeps it that way.
+    private void noteExecution(BaseWord bw) {
+
+        String name = bw.name;
+
+        if (!bw.isPrimitive) {
+            definitionsOnly = false;
+
+        } else if (name.equals("constant") || name.equals("array")) {
+
+            // Must not use anything on the stack from before the load
+            if (dStack.size() <= loadDepth) {
+                definitionsOnly = false;
+            }
+
+        } else if (!(name.equals(":") || name.equals("variable") || name.equals("("))) {
+            definitionsOnly = false;
+        }
+    }
+
+    // Source which ends inside a definition is an error, as the definition
+    // would be dropped without a word
+    private boolean definitionEnded() {
+
+        if (!compiling) {
+            return true;
+        }
+
+        out.println(wordBeingDefined.name + " - definition from line " + definitionLine + " not ended");
+        compiling = false;
+
+        return false;
+    }
+
+    // Interpret all of standard input as if it were a file being loaded
+    private boolean standardInputLoad() {
+
+        try {
+            Reader in = new InputStreamReader(System.in);
+            char[] text = new char[8192];
+            int count = 0;
+            int n;
+
+            while ((n = in.read(text, count, text.length - count)) != -1) {
+                count += n;
+
+                if (count == text.length) {
+                    char[] larger = new char[text.length << 1];
+                    System.arraycopy(text, 0, larger, 0, count);
+                    text = larger;
+                }
+            }
+
+            scanner.reset(text, 0, count);
+
+            if (!interpret() || !definitionEnded()) {
+                out.println("Input error at line " + scanner.line());
+                return false;
+            }
+
+            return true;
+
+        } catch (IOException ioe) {
+            out.println("Input error - " + ioe.getMessage());
+            return false;
+        }
+    }
+
     private int fileLoad(String fileName) {
 
         // See if the specified file exists
@@ -1855,33 +3224,67 @@ public class JForth {
 
         if (!f.exists()) {
             // File not found
-            System.out.println("File: \"" + fileName + "\" not found");
+            out.println("File: \"" + fileName + "\" not found");
             return 0;
         }
 
         // If we get here, a file does exist
-        BufferedReader file = null;
+        FileInputStream file = null;
+
+        // The file gets its own scanner so the rest of the line doing the load is kept
+        SourceScanner outer = scanner;
+        scanner = new SourceScanner();
+
+        boolean outerDefinitionsOnly = definitionsOnly;
+        int outerLoadDepth = loadDepth;
 
         try {
-            // Attempt to open the specified file
-            FileReader fr = new FileReader(fileName);
+            // Map the file and decode it in one go
+            file = new FileInputStream(f);
+            FileChannel channel = file.getChannel();
+            MappedByteBuffer bytes = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+            // Replay the words cached for this file and dictionary if there are any
+            List<BaseWord> defined = null;
+            String key = null;
+
+            if (loadCache != null) {
+                defined = definedWords();
+                key = loadCache.key(bytes, defined, base);
 
-            // Wrap in buffer so readline can be used
-            file = new BufferedReader(fr);
+                List<BaseWord> cached = loadCache.lookup(key, PRIMITIVES, defined);
 
-            // Read first line of the text
-            String text = file.readLine();
+                if (cached != null) {
 
-            // Interpret each line of the text
-            while (text != null) {
+                    for (BaseWord bw : cached) {
+                        dictionary.add(bw);
+                    }
 
-                // Attempt to interpret the text input
-                if (!interpretLine(text)) {
-                    return 0;
+                    return 1;
                 }
+            }
+
+            CharBuffer text = Charset.defaultCharset().newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE)
+                    .decode(bytes);
 
-                // Read next line of the text
-                text = file.readLine();
+            // Interpret the whole file, tokenizing across lines
+            scanner.reset(text.array(), text.arrayOffset() + text.position(), text.remaining());
+
+            definitionsOnly = (key != null);
+            loadDepth = dStack.size();
+
+            if (!interpret() || !definitionEnded()) {
+                out.println("File: \"" + fileName + "\" error at line " + scanner.line());
+                return 0;
+            }
+
+            // Cache what the file defined if that is all it did
+            if (definitionsOnly && !compiling && (dStack.size() == loadDepth)) {
+                List<BaseWord> words = definedWords();
+
+                loadCache.store(key, defined, words.subList(defined.size(), words.size()));
             }
 
             return 1;
@@ -1892,6 +3295,10 @@ public class JForth {
 
         } finally {
 
+            scanner = outer;
+            definitionsOnly = outerDefinitionsOnly;
+            loadDepth = outerLoadDepth;
+
             try {
                 file.close();
 
@@ -1904,28 +3311,35 @@ public class JForth {
     private void outerInterpreter() {
 
         // Clear the data stack
-        dStack.removeAllElements();
+        dStack.clear();
 
         // Wrap in stream so readline can be used
         InputStreamReader isr = new InputStreamReader(System.in);
         BufferedReader term = new BufferedReader(isr);
 
-        // Do forever
+        // Do until the input ends
         while (true) {
 
-            System.out.print(PROMPT);
+            out.print(PROMPT);
+            out.flush();
 
             try {
                 // Read a line of input
                 String input = term.readLine();
 
+                if (input == null) {
+                    out.println();
+                    break;
+                }
+
                 // Attempt to interpret the line input
                 if (!interpretLine(input)) {
-                    // An error occurred. Clear the data stack
-                    dStack.removeAllElements();
+                    // An error occurred. Clear the data stack and any loops left running
+                    dStack.clear();
+                    vStack.loops().clear();
 
                 } else {
-                    System.out.println(OK);
+                    out.println(OK);
                 }
 
             } catch (Exception e) {
@@ -0,0 +1,83 @@
+package com.jforth;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * JForth Core Class
+ * <p/>
+ * The part of the interpreter shared by its sessions: the primitives and a
+ * library of words frozen on top of them. A core never changes once it is
+ * made, so any number of sessions, on any number of threads, can run on
+ * one. A session (a JForth) only adds its stacks, its compile state, its
+ * number base and the words it defines itself.
+ * <p/>
+ * A core with a library is made by freezing a session, usually one which
+ * has just loaded the library. Frozen definitions are shared as they are.
+ * Frozen variables and arrays are copy on write: each session sees the
+ * values they were frozen with until it stores into them, after which it
+ * sees its own copy and no other session sees its changes.
+ */
+public final class JForthCore {
+
+    private static final JForthCore STANDARD =
+            new JForthCore(JForth.primitives(), Collections.<BaseWord>emptyList());
+
+    // Class data
+    private final List<BaseWord> library;
+    private final WordsList dictionary = new WordsList();
+
+    private JForthCore(BaseWord[] primitives, List<BaseWord> library) {
+
+        this.library = Collections.unmodifiableList(new ArrayList<BaseWord>(library));
+
+        for (BaseWord bw : primitives) {
+            dictionary.add(bw);
+        }
+
+        for (BaseWord bw : library) {
+            dictionary.add(bw);
+        }
+    }
+
+    // The core with the primitives and no library
+    public static JForthCore standard() {
+        return STANDARD;
+    }
+
+    /**
+     * Make a core whose library is this one's followed by more words. The
+     * words are frozen and must not be changed from then on.
+     *
+     * @param words are the words to add to the library, in definition order
+     * @return the new core
+     */
+    JForthCore extend(List<BaseWord> words) {
+
+        for (BaseWord bw : words) {
+
+            if (bw instanceof NonPrimitiveWord) {
+                ((NonPrimitiveWord) bw).freeze();
+
+            } else if (bw instanceof StorageWord) {
+                ((StorageWord) bw).freeze();
+            }
+        }
+
+        ArrayList<BaseWord> all = new ArrayList<BaseWord>(library);
+        all.addAll(words);
+
+        return new JForthCore(JForth.primitives(), all);
+    }
+
+    // Library words in definition order
+    public List<BaseWord> getLibrary() {
+        return library;
+    }
+
+    // Dictionary of the primitives and the library, the parent of each session's dictionary
+    WordsList getDictionary() {
+        return dictionary;
+    }
+}
@@ -0,0 +1,142 @@
+package com.jforth;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * JForth Pool Class
+ * <p/>
+ * A bounded pool of sessions for serving requests. Sessions are forks of a
+ * baseline session which has already loaded whatever the requests need, so
+ * handing one out costs no loading or compiling. A session given back is
+ * reset to the baseline: its stacks are cleared, words it defined are
+ * forgotten and variables get back their baseline contents.
+ * <p/>
+ * At most maxSize sessions are lent out at once. Borrowing waits up to a
+ * timeout for one to come back and gives up with null after that. A borrow
+ * served by an idle session counts as a hit and one needing a new fork as a
+ * miss.
+ * <p/>
+ * The baseline belongs to the pool once the pool is made and must not be
+ * used elsewhere.
+ */
+public final class JForthPool {
+
+    // Class data
+    private final JForth baseline;
+    private final Semaphore permits;
+    private final ConcurrentLinkedQueue<JForth> idle = new ConcurrentLinkedQueue<JForth>();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+
+    /**
+     * Make a pool.
+     *
+     * @param baseline is the session the pooled sessions are forked from
+     * @param initial  is the number of sessions to make up front
+     * @param maxSize  is the most sessions lent out at once
+     */
+    public JForthPool(JForth baseline, int initial, int maxSize) {
+
+        if ((maxSize < 1) || (initial < 0) || (initial > maxSize)) {
+            throw new IllegalArgumentException("Bad pool size " + initial + "/" + maxSize);
+        }
+
+        this.baseline = baseline;
+        permits = new Semaphore(maxSize, true);
+
+        for (int i = 0; i < initial; i++) {
+            idle.add(newSession());
+        }
+    }
+
+    /**
+     * Borrow a session.
+     *
+     * @param timeout is how long to wait for a session if all are lent out
+     * @param unit    is the unit of timeout
+     * @return a session at the baseline, or null if none came back in time
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public JForth borrow(long timeout, TimeUnit unit) throws InterruptedException {
+
+        if (!permits.tryAcquire(timeout, unit)) {
+            timeouts.incrementAndGet();
+            return null;
+        }
+
+        JForth session = idle.poll();
+
+        if (session != null) {
+            hits.incrementAndGet();
+            return session;
+        }
+
+        misses.incrementAndGet();
+
+        try {
+            return newSession();
+
+        } catch (RuntimeException re) {
+            permits.release();
+            throw re;
+        }
+    }
+
+    /**
+     * Give back a borrowed session. It is reset to the baseline and may be
+     * lent out again straight away, so it must not be used after this.
+     *
+     * @param session is the session borrowed
+     */
+    public void release(JForth session) {
+
+        try {
+            session.reset();
+            idle.add(session);
+
+        } finally {
+            permits.release();
+        }
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getTimeouts() {
+        return timeouts.get();
+    }
+
+    // Number of sessions waiting to be borrowed
+    public int getIdle() {
+        return idle.size();
+    }
+
+    public String toString() {
+        return "Pool hits: " + hits.get() + ", misses: " + misses.get() + ", timeouts: " + timeouts.get()
+                + ", idle: " + idle.size();
+    }
+
+    // Fork a session from the baseline and record its starting state
+    private JForth newSession() {
+
+        JForth session;
+
+        // Forking records state in the baseline
+        synchronized (baseline) {
+            session = baseline.fork();
+        }
+
+        session.mark();
+
+        return session;
+    }
+}
@@ -17,14 +17,14 @@ public final class LeaveLoopControlWord extends BaseWord {
 
     public int execute(OStack dStack, OStack vStack) {
 
-        if (vStack.size() < 2) {
+        LoopStack loops = vStack.loops();
+
+        if (loops.empty()) {
             return 0;
         }
 
         // When leave is executed it makes index equal to the limit
-        vStack.pop();                 // Pop index
-        Object o2 = vStack.peek();    // Peek at limit
-        vStack.push(o2);              // Push new index == limit
+        loops.leave();
 
         return 1;
     }
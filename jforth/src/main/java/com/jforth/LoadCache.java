@@ -0,0 +1,196 @@
+package com.jforth;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+
+/**
+ * Load Cache Class
+ * <p/>
+ * On disk cache of the words defined by loading source files. An entry is
+ * keyed by the SHA-256 of the file's content together with the state the
+ * file was compiled against: the number base and the shape of the words
+ * already defined. Loading an unchanged file on top of the same dictionary
+ * then adds the cached words instead of interpreting the source.
+ * <p/>
+ * The shape of a word is what compiling a reference to it depends on: its
+ * kind, name and flags, and the value of a constant, which is compiled in.
+ * Other bodies are left out. Cached words refer to the words they use, not
+ * to copies of their bodies, and taking the key doesn't decode the words of
+ * an image read lazily.
+ * <p/>
+ * Entries are images written with DictionaryImage against the words already
+ * defined. They are written to a temporary file and renamed into place, so
+ * interpreters sharing a cache directory never see a partial entry. Any
+ * problem reading or writing the cache just means the file is interpreted.
+ */
+public final class LoadCache {
+
+    private static final String SUFFIX = ".jfc";
+
+    // Class data
+    private final File directory;
+
+    public LoadCache(File directory) {
+        this.directory = directory;
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Work out the cache key of a file.
+     *
+     * @param content    is the content of the file
+     * @param dictionary are the words defined before the file is loaded
+     * @param base       is the current number base
+     * @return the key as a hex string
+     * @throws IOException if the dictionary can't be digested
+     */
+    public String key(ByteBuffer content, List<BaseWord> dictionary, int base) throws IOException {
+
+        MessageDigest md = sha256();
+
+        // Digest the shape of each word as it is written
+        DataOutputStream shape = new DataOutputStream(new DigestOutputStream(new OutputStream() {
+            public void write(int b) {
+            }
+
+            public void write(byte[] b, int off, int len) {
+            }
+        }, md));
+
+        shape.writeInt(base);
+
+        for (BaseWord bw : dictionary) {
+            shape.writeBoolean(bw instanceof StorageWord);
+            shape.writeUTF(bw.name);
+            shape.writeBoolean(bw.immediate);
+
+            if (bw instanceof NonPrimitiveWord) {
+                ExecuteIF value = ((NonPrimitiveWord) bw).getConstantValue();
+
+                shape.writeBoolean(value != null);
+
+                if (value instanceof NumericLiteral) {
+                    shape.writeInt(((NumericLiteral) value).getNumber());
+
+                } else if (value instanceof StringLiteral) {
+                    shape.writeUTF(((StringLiteral) value).getString());
+                }
+            }
+        }
+
+        shape.flush();
+
+        md.update(content.duplicate());
+
+        StringBuffer sb = new StringBuffer();
+
+        for (byte b : md.digest()) {
+            sb.append(Character.forDigit((b >> 4) & 0xf, 16));
+            sb.append(Character.forDigit(b & 0xf, 16));
+        }
+
+        return sb.toString();
+    }
+
+    /**
+     * Get the words cached for a key.
+     *
+     * @param key        is the key of the file being loaded
+     * @param primitives are the primitives of the interpreter
+     * @param dictionary are the words defined before the file is loaded
+     * @return the words the file defines or null if they aren't cached
+     */
+    public List<BaseWord> lookup(String key, BaseWord[] primitives, List<BaseWord> dictionary) {
+
+        File entry = new File(directory, key + SUFFIX);
+
+        if (!entry.isFile()) {
+            return null;
+        }
+
+        try {
+            FileInputStream in = new FileInputStream(entry);
+
+            try {
+                FileChannel channel = in.getChannel();
+
+                return DictionaryImage.read(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()),
+                        primitives, dictionary);
+
+            } finally {
+                in.close();
+            }
+
+        } catch (Exception e) {
+            // A damaged entry is ignored and will be replaced
+            return null;
+        }
+    }
+
+    /**
+     * Cache the words a file defined.
+     *
+     * @param key        is the key of the file loaded
+     * @param dictionary are the words defined before the file was loaded
+     * @param words      are the words the file defined
+     */
+    public void store(String key, List<BaseWord> dictionary, List<BaseWord> words) {
+
+        File temp = null;
+
+        try {
+            if (!directory.isDirectory() && !directory.mkdirs()) {
+                return;
+            }
+
+            temp = File.createTempFile(key, ".tmp", directory);
+
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+
+            try {
+                DictionaryImage.write(out, dictionary, words);
+
+            } finally {
+                out.close();
+            }
+
+            if (temp.renameTo(new File(directory, key + SUFFIX))) {
+                temp = null;
+            }
+
+        } catch (IOException ioe) {
+            // Caching is only an optimization
+
+        } finally {
+
+            if (temp != null) {
+                temp.delete();
+            }
+        }
+    }
+
+    private static MessageDigest sha256() {
+
+        try {
+            return MessageDigest.getInstance("SHA-256");
+
+        } catch (NoSuchAlgorithmException nsae) {
+            // Every Java platform is required to have SHA-256
+            throw new IllegalStateException(nsae);
+        }
+    }
+}
@@ -20,44 +20,32 @@ public final class LoopControlWord extends BaseWord {
         this.indexIncrement = indexIncrement;
     }
 
+    // Instruction index increment back to the start of the loop body
+    public int getIndexIncrement() {
+        return indexIncrement;
+    }
+
     public int execute(OStack dStack, OStack vStack) {
 
-        if (vStack.size() < 2) {
+        LoopStack loops = vStack.loops();
+
+        if (loops.empty()) {
             return 0;
         }
 
-        Object o1 = vStack.pop();     // Pop index
-        Object o2 = vStack.peek();    // Peek at limit
-
-        // Index and limit must be integer values
-        if ((o1 instanceof Integer) && (o2 instanceof Integer)) {
-            int index = ((Integer) o1).intValue();
-            int limit = ((Integer) o2).intValue();
-
-            index += 1;
-
-            // Is the loop limit reached ?
-            if (index >= limit) {
+        // Is the loop limit reached ?
+        if (loops.step(1)) {
 
-                // Yes we're done. Pop limit off of variable stack and
-                // return a positive one instruction increment.
-                vStack.pop();
-
-                return 1;
-
-            } else {
-
-                // Loop index has not been reached. Push new index value
-                // and return negative instruction increment to cause
-                // control to return to immediately following the do clause.
-                vStack.push(new Integer(index));
-
-                return indexIncrement;
-            }
+            // Loop index has not been reached. Return negative instruction
+            // increment to cause control to return to immediately following
+            // the do clause.
+            return indexIncrement;
 
         } else {
-            System.out.println("Loop requires 2 numeric stack entries");
-            return 0;
+
+            // Yes we're done. The loop frame has been removed.
+            // Return a positive one instruction increment.
+            return 1;
         }
     }
 }
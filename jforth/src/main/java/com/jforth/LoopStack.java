@@ -0,0 +1,100 @@
+package com.jforth;
+
+/**
+ * Loop Stack Class
+ * <p/>
+ * Frames of the do loops currently running. Each frame is an index and a
+ * limit held in parallel int arrays, so stepping a loop and reading i or j
+ * are plain array reads and writes. The loop stack belongs to the variable
+ * stack but is kept apart from its cells, so >r and r> inside a loop don't
+ * disturb the loop frames.
+ */
+public final class LoopStack {
+
+    public static final int DEFAULT_CAPACITY = 256;
+
+    // Class data
+    private final int[] index;
+    private final int[] limit;
+    private int fp;
+
+    public LoopStack() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public LoopStack(int capacity) {
+
+        index = new int[capacity];
+        limit = new int[capacity];
+        fp = 0;
+    }
+
+    public boolean empty() {
+        return fp == 0;
+    }
+
+    // Number of loops currently running
+    public int size() {
+        return fp;
+    }
+
+    public void clear() {
+        fp = 0;
+    }
+
+    // Start a new innermost loop
+    public void enter(int start, int end) {
+
+        if (fp == index.length) {
+            throw new StackException("Loop stack overflow");
+        }
+
+        index[fp] = start;
+        limit[fp] = end;
+        fp++;
+    }
+
+    // Index of the innermost loop
+    public int index() {
+        return index[fp - 1];
+    }
+
+    // Index of the loop depth levels out from the innermost. Depth 0 is i, 1 is j.
+    public int index(int depth) {
+        return index[fp - 1 - depth];
+    }
+
+    public int limit() {
+        return limit[fp - 1];
+    }
+
+    // Limit of the loop depth levels out from the innermost
+    public int limit(int depth) {
+        return limit[fp - 1 - depth];
+    }
+
+    /**
+     * Add the increment to the innermost index. When the limit is reached
+     * or passed the frame is removed.
+     *
+     * @return true if the loop goes round again, false if it is done
+     */
+    public boolean step(int increment) {
+
+        int f = fp - 1;
+        int i = index[f] + increment;
+
+        if ((increment >= 0) ? (i >= limit[f]) : (i <= limit[f])) {
+            fp = f;
+            return false;
+        }
+
+        index[f] = i;
+        return true;
+    }
+
+    // Make the innermost loop finish at its next step
+    public void leave() {
+        index[fp - 1] = limit[fp - 1];
+    }
+}
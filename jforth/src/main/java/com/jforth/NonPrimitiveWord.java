@@ -1,5 +1,6 @@
 package com.jforth;
 
+import java.io.IOException;
 import java.util.ArrayList;
 
 /**
@@ -8,31 +9,227 @@ import java.util.ArrayList;
  * A non primitive word is one which is made up of primitive words and other
  * non primitive words.
  * <p/>
+ * The definition is run by one of two engines. The threaded code engine
+ * compiles the definition into an opcode array the first time it is
+ * executed. The object engine walks the list of words making up the
+ * definition. The threaded code engine is the default; setting the system
+ * property jforth.engine to "objects" selects the object engine.
+ * <p/>
+ * Once threaded code has run jforth.jit.threshold times (1000 by default)
+ * it is handed to the bytecode compiler and the generated class is used from
+ * then on. A threshold of 0 compiles the word the first time it runs and a
+ * negative threshold disables the bytecode tier. Forgetting or redefining
+ * the word drops both compiled forms and it starts over in the interpreter.
+ * <p/>
+ * A word read lazily from an image starts out with only its name. The
+ * definition is decoded from the image when it is first needed.
+ * <p/>
+ * A word frozen into a core is shared by every session running on the core,
+ * possibly at the same time. Its definition never changes again, so its
+ * compiled forms are never dropped and words inlining it needn't be told.
+ * <p/>
  * Written by: Craig A. Lindley
  * Last Update: 03/03/2008
  */
 public final class NonPrimitiveWord extends BaseWord {
 
+    private static boolean threadedCode = !"objects".equals(System.getProperty("jforth.engine"));
+    private static int jitThreshold = Integer.getInteger("jforth.jit.threshold", 1000);
+    private static int inlineThreshold = Integer.getInteger("jforth.inline.threshold", 8);
+
     // Class data
     private ArrayList<ExecuteIF> words = new ArrayList<ExecuteIF>();
+    private volatile ThreadedCode code = null;
+    private boolean compilable = true;
+    private volatile ExecuteIF compiled = null;
+    private int invocations = 0;
+    private boolean constant = false;
+    private int fence = 0;
+    private ArrayList<NonPrimitiveWord> dependents = null;
+    private volatile DictionaryImage.Body body = null;
+    private boolean frozen = false;
 
     public NonPrimitiveWord(String name) {
         super(name, false, false);
     }
 
+    // Select the threaded code engine (true) or the object engine (false)
+    public static void setThreadedCode(boolean threaded) {
+        threadedCode = threaded;
+    }
+
+    public static boolean isThreadedCode() {
+        return threadedCode;
+    }
+
+    // Number of threaded code runs before bytecode compilation. Negative disables it.
+    public static void setJitThreshold(int threshold) {
+        jitThreshold = threshold;
+    }
+
+    public static int getJitThreshold() {
+        return jitThreshold;
+    }
+
+    // Largest definition inlined into its callers. 0 disables inlining.
+    public static void setInlineThreshold(int threshold) {
+        inlineThreshold = threshold;
+    }
+
+    public static int getInlineThreshold() {
+        return inlineThreshold;
+    }
+
+    // Leave the definition in an image until it is first needed
+    void setBody(DictionaryImage.Body body) {
+        this.body = body;
+    }
+
+    /**
+     * Decode the definition from its image if that hasn't been done yet.
+     *
+     * @param out is where to report a damaged image, or null to leave that
+     *            to the next execution of the word
+     * @return false if the image was damaged
+     */
+    private boolean materialize(OutputSink out) {
+
+        synchronized (this) {
+            DictionaryImage.Body b = body;
+
+            if (b != null) {
+                try {
+                    b.fill(this);
+                    body = null;
+
+                } catch (IOException ioe) {
+                    // Left undecoded, so each use reports the error
+                    words.clear();
+
+                    if (out != null) {
+                        out.println("Image error - " + ioe.getMessage());
+                    }
+
+                    return false;
+                }
+            }
+        }
+
+        return true;
+    }
+
     // Add a primitive or non-primitive word to this word's definition
     public void addWord(ExecuteIF eif) {
+
         words.add(eif);
+
+        // Any compiled form is now out of date
+        invalidate();
     }
 
     // Return what will be the index into the words array of the next entry.
+    // Control words use this to record branch targets, so words already in
+    // the definition can no longer be folded away.
     public int getNextWordIndex() {
+
+        fence = words.size();
+
         return words.size() + 1;
     }
 
+    // Number of numeric literals ending the definition which may be folded
+    public int trailingLiterals() {
+
+        int count = 0;
+
+        for (int i = words.size() - 1; (i >= fence) && (words.get(i) instanceof NumericLiteral); i--) {
+            count++;
+        }
+
+        return count;
+    }
+
+    // Replace the last count words of the definition by a single word
+    public void replaceTail(int count, ExecuteIF eif) {
+
+        for (int i = 0; i < count; i++) {
+            words.remove(words.size() - 1);
+        }
+
+        addWord(eif);
+    }
+
+    // Mark this word as a constant. Its definition is the single literal it stands for.
+    public void setConstant() {
+        constant = true;
+    }
+
+    // The literal a constant stands for, or null if this word isn't a constant
+    public ExecuteIF getConstantValue() {
+
+        if (!constant) {
+            return null;
+        }
+
+        if (body != null) {
+            materialize(null);
+        }
+
+        return words.isEmpty() ? null : words.get(0);
+    }
+
+    // Number of words making up the definition
+    public int size() {
+
+        if (body != null) {
+            materialize(null);
+        }
+
+        return words.size();
+    }
+
+    public ExecuteIF getWord(int index) {
+
+        if (body != null) {
+            materialize(null);
+        }
+
+        return words.get(index);
+    }
+
     // Execution of a non primitive means executing each word that makes up its definition.
     public int execute(OStack dStack, OStack vStack) {
 
+        if ((body != null) && !materialize(dStack.out())) {
+            return 0;
+        }
+
+        if (threadedCode) {
+            ExecuteIF jit = compiled;
+
+            if (jit != null) {
+                return jit.execute(dStack, vStack);
+            }
+
+            ThreadedCode tc = compile();
+
+            if (tc != null) {
+
+                // Compiled once threaded code has run threshold times, so a
+                // threshold of 0 compiles on the first call
+                if ((jitThreshold >= 0) && (invocations++ == jitThreshold)) {
+                    jit = BytecodeCompiler.compile(name, tc, dStack.out());
+                    compiled = jit;
+
+                    if (jit != null) {
+                        return jit.execute(dStack, vStack);
+                    }
+                }
+
+                return tc.execute(dStack, vStack);
+            }
+        }
+
         int index = 0;
         int size = words.size();
 
@@ -54,6 +251,81 @@ public final class NonPrimitiveWord extends BaseWord {
         return 1;
     }
 
+    // Threaded code for a task to run the definition as part of its
+    // continuation, or null if the word can only be executed
+    ThreadedCode taskCode() {
+
+        if ((body != null) && !materialize(null)) {
+            return null;
+        }
+
+        return compile();
+    }
+
+    /**
+     * Build the threaded code for the definition if it hasn't been built yet.
+     * This is done when the definition is finished so the peephole pass runs
+     * once, up front, rather than on first use.
+     *
+     * @return the threaded code or null if the definition can't be compiled
+     */
+    public ThreadedCode compile() {
+
+        ThreadedCode tc = code;
+
+        if ((tc == null) && compilable) {
+            tc = ThreadedCode.compile(this);
+            code = tc;
+            compilable = (tc != null);
+        }
+
+        return tc;
+    }
+
+    // Make the definition permanent so the word can be shared
+    void freeze() {
+        frozen = true;
+    }
+
+    // Record a word whose compiled code has this word's body inlined
+    void addDependent(NonPrimitiveWord npw) {
+
+        if (frozen) {
+            return;
+        }
+
+        if (dependents == null) {
+            dependents = new ArrayList<NonPrimitiveWord>();
+        }
+
+        if (!dependents.contains(npw)) {
+            dependents.add(npw);
+        }
+    }
+
+    // Drop compiled forms, along with those of the words this one is inlined
+    // into. The next execution starts over with threaded code.
+    public void invalidate() {
+
+        if (frozen) {
+            return;
+        }
+
+        code = null;
+        compiled = null;
+        compilable = true;
+        invocations = 0;
+
+        ArrayList<NonPrimitiveWord> callers = dependents;
+        dependents = null;
+
+        if (callers != null) {
+            for (NonPrimitiveWord npw : callers) {
+                npw.invalidate();
+            }
+        }
+    }
+
     public void setImmediate() {
         immediate = true;
     }
@@ -0,0 +1,118 @@
+package com.jforth;
+
+/**
+ * Number Parser Class
+ * <p/>
+ * Recognizes numeric literals in the current base in a single pass over the
+ * characters of a token. Anything that isn't a number is reported by return
+ * value, never by exception, since most tokens tried are misspelled words or
+ * words not yet defined.
+ * <p/>
+ * A leading - or + is taken as the sign. The accepted range is that of an
+ * int, the same as Integer.parseInt.
+ * <p/>
+ * Integers boxed by the interpreter go through valueOf, which shares the
+ * boxes of small values instead of making new ones.
+ */
+public final class NumberParser {
+
+    // Returned by parse for anything that isn't a number
+    public static final long NOT_A_NUMBER = Long.MIN_VALUE;
+
+    private static final int CACHE_LOW = -1024;
+    private static final int CACHE_HIGH = 1023;
+    private static final Integer[] CACHE = new Integer[CACHE_HIGH - CACHE_LOW + 1];
+
+    static {
+        for (int i = 0; i < CACHE.length; i++) {
+            CACHE[i] = Integer.valueOf(i + CACHE_LOW);
+        }
+    }
+
+    private NumberParser() {
+    }
+
+    /**
+     * Parse a number held in part of a char array.
+     *
+     * @param chars  holds the token
+     * @param offset is the index of the first character of the token
+     * @param length is the number of characters in the token
+     * @param radix  is the base, 2 to 36
+     * @return the number or NOT_A_NUMBER
+     */
+    public static long parse(char[] chars, int offset, int length, int radix) {
+
+        int i = offset;
+        int end = offset + length;
+
+        if (length == 0) {
+            return NOT_A_NUMBER;
+        }
+
+        boolean negative = false;
+        char first = chars[i];
+
+        if ((first == '-') || (first == '+')) {
+            negative = (first == '-');
+
+            if (++i == end) {
+                return NOT_A_NUMBER;
+            }
+        }
+
+        long value = 0;
+
+        for (; i < end; i++) {
+            int d = digit(chars[i], radix);
+
+            if (d < 0) {
+                return NOT_A_NUMBER;
+            }
+
+            value = value * radix + d;
+
+            // One more than Integer.MAX_VALUE is allowed for Integer.MIN_VALUE
+            if (value > 0x80000000L) {
+                return NOT_A_NUMBER;
+            }
+        }
+
+        if (negative) {
+            return -value;
+        }
+
+        return (value > Integer.MAX_VALUE) ? NOT_A_NUMBER : value;
+    }
+
+    // Box an int, sharing the boxes of small values
+    public static Integer valueOf(int n) {
+
+        if ((n >= CACHE_LOW) && (n <= CACHE_HIGH)) {
+            return CACHE[n - CACHE_LOW];
+        }
+
+        return Integer.valueOf(n);
+    }
+
+    // Value of a digit in the given radix or -1 if it isn't one
+    private static int digit(char c, int radix) {
+
+        int d;
+
+        if ((c >= '0') && (c <= '9')) {
+            d = c - '0';
+
+        } else if ((c >= 'a') && (c <= 'z')) {
+            d = c - 'a' + 10;
+
+        } else if ((c >= 'A') && (c <= 'Z')) {
+            d = c - 'A' + 10;
+
+        } else {
+            return -1;
+        }
+
+        return (d < radix) ? d : -1;
+    }
+}
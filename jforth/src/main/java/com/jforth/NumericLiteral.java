@@ -12,17 +12,21 @@ package com.jforth;
 public final class NumericLiteral extends BaseWord {
 
     // Class data
-    private Integer number;
+    private int number;
 
-    public NumericLiteral(Integer number) {
+    public NumericLiteral(int number) {
         super("", false, false);
 
         this.number = number;
     }
 
+    public int getNumber() {
+        return number;
+    }
+
     public int execute(OStack dStack, OStack vStack) {
 
-        dStack.push(number);
+        dStack.pushInt(number);
 
         // Return a positive one index increment
         return 1;
@@ -1,16 +1,296 @@
 package com.jforth;
 
-import java.util.Stack;
-
 /**
- * This class was created to override the generic behavior of the Stack class.
- * I had to create this class to prevent warnings when I used Stack directly.
- * OStack stands for Object Stack because Objects are what are stored there.
- * Integers, Strings or BaseWords are the only objects permitted.
+ * Cell stack used for both the data and the variable stack.
+ * <p/>
+ * Integers are kept unboxed in a preallocated int array. Strings and
+ * BaseWords, which are rare, are kept in a parallel reference array; a null
+ * reference marks a numeric cell. Integers, Strings or BaseWords are the only
+ * objects permitted.
+ * <p/>
+ * The stack never grows. Pushing onto a full stack or popping an empty one
+ * throws a StackException which the outer interpreter reports.
+ * <p/>
+ * Each stack also carries a loop stack. Only the one of the variable stack
+ * is used, to hold the frames of running do loops.
+ * <p/>
+ * The stacks of an interpreter also refer back to its session. Primitives
+ * are shared by every session and given only the stacks, so this is how they
+ * reach the state of the session running them, including where it prints.
  * <p/>
  * Written by: Craig A. Lindley
  * Last Update: 03/03/2008
  */
-public class OStack extends Stack<Object> {
+public class OStack {
+
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    // Stands in for a pushed null so that null can still mean "numeric cell"
+    private static final Object NULL_REF = new Object();
+
+    // Class data
+    private final int[] cells;
+    private final Object[] refs;
+    private int sp;
+    private LoopStack loopStack = null;
+    private JForth session = null;
+    private OutputSink output = null;
+    private PicturedNumber picture = null;
+    private int base = 0;
+
+    public OStack() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public OStack(int capacity) {
+
+        cells = new int[capacity];
+        refs = new Object[capacity];
+        sp = 0;
+    }
+
+    public int size() {
+        return sp;
+    }
+
+    public boolean empty() {
+        return sp == 0;
+    }
+
+    public int capacity() {
+        return cells.length;
+    }
+
+    // Frames of the do loops running against this stack
+    public LoopStack loops() {
+
+        LoopStack ls = loopStack;
+
+        // Made on first use as only the variable stack runs loops
+        if (ls == null) {
+            ls = new LoopStack();
+            loopStack = ls;
+        }
+
+        return ls;
+    }
+
+    // The interpreter session this stack belongs to, or null for a scratch stack
+    public JForth getSession() {
+        return session;
+    }
+
+    public void setSession(JForth session) {
+        this.session = session;
+    }
+
+    // Where words running against this stack print to
+    public OutputSink out() {
+
+        if (output != null) {
+            return output;
+        }
+
+        return (session != null) ? session.getOutput() : OutputSink.console();
+    }
+
+    // Print somewhere other than the session, or null to print to the session
+    public void setOutput(OutputSink output) {
+        this.output = output;
+    }
+
+    // Hold buffer for pictured numbers, or null to use the session's
+    public PicturedNumber getPicture() {
+        return picture;
+    }
+
+    public void setPicture(PicturedNumber picture) {
+        this.picture = picture;
+    }
+
+    // Number base, or 0 to use the session's
+    public int getBase() {
+        return base;
+    }
+
+    public void setBase(int base) {
+        this.base = base;
+    }
+
+    // Remove all entries, releasing any references held
+    public void clear() {
+
+        for (int i = 0; i < sp; i++) {
+            refs[i] = null;
+        }
+
+        sp = 0;
+    }
+
+    // Is the top of stack a number
+    public boolean isInt() {
+        return isInt(0);
+    }
+
+    // Is the entry depth cells below the top a number. Depth 0 is the top.
+    public boolean isInt(int depth) {
+
+        int index = sp - 1 - depth;
+
+        return (index >= 0) && (refs[index] == null);
+    }
+
+    public void pushInt(int value) {
+
+        if (sp == cells.length) {
+            throw new StackException("Stack overflow");
+        }
+
+        cells[sp++] = value;
+    }
+
+    // Callers are expected to have checked isInt() first
+    public int popInt() {
+
+        if (sp == 0) {
+            throw new StackException("Stack underflow");
+        }
+
+        int index = --sp;
+
+        // Only reference cells need clearing
+        if (refs[index] != null) {
+            refs[index] = null;
+        }
+
+        return cells[index];
+    }
+
+    public int peekInt() {
+
+        if (sp == 0) {
+            throw new StackException("Stack underflow");
+        }
+
+        return cells[sp - 1];
+    }
+
+    // Integers are stored unboxed, anything else by reference
+    public void push(Object o) {
+
+        if (o instanceof Integer) {
+            pushInt(((Integer) o).intValue());
+            return;
+        }
+
+        if (sp == cells.length) {
+            throw new StackException("Stack overflow");
+        }
+
+        refs[sp++] = (o == null) ? NULL_REF : o;
+    }
+
+    public Object pop() {
+
+        Object o = peek();
+
+        refs[--sp] = null;
+
+        return o;
+    }
+
+    public Object peek() {
+        return peek(0);
+    }
+
+    // Return the entry depth cells below the top, boxing numeric cells
+    public Object peek(int depth) {
+
+        int index = sp - 1 - depth;
+
+        if (index < 0) {
+            throw new StackException("Stack underflow");
+        }
+
+        Object o = refs[index];
+
+        if (o == null) {
+            return NumberParser.valueOf(cells[index]);
+
+        } else if (o == NULL_REF) {
+            return null;
+        }
+
+        return o;
+    }
+
+    // Cell level stack manipulation. These never box.
+
+    public void dup() {
+        over(0);
+    }
+
+    public void drop() {
+        popInt();
+    }
+
+    public void swap() {
+
+        if (sp < 2) {
+            throw new StackException("Stack underflow");
+        }
+
+        int a = sp - 1;
+        int b = sp - 2;
+
+        int cell = cells[a];
+        cells[a] = cells[b];
+        cells[b] = cell;
+
+        Object ref = refs[a];
+        refs[a] = refs[b];
+        refs[b] = ref;
+    }
+
+    public void over() {
+        over(1);
+    }
+
+    // Push a copy of the entry depth cells below the top
+    public void over(int depth) {
+
+        int index = sp - 1 - depth;
+
+        if (index < 0) {
+            throw new StackException("Stack underflow");
+        }
+
+        if (sp == cells.length) {
+            throw new StackException("Stack overflow");
+        }
+
+        cells[sp] = cells[index];
+        refs[sp] = refs[index];
+        sp++;
+    }
+
+    // ( a b c -- b c a )
+    public void rot() {
+
+        if (sp < 3) {
+            throw new StackException("Stack underflow");
+        }
+
+        int a = sp - 3;
+
+        int cell = cells[a];
+        cells[a] = cells[a + 1];
+        cells[a + 1] = cells[a + 2];
+        cells[a + 2] = cell;
 
+        Object ref = refs[a];
+        refs[a] = refs[a + 1];
+        refs[a + 1] = refs[a + 2];
+        refs[a + 2] = ref;
+    }
 }
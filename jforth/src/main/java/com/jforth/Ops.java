@@ -0,0 +1,395 @@
+package com.jforth;
+
+/**
+ * Ops Class
+ * <p/>
+ * Runtime behavior of the operations compiled code is made of. Both the
+ * threaded code engine and the classes generated by the bytecode compiler
+ * call these, so the two tiers always agree. They are small enough for the
+ * JVM to inline into their callers.
+ * <p/>
+ * Operations returning boolean return false on error. Flag and loop tests
+ * return -1 on error.
+ */
+public final class Ops {
+
+    private Ops() {
+    }
+
+    // Call the word in the given pool slot
+    public static boolean call(OStack dStack, OStack vStack, Object[] pool, int index) {
+        return ((ExecuteIF) pool[index]).execute(dStack, vStack) != 0;
+    }
+
+    // Inlined primitives. Anything but plain numbers goes to the primitive itself.
+
+    public static boolean add(OStack dStack, OStack vStack, Object[] pool, int index) {
+
+        if (dStack.isInt(0) && dStack.isInt(1)) {
+            int n = dStack.popInt();
+            dStack.pushInt(dStack.popInt() + n);
+            return true;
+        }
+
+        return call(dStack, vStack, pool, index);
+    }
+
+    public static boolean sub(OStack dStack, OStack vStack, Object[] pool, int index) {
+
+        if (dStack.isInt(0) && dStack.isInt(1)) {
+            int n = dStack.popInt();
+            dStack.pushInt(dStack.popInt() - n);
+            return true;
+        }
+
+        return call(dStack, vStack, pool, index);
+    }
+
+    public static boolean mul(OStack dStack, OStack vStack, Object[] pool, int index) {
+
+        if (dStack.isInt(0) && dStack.isInt(1)) {
+            int n = dStack.popInt();
+            dStack.pushInt(dStack.popInt() * n);
+            return true;
+        }
+
+        return call(dStack, vStack, pool, index);
+    }
+
+    public static boolean inc(OStack dStack, OStack vStack, Object[] pool, int index) {
+
+        if (dStack.isInt()) {
+            dStack.pushInt(dStack.popInt() + 1);
+            return true;
+        }
+
+        return call(dStack, vStack, pool, index);
+    }
+
+    public static boolean dec(OStack dStack, OStack vStack, Object[] pool, int index) {
+
+        if (dStack.isInt()) {
+            dStack.pushInt(dStack.popInt() - 1);
+            return true;
+        }
+
+        return call(dStack, vStack, pool, index);
+    }
+
+    public static boolean dup(OStack dStack) {
+
+        if (dStack.empty()) {
+            return false;
+        }
+
+        dStack.dup();
+        return true;
+    }
+
+    public static boolean drop(OStack dStack) {
+
+        if (dStack.empty()) {
+            return false;
+        }
+
+        dStack.drop();
+        return true;
+    }
+
+    public static boolean swap(OStack dStack) {
+
+        if (dStack.size() < 2) {
+            return false;
+        }
+
+        dStack.swap();
+        return true;
+    }
+
+    public static boolean over(OStack dStack) {
+
+        if (dStack.size() < 2) {
+            return false;
+        }
+
+        dStack.over();
+        return true;
+    }
+
+    public static boolean lessThan(OStack dStack, OStack vStack, Object[] pool, int index) {
+
+        if (dStack.isInt(0) && dStack.isInt(1)) {
+            int n = dStack.popInt();
+            dStack.pushInt((dStack.popInt() < n) ? JForth.TRUE : JForth.FALSE);
+            return true;
+        }
+
+        return call(dStack, vStack, pool, index);
+    }
+
+    public static boolean equal(OStack dStack, OStack vStack, Object[] pool, int index) {
+
+        if (dStack.isInt(0) && dStack.isInt(1)) {
+            int n = dStack.popInt();
+            dStack.pushInt((dStack.popInt() == n) ? JForth.TRUE : JForth.FALSE);
+            return true;
+        }
+
+        return call(dStack, vStack, pool, index);
+    }
+
+    public static boolean greaterThan(OStack dStack, OStack vStack, Object[] pool, int index) {
+
+        if (dStack.isInt(0) && dStack.isInt(1)) {
+            int n = dStack.popInt();
+            dStack.pushInt((dStack.popInt() > n) ? JForth.TRUE : JForth.FALSE);
+            return true;
+        }
+
+        return call(dStack, vStack, pool, index);
+    }
+
+    public static boolean zeroEqual(OStack dStack, OStack vStack, Object[] pool, int index) {
+
+        if (dStack.isInt()) {
+            dStack.pushInt((dStack.popInt() == 0) ? JForth.TRUE : JForth.FALSE);
+            return true;
+        }
+
+        return call(dStack, vStack, pool, index);
+    }
+
+    public static boolean loopIndex(OStack dStack, OStack vStack) {
+
+        LoopStack loops = vStack.loops();
+
+        if (loops.empty()) {
+            return false;
+        }
+
+        dStack.pushInt(loops.index());
+        return true;
+    }
+
+    // Superinstructions
+
+    public static boolean literalAdd(OStack dStack, OStack vStack, Object[] pool, int n, int index) {
+
+        if (dStack.isInt()) {
+            dStack.pushInt(dStack.popInt() + n);
+            return true;
+        }
+
+        dStack.pushInt(n);
+        return call(dStack, vStack, pool, index);
+    }
+
+    public static boolean literalSub(OStack dStack, OStack vStack, Object[] pool, int n, int index) {
+
+        if (dStack.isInt()) {
+            dStack.pushInt(dStack.popInt() - n);
+            return true;
+        }
+
+        dStack.pushInt(n);
+        return call(dStack, vStack, pool, index);
+    }
+
+    public static boolean literalMul(OStack dStack, OStack vStack, Object[] pool, int n, int index) {
+
+        if (dStack.isInt()) {
+            dStack.pushInt(dStack.popInt() * n);
+            return true;
+        }
+
+        dStack.pushInt(n);
+        return call(dStack, vStack, pool, index);
+    }
+
+    public static boolean literalLessThan(OStack dStack, OStack vStack, Object[] pool, int n, int index) {
+
+        if (dStack.isInt()) {
+            dStack.pushInt((dStack.popInt() < n) ? JForth.TRUE : JForth.FALSE);
+            return true;
+        }
+
+        dStack.pushInt(n);
+        return call(dStack, vStack, pool, index);
+    }
+
+    public static boolean dupMul(OStack dStack, OStack vStack, Object[] pool, int index) {
+
+        if (dStack.isInt()) {
+            int n = dStack.popInt();
+            dStack.pushInt(n * n);
+            return true;
+        }
+
+        return dup(dStack) && call(dStack, vStack, pool, index);
+    }
+
+    // Variable and array access without the trip through the variable stack
+
+    public static boolean variableFetch(OStack dStack, OStack vStack, Object[] pool, int index) {
+
+        dStack.push(((StorageWord) pool[index]).fetch(vStack, 0));
+        return true;
+    }
+
+    public static boolean variableStore(OStack dStack, OStack vStack, Object[] pool, int index) {
+
+        if (dStack.empty()) {
+            return false;
+        }
+
+        ((StorageWord) pool[index]).store(vStack, dStack.pop(), 0);
+        return true;
+    }
+
+    public static boolean arrayFetch(OStack dStack, OStack vStack, Object[] pool, int index) {
+
+        if (dStack.empty()) {
+            return false;
+        }
+
+        if (!dStack.isInt()) {
+            dStack.out().println("Offset number be an integer");
+            return false;
+        }
+
+        int offset = dStack.popInt();
+        dStack.push(((StorageWord) pool[index]).fetch(vStack, offset));
+        return true;
+    }
+
+    public static boolean arrayStore(OStack dStack, OStack vStack, Object[] pool, int index) {
+
+        if (dStack.size() < 2) {
+            return false;
+        }
+
+        if (!dStack.isInt()) {
+            dStack.out().println("Offset number be an integer");
+            return false;
+        }
+
+        int offset = dStack.popInt();
+        ((StorageWord) pool[index]).store(vStack, dStack.pop(), offset);
+        return true;
+    }
+
+    // i <array> @
+    public static boolean indexArrayFetch(OStack dStack, OStack vStack, Object[] pool, int index) {
+
+        LoopStack loops = vStack.loops();
+
+        if (loops.empty()) {
+            return false;
+        }
+
+        dStack.push(((StorageWord) pool[index]).fetch(vStack, loops.index()));
+        return true;
+    }
+
+    // 0= if. Returns 1 when the flag 0= leaves is true, 0 when it is false.
+    public static int zeroEqualFlag(OStack dStack, OStack vStack, Object[] pool, int index) {
+
+        if (dStack.isInt()) {
+            return (dStack.popInt() == 0) ? 1 : 0;
+        }
+
+        return call(dStack, vStack, pool, index) ? ifFlag(dStack) : -1;
+    }
+
+    // Control flow
+
+    // Flag test for if. Returns 1 for true, 0 for false.
+    public static int ifFlag(OStack dStack) {
+
+        if (dStack.empty()) {
+            return -1;
+        }
+
+        if (!dStack.isInt()) {
+            dStack.out().println("if - requires numeric flag on stack");
+            return -1;
+        }
+
+        return (dStack.popInt() == JForth.TRUE) ? 1 : 0;
+    }
+
+    // Flag test for end. Returns 1 for true, 0 for false.
+    public static int endFlag(OStack dStack) {
+
+        if (dStack.empty()) {
+            return -1;
+        }
+
+        if (!dStack.isInt()) {
+            dStack.out().println("EndWord requires numeric stack entry");
+            return -1;
+        }
+
+        return (dStack.popInt() == JForth.TRUE) ? 1 : 0;
+    }
+
+    public static boolean doLoop(OStack dStack, OStack vStack) {
+
+        if (dStack.size() < 2) {
+            return false;
+        }
+
+        if (!dStack.isInt(0) || !dStack.isInt(1)) {
+            dStack.out().println("Do requires 2 numeric stack entries");
+            return false;
+        }
+
+        int start = dStack.popInt();
+        vStack.loops().enter(start, dStack.popInt());
+
+        return true;
+    }
+
+    // Step a loop by one. Returns 1 to go round again, 0 when done.
+    public static int loop(OStack vStack) {
+
+        LoopStack loops = vStack.loops();
+
+        if (loops.empty()) {
+            return -1;
+        }
+
+        return loops.step(1) ? 1 : 0;
+    }
+
+    // Step a loop by the increment on the data stack. Returns 1 to go round again, 0 when done.
+    public static int plusLoop(OStack dStack, OStack vStack) {
+
+        LoopStack loops = vStack.loops();
+
+        if (loops.empty() || dStack.empty()) {
+            return -1;
+        }
+
+        if (!dStack.isInt()) {
+            dStack.out().println("Loop requires 2 numeric stack entries");
+            return -1;
+        }
+
+        return loops.step(dStack.popInt()) ? 1 : 0;
+    }
+
+    public static boolean leave(OStack vStack) {
+
+        LoopStack loops = vStack.loops();
+
+        if (loops.empty()) {
+            return false;
+        }
+
+        // Make the index equal to the limit
+        loops.leave();
+
+        return true;
+    }
+}
@@ -0,0 +1,236 @@
+package com.jforth;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * Output Sink Class
+ * <p/>
+ * Buffers everything an interpreter prints. Characters collect in a buffer,
+ * made on first use and reused for the life of the sink, and are only
+ * encoded and written when a line ends, when the interpreter prompts, when
+ * the flush word is executed or when the buffer fills. Numbers and runs of
+ * spaces are put straight into the buffer without making Strings.
+ * <p/>
+ * A sink writes to a channel or to an output stream, so an embedding program
+ * can send the output to a file, to a ByteArrayOutputStream or to any other
+ * channel. Each interpreter has its own sink; a sink is not meant to be used
+ * by more than one thread at a time. Like PrintStream, a sink doesn't throw
+ * IOExceptions but remembers them, see checkError.
+ */
+public final class OutputSink {
+
+    private static final int CAPACITY = 8192;
+    private static final CharBuffer UNALLOCATED = CharBuffer.allocate(0);
+    private static final String LINE_SEPARATOR = System.getProperty("line.separator");
+
+    // Sink used by stacks that don't belong to an interpreter session
+    private static OutputSink console = null;
+
+    // Class data
+    private final WritableByteChannel channel;
+    private final OutputStream stream;
+    private final CharsetEncoder encoder;
+    private CharBuffer chars = UNALLOCATED;
+    private ByteBuffer bytes = null;
+    private final char[] digits = new char[33];
+    private boolean error = false;
+
+    public OutputSink(OutputStream out) {
+        this(Channels.newChannel(out), out, Charset.defaultCharset());
+    }
+
+    public OutputSink(WritableByteChannel channel) {
+        this(channel, null, Charset.defaultCharset());
+    }
+
+    public OutputSink(WritableByteChannel channel, Charset charset) {
+        this(channel, null, charset);
+    }
+
+    private OutputSink(WritableByteChannel channel, OutputStream stream, Charset charset) {
+
+        this.channel = channel;
+        this.stream = stream;
+
+        encoder = charset.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    }
+
+    // Sink writing to System.out, for stacks without a session. Anything run
+    // by a session reports through the session's own sink instead, so its
+    // messages stay in order with the output buffered before them.
+    public static synchronized OutputSink console() {
+
+        if (console == null) {
+            console = new OutputSink(System.out);
+        }
+
+        return console;
+    }
+
+    public void print(char c) {
+
+        if (!chars.hasRemaining()) {
+            drain();
+        }
+
+        chars.put(c);
+    }
+
+    public void print(String s) {
+
+        int length = s.length();
+        int i = 0;
+
+        while (i < length) {
+
+            if (!chars.hasRemaining()) {
+                drain();
+            }
+
+            int n = Math.min(length - i, chars.remaining());
+            int p = chars.position();
+
+            s.getChars(i, i + n, chars.array(), chars.arrayOffset() + p);
+            chars.position(p + n);
+            i += n;
+        }
+    }
+
+    public void print(char[] text, int offset, int length) {
+
+        for (int i = offset; i < offset + length; i++) {
+            print(text[i]);
+        }
+    }
+
+    /**
+     * Print a number in a base, with upper case digits above 9.
+     *
+     * @param n     is the number to print
+     * @param radix is the base, 2 to 36
+     */
+    public void print(int n, int radix) {
+        print(n, radix, 0);
+    }
+
+    /**
+     * Print a number right aligned in a field. A number too wide for the
+     * field is printed in full.
+     *
+     * @param n     is the number to print
+     * @param radix is the base, 2 to 36
+     * @param width is the width of the field
+     */
+    public void print(int n, int radix, int width) {
+
+        long value = Math.abs((long) n);
+        int p = digits.length;
+
+        do {
+            digits[--p] = Character.toUpperCase(Character.forDigit((int) (value % radix), radix));
+            value /= radix;
+        } while (value != 0);
+
+        if (n < 0) {
+            digits[--p] = '-';
+        }
+
+        spaces(width - (digits.length - p));
+        print(digits, p, digits.length - p);
+    }
+
+    public void spaces(int count) {
+
+        for (int i = 0; i < count; i++) {
+            print(' ');
+        }
+    }
+
+    // End the line and write it out
+    public void println() {
+
+        print(LINE_SEPARATOR);
+        flush();
+    }
+
+    public void println(String s) {
+
+        print(s);
+        println();
+    }
+
+    // Write out everything buffered
+    public void flush() {
+
+        if (chars != UNALLOCATED) {
+            drain();
+        }
+
+        if ((stream != null) && !error) {
+            try {
+                stream.flush();
+
+            } catch (IOException ioe) {
+                error = true;
+            }
+        }
+    }
+
+    // Determine if writing has failed. Output is dropped once it has.
+    public boolean checkError() {
+        return error;
+    }
+
+    // Encode the buffered characters and write them to the channel
+    private void drain() {
+
+        // Buffers are made when first written to, so a sink never used costs little
+        if (chars == UNALLOCATED) {
+            chars = CharBuffer.allocate(CAPACITY);
+            bytes = ByteBuffer.allocate((int) Math.ceil(CAPACITY * encoder.maxBytesPerChar()));
+            return;
+        }
+
+        chars.flip();
+
+        while (true) {
+            CoderResult cr = encoder.encode(chars, bytes, false);
+
+            write();
+
+            if (!cr.isOverflow()) {
+                break;
+            }
+        }
+
+        // Half of a surrogate pair waits for the rest
+        chars.compact();
+    }
+
+    private void write() {
+
+        bytes.flip();
+
+        try {
+            while (!error && bytes.hasRemaining()) {
+                channel.write(bytes);
+            }
+
+        } catch (IOException ioe) {
+            error = true;
+        }
+
+        bytes.clear();
+    }
+}
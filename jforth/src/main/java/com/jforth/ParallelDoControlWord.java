@@ -0,0 +1,219 @@
+package com.jforth;
+
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Parallel Do Control Word Class
+ * <p/>
+ * Runtime word for a pdo loop. When ploop or preduce is compiled the loop
+ * body is moved out of the definition into a word of its own which runs it
+ * as an ordinary do loop, so the body is compiled like any other loop. That
+ * word and the definitions it calls are compiled there and then, so the
+ * chunks don't compile them at the same time. The index range is split
+ * into chunks which run that word on the common ForkJoinPool, each with its
+ * own data, variable and loop stacks. The caller's loop frames are copied
+ * to each chunk so j and outer indices still work.
+ * <p/>
+ * Iterations may run in any order and at the same time, so they should only
+ * write to their own elements of arrays. Each chunk prints to a buffer of
+ * its own and the buffers are printed in index order once every chunk has
+ * finished, so the output is what the serial loop would print. Each chunk
+ * also pictures numbers in a hold buffer of its own and has its own number
+ * base, starting from the caller's, so hex or decimal in a loop body don't
+ * change the session's base. leave only ends the chunk it is executed in.
+ * A chunk which fails is reported like a failing do loop, after the output
+ * of the chunks.
+ * <p/>
+ * pdo ... ploop takes a limit and a start index like do. Whatever a chunk
+ * leaves on its data stack is dropped. pdo ... preduce word also takes an
+ * initial value below the limit. Each chunk starts with that value on its
+ * data stack and leaves one result, and the results of the chunks are
+ * combined in index order by the reduction word, which should be
+ * associative with the initial value as its identity, like 0 and +.
+ */
+public final class ParallelDoControlWord extends BaseWord {
+
+    // Chunks per processor, so chunks of uneven cost still share the work
+    private static final int CHUNKS_PER_PROCESSOR = 4;
+
+    // Class data
+    private NonPrimitiveWord body;
+    private BaseWord reduction;
+
+    public ParallelDoControlWord() {
+
+        super("", false, false);
+    }
+
+    /**
+     * Set the loop body.
+     *
+     * @param body      is a word running the body as a do loop
+     * @param reduction is the word combining the results of the chunks or null
+     */
+    public void setBody(NonPrimitiveWord body, BaseWord reduction) {
+
+        this.body = body;
+        this.reduction = reduction;
+    }
+
+    public NonPrimitiveWord getBody() {
+        return body;
+    }
+
+    public BaseWord getReduction() {
+        return reduction;
+    }
+
+    // Part of the index range run by one worker
+    private static final class Chunk extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final NonPrimitiveWord body;
+        private final int start;
+        private final int end;
+        private final OStack dStack = new OStack();
+        private final OStack vStack = new OStack();
+        private final ByteArrayOutputStream printed = new ByteArrayOutputStream();
+        private final OutputSink output = new OutputSink(printed);
+        private int result;
+        private RuntimeException failure = null;
+
+        Chunk(NonPrimitiveWord body, int start, int end, OStack callerData, OStack caller, Object initial) {
+
+            this.body = body;
+            this.start = start;
+            this.end = end;
+
+            dStack.setSession(caller.getSession());
+            vStack.setSession(caller.getSession());
+            dStack.setOutput(output);
+            vStack.setOutput(output);
+
+            // Numbers are pictured and converted by the chunk alone
+            dStack.setPicture(new PicturedNumber());
+            dStack.setBase(JForth.base(callerData));
+
+            // The enclosing loops, outermost first
+            LoopStack outer = caller.loops();
+            LoopStack loops = vStack.loops();
+
+            for (int depth = outer.size() - 1; depth >= 0; depth--) {
+                loops.enter(outer.index(depth), outer.limit(depth));
+            }
+
+            if (initial != null) {
+                dStack.push(initial);
+            }
+        }
+
+        protected void compute() {
+
+            dStack.pushInt(end);
+            dStack.pushInt(start);
+
+            try {
+                result = body.execute(dStack, vStack);
+
+            } catch (RuntimeException re) {
+                // Kept as is to be reported by the caller, like any failing word
+                failure = re;
+
+            } finally {
+                output.flush();
+            }
+        }
+    }
+
+    public int execute(OStack dStack, OStack vStack) {
+
+        if (body == null) {
+            dStack.out().println("pdo - loop not ended by ploop or preduce");
+            return 0;
+        }
+
+        if (dStack.size() < ((reduction != null) ? 3 : 2)) {
+            return 0;
+        }
+
+        // Index and limit must be integer values
+        if (!dStack.isInt(0) || !dStack.isInt(1)) {
+            dStack.out().println("pdo requires 2 numeric stack entries");
+            return 0;
+        }
+
+        int index = dStack.popInt();    // Pop start index
+        int limit = dStack.popInt();    // Pop end index + 1
+        Object initial = (reduction != null) ? dStack.pop() : null;
+
+        long count = (long) limit - index;
+
+        // Nothing to run. The initial value is the result.
+        if (count <= 0) {
+
+            if (initial != null) {
+                dStack.push(initial);
+            }
+
+            return 1;
+        }
+
+        int chunks = (int) Math.min(count, (long) Runtime.getRuntime().availableProcessors() * CHUNKS_PER_PROCESSOR);
+        Chunk[] tasks = new Chunk[chunks];
+
+        for (int k = 0; k < chunks; k++) {
+            int start = (int) (index + count * k / chunks);
+            int end = (int) (index + count * (k + 1) / chunks);
+
+            tasks[k] = new Chunk(body, start, end, dStack, vStack, initial);
+        }
+
+        ForkJoinTask.invokeAll(tasks);
+
+        // Output in index order, then the first failure
+        OutputSink out = dStack.out();
+
+        for (Chunk task : tasks) {
+            out.print(task.printed.toString());
+        }
+
+        for (Chunk task : tasks) {
+
+            if (task.failure instanceof StackException) {
+                out.println("pdo - " + task.failure.getMessage());
+                return 0;
+
+            } else if (task.failure != null) {
+                throw task.failure;
+
+            } else if (task.result == 0) {
+                out.println("pdo - loop body failed");
+                return 0;
+            }
+        }
+
+        if (reduction == null) {
+            return 1;
+        }
+
+        // Combine the results in index order
+        for (int k = 0; k < chunks; k++) {
+
+            if (tasks[k].dStack.size() != 1) {
+                dStack.out().println("pdo - loop body must leave one result");
+                return 0;
+            }
+
+            dStack.push(tasks[k].dStack.pop());
+
+            if ((k > 0) && (reduction.execute(dStack, vStack) == 0)) {
+                return 0;
+            }
+        }
+
+        return 1;
+    }
+}
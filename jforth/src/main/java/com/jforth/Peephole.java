@@ -0,0 +1,167 @@
+package com.jforth;
+
+/**
+ * Peephole Class
+ * <p/>
+ * Finds short, frequently used sequences of words in a definition which the
+ * threaded code compiler can replace with a single superinstruction. A
+ * superinstruction does the work of the whole sequence in one dispatch and,
+ * for the variable and array sequences, without pushing the StorageWord onto
+ * the variable stack only to pop it off again.
+ * <p/>
+ * A sequence is never fused if any word after its first is the target of a
+ * branch, since the branch would land in the middle of the superinstruction.
+ * <p/>
+ * A count is kept of each kind of fusion made so the effect of the pass can be
+ * seen with the fusions word. Setting the system property jforth.peephole to
+ * "false" turns the pass off.
+ */
+public final class Peephole {
+
+    // Names of the fusions, in superinstruction opcode order
+    private static final String[] NAMES = {
+            "lit +", "lit -", "lit *", "lit <", "dup *",
+            "var @", "var !", "array @", "array !", "i array @", "0= if"
+    };
+
+    private static boolean enabled = !"false".equals(System.getProperty("jforth.peephole"));
+    private static final int[] fired = new int[NAMES.length];
+
+    private Peephole() {
+    }
+
+    public static void setEnabled(boolean enable) {
+        enabled = enable;
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Look for a fusible sequence starting at a word of a definition.
+     *
+     * @param cells   are the words of the definition being compiled
+     * @param i       is the index of the first word of the sequence
+     * @param targets marks the words branched to from elsewhere in the definition
+     * @return the superinstruction opcode or -1 if no sequence starts here
+     */
+    static int match(ExecuteIF[] cells, int i, boolean[] targets) {
+
+        if (!enabled) {
+            return -1;
+        }
+
+        ExecuteIF first = cells[i];
+        ExecuteIF second = word(cells, i + 1, targets);
+
+        if (second == null) {
+            return -1;
+        }
+
+        if (first instanceof NumericLiteral) {
+
+            if (isPrimitive(second, "+")) {
+                return ThreadedCode.OP_LIT_ADD;
+
+            } else if (isPrimitive(second, "-")) {
+                return ThreadedCode.OP_LIT_SUB;
+
+            } else if (isPrimitive(second, "*")) {
+                return ThreadedCode.OP_LIT_MUL;
+
+            } else if (isPrimitive(second, "<")) {
+                return ThreadedCode.OP_LIT_LT;
+            }
+
+        } else if (first instanceof StorageWord) {
+            boolean array = ((StorageWord) first).isArray();
+
+            if (isPrimitive(second, "@")) {
+                return array ? ThreadedCode.OP_ARRAY_FETCH : ThreadedCode.OP_VAR_FETCH;
+
+            } else if (isPrimitive(second, "!")) {
+                return array ? ThreadedCode.OP_ARRAY_STORE : ThreadedCode.OP_VAR_STORE;
+            }
+
+        } else if (isPrimitive(first, "dup")) {
+
+            if (isPrimitive(second, "*")) {
+                return ThreadedCode.OP_DUP_MUL;
+            }
+
+        } else if (isPrimitive(first, "0=")) {
+
+            if (second instanceof IfControlWord) {
+                return ThreadedCode.OP_ZERO_EQ_IF;
+            }
+
+        } else if (isPrimitive(first, "i")) {
+
+            if ((second instanceof StorageWord) && ((StorageWord) second).isArray()
+                    && isPrimitive(word(cells, i + 2, targets), "@")) {
+                return ThreadedCode.OP_I_ARRAY_FETCH;
+            }
+        }
+
+        return -1;
+    }
+
+    // Number of words of the definition replaced by a superinstruction
+    static int span(int op) {
+        return (op == ThreadedCode.OP_I_ARRAY_FETCH) ? 3 : 2;
+    }
+
+    // Count a fusion made by the compiler
+    static synchronized void fired(int op) {
+        fired[op - ThreadedCode.OP_LIT_ADD]++;
+    }
+
+    /**
+     * Report the fusions made since startup or the last reset.
+     *
+     * @return String with one line per kind of fusion that has fired
+     */
+    public static synchronized String report() {
+
+        StringBuffer sb = new StringBuffer();
+        int total = 0;
+
+        for (int i = 0; i < NAMES.length; i++) {
+
+            if (fired[i] != 0) {
+                sb.append(NAMES[i]).append(": ").append(fired[i]).append("\n");
+                total += fired[i];
+            }
+        }
+
+        sb.append("Fusions: ").append(total);
+
+        if (!enabled) {
+            sb.append(" (peephole disabled)");
+        }
+
+        return sb.toString();
+    }
+
+    public static synchronized void reset() {
+
+        for (int i = 0; i < fired.length; i++) {
+            fired[i] = 0;
+        }
+    }
+
+    // The word at an index if it exists and isn't branched to
+    private static ExecuteIF word(ExecuteIF[] cells, int index, boolean[] targets) {
+
+        if ((index >= cells.length) || targets[index]) {
+            return null;
+        }
+
+        return cells[index];
+    }
+
+    private static boolean isPrimitive(ExecuteIF eif, String name) {
+        return (eif instanceof PrimitiveWord) && ((PrimitiveWord) eif).name.equals(name);
+    }
+}
@@ -0,0 +1,124 @@
+package com.jforth;
+
+/**
+ * Pictured Number Class
+ * <p/>
+ * Hold buffer for the pictured numeric output words. A picture is built
+ * from right to left: <# starts it, # and #s convert digits, hold and sign
+ * add other characters and #> ends it. The buffer is reused for every
+ * number, so building a picture makes no objects.
+ * <p/>
+ * The finished picture is the picture itself, a view onto the hold buffer.
+ * Like the string #> leaves in standard Forth it is only good until the
+ * next picture is started. Words that keep text or work on it as a String,
+ * such as ! and +, take a copy with text(); printing it copies nothing.
+ * <p/>
+ * Digits are converted as if the number were unsigned, as standard Forth
+ * does, so a negative number is pictured from its absolute value and
+ * marked with sign.
+ */
+public final class PicturedNumber implements CharSequence {
+
+    private static final int CAPACITY = 128;
+
+    // Class data
+    private final char[] buffer = new char[CAPACITY];
+    private int start = CAPACITY;
+
+    // Start a new picture
+    public void begin() {
+        start = CAPACITY;
+    }
+
+    /**
+     * Add a character to the front of the picture.
+     *
+     * @param c is the character to add
+     * @return false if the picture is full
+     */
+    public boolean hold(char c) {
+
+        if (start == 0) {
+            return false;
+        }
+
+        buffer[--start] = c;
+
+        return true;
+    }
+
+    /**
+     * Convert the least significant digit of a number.
+     *
+     * @param n     is the number, taken as unsigned
+     * @param radix is the base, 2 to 36
+     * @return the number left to convert, n divided by radix
+     */
+    public int digit(int n, int radix) {
+
+        int d = Integer.remainderUnsigned(n, radix);
+
+        hold(Character.toUpperCase(Character.forDigit(d, radix)));
+
+        return Integer.divideUnsigned(n, radix);
+    }
+
+    /**
+     * Convert digits until nothing is left of a number. At least one digit
+     * is always converted.
+     *
+     * @param n     is the number, taken as unsigned
+     * @param radix is the base, 2 to 36
+     * @return 0
+     */
+    public int digits(int n, int radix) {
+
+        do {
+            n = digit(n, radix);
+        } while ((n != 0) && (start != 0));
+
+        return n;
+    }
+
+    // Add a minus sign to the front of the picture if n is negative
+    public void sign(int n) {
+
+        if (n < 0) {
+            hold('-');
+        }
+    }
+
+    public boolean isFull() {
+        return start == 0;
+    }
+
+    // The picture so far, from start() for length() characters of buffer()
+    public char[] buffer() {
+        return buffer;
+    }
+
+    public int start() {
+        return start;
+    }
+
+    public int length() {
+        return CAPACITY - start;
+    }
+
+    public char charAt(int index) {
+        return buffer[start + index];
+    }
+
+    public CharSequence subSequence(int from, int to) {
+        return new String(buffer, start + from, to - from);
+    }
+
+    public String toString() {
+        return new String(buffer, start, length());
+    }
+
+    // A value to keep or to use as a String: a copy of a picture, or the value itself
+    public static Object text(Object o) {
+        return (o instanceof PicturedNumber) ? o.toString() : o;
+    }
+}
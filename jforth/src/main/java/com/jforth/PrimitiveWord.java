@@ -22,4 +22,9 @@ public final class PrimitiveWord extends BaseWord {
     public int execute(OStack dStack, OStack vStack) {
         return eif.execute(dStack, vStack);
     }
+
+    // The Java code of the word
+    ExecuteIF getExecuteIF() {
+        return eif;
+    }
 }
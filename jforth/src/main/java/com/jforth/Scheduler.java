@@ -0,0 +1,195 @@
+package com.jforth;
+
+import java.util.ArrayDeque;
+import java.util.IdentityHashMap;
+
+/**
+ * Scheduler Class
+ * <p/>
+ * Round robin scheduler for the tasks of a session. Tasks are cooperative:
+ * exactly one of the session's flows of control runs at any time, and it
+ * runs until it executes pause, which passes control to the next task in
+ * turn, or until it ends. The session's own interpreter takes its turn
+ * like any task, so tasks only run while it pauses: each pause of the
+ * interpreter gives every task ready to run one turn.
+ * <p/>
+ * Each task has its own data and variable stacks, which belong to the
+ * session, and runs a word given to activate. A task whose word returns,
+ * fails or executes stop is ended and may be activated again.
+ * <p/>
+ * Tasks are continuations on the threaded code engine, see Continuation,
+ * all run by the thread of the interpreter which pauses. A task costs only
+ * its stacks and frames, and switching tasks is a return from one dispatch
+ * loop and a call into the next.
+ */
+public final class Scheduler {
+
+    // Tasks are meant to be many, so their stacks are smaller than the interpreter's
+    private static final int TASK_STACK_CAPACITY = 256;
+
+    // Unwinds the Java stack of a task which stops
+    private static final class Stopped extends RuntimeException {
+
+        private static final long serialVersionUID = 1L;
+
+        Stopped() {
+            super(null, null, false, false);
+        }
+    }
+
+    private static final Stopped STOPPED = new Stopped();
+
+    // A task started by activate
+    private static final class Task {
+
+        private final TaskWord word;
+        private final Continuation continuation;
+
+        Task(TaskWord word, Continuation continuation) {
+
+            this.word = word;
+            this.continuation = continuation;
+        }
+    }
+
+    // Class data
+    private final JForth session;
+    private final ArrayDeque<Task> ready = new ArrayDeque<Task>();
+    private final IdentityHashMap<TaskWord, Task> active = new IdentityHashMap<TaskWord, Task>();
+    private Task current = null;
+
+    Scheduler(JForth session) {
+        this.session = session;
+    }
+
+    /**
+     * Start a task running a word. It runs when its turn comes.
+     *
+     * @param tw   is the task to start
+     * @param word is the word the task runs
+     * @return false if the task is already running
+     */
+    public boolean activate(TaskWord tw, BaseWord word) {
+
+        if (active.containsKey(tw)) {
+            return false;
+        }
+
+        OStack dStack = new OStack(TASK_STACK_CAPACITY);
+        OStack vStack = new OStack(TASK_STACK_CAPACITY);
+
+        dStack.setSession(session);
+        vStack.setSession(session);
+
+        Task task = new Task(tw, new Continuation(word, dStack, vStack));
+
+        active.put(tw, task);
+        ready.add(task);
+
+        return true;
+    }
+
+    // Pass control to the next task in turn. A task gives up its turn; the
+    // session's interpreter gives each task ready to run a turn.
+    public void pause() {
+
+        if (current != null) {
+            current.continuation.yield();
+            return;
+        }
+
+        for (int turns = ready.size(); turns > 0; turns--) {
+            Task task = ready.poll();
+
+            if (task == null) {
+                break;
+            }
+
+            if (run(task)) {
+                ready.add(task);
+
+            } else {
+                active.remove(task.word);
+            }
+        }
+    }
+
+    /**
+     * End the task running. Only returns if the session's own interpreter is
+     * running, which can't be stopped.
+     *
+     * @return false if not called from a task
+     */
+    public boolean stop() {
+
+        if (current == null) {
+            return false;
+        }
+
+        throw STOPPED;
+    }
+
+    /**
+     * Have a primitive which can't go on yet, such as a receive from an
+     * empty channel, run again on the task's next turn instead of waiting.
+     * The primitive must leave the stacks as it found them.
+     *
+     * @param primitive is the code of the primitive
+     * @return false if the primitive isn't called by a task's own words and
+     * must wait itself
+     */
+    public boolean retry(ExecuteIF primitive) {
+        return (current != null) && current.continuation.retry(primitive);
+    }
+
+    // Number of tasks started and not yet ended
+    public int size() {
+        return active.size();
+    }
+
+    // End every task. Called by the session's own interpreter.
+    public void cancel() {
+
+        ready.clear();
+        active.clear();
+    }
+
+    // Give a task its turn. Returns false once the task has ended.
+    private boolean run(Task task) {
+
+        current = task;
+
+        try {
+            int result = task.continuation.run();
+
+            if (result == Continuation.SUSPENDED) {
+                return true;
+            }
+
+            if (result == 0) {
+                report(task, "word execution or stack error");
+            }
+
+        } catch (Stopped s) {
+            // Ended by stop
+
+        } catch (StackException se) {
+            report(task, se.getMessage());
+
+        } catch (RuntimeException re) {
+            report(task, re.toString());
+
+        } catch (StackOverflowError soe) {
+            report(task, soe.toString());
+
+        } finally {
+            current = null;
+        }
+
+        return false;
+    }
+
+    private void report(Task task, String message) {
+        session.getOutput().println("Task " + task.word.name + " - " + message);
+    }
+}
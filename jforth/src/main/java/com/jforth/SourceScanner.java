@@ -0,0 +1,229 @@
+package com.jforth;
+
+/**
+ * Source Scanner Class
+ * <p/>
+ * Splits source into tokens. A line typed in is copied into a char array
+ * which is reused from line to line. A loaded file is scanned in place as a
+ * whole, across line boundaries. Tokens are returned as slices of the array
+ * so that looking a word up in the dictionary needs no String. A String is
+ * only made when one is asked for with token().
+ * <p/>
+ * Characters up to and including space separate tokens. A word is a run of
+ * the characters from ! to z, except the double quote which starts a string.
+ * A string runs to the next double quote or the end of the line and may
+ * contain the usual backslash escapes. Any other character is a token on its
+ * own.
+ */
+public final class SourceScanner {
+
+    // Token types
+    public static final int EOF = -1;
+    public static final int WORD = 0;
+    public static final int STRING = 1;
+
+    private static final int INITIAL_CAPACITY = 256;
+
+    // Class data
+    private char[] buffer = new char[INITIAL_CAPACITY];
+    private int position = 0;
+    private int limit = 0;
+    private int start = 0;
+    private int length = 0;
+    private int line = 1;
+
+    // Start scanning a new line of text
+    public void reset(String text) {
+
+        int n = text.length();
+
+        if (n > buffer.length) {
+            buffer = new char[Math.max(n, buffer.length << 1)];
+        }
+
+        text.getChars(0, n, buffer, 0);
+        position = 0;
+        limit = n;
+        start = 0;
+        length = 0;
+        line = 1;
+    }
+
+    // Start scanning text spanning many lines. The scanner works on the array
+    // given, which it may change when decoding string escapes.
+    public void reset(char[] text, int offset, int count) {
+
+        buffer = text;
+        position = offset;
+        limit = offset + count;
+        start = offset;
+        length = 0;
+        line = 1;
+    }
+
+    // Line number, counting from 1, of the current token. Line breaks are
+    // only ever skipped between tokens, never inside one, so they are
+    // counted there as they are passed.
+    public int line() {
+        return line;
+    }
+
+    /**
+     * Scan the next token.
+     *
+     * @return the token type, WORD, STRING or EOF at the end of the line
+     */
+    public int next() {
+
+        char[] b = buffer;
+        int p = position;
+
+        while ((p < limit) && (b[p] <= ' ')) {
+
+            if (b[p] == '\n') {
+                line++;
+            }
+
+            p++;
+        }
+
+        if (p == limit) {
+            position = p;
+            length = 0;
+            return EOF;
+        }
+
+        char c = b[p];
+
+        if (c == '"') {
+            position = p + 1;
+            return scanString();
+        }
+
+        start = p;
+
+        if (isWordChar(c)) {
+            do {
+                p++;
+            } while ((p < limit) && isWordChar(b[p]));
+
+        } else {
+            p++;
+        }
+
+        length = p - start;
+        position = p;
+
+        return WORD;
+    }
+
+    // Token text shares the scanner's buffer, from start() for length() characters
+    public char[] buffer() {
+        return buffer;
+    }
+
+    public int start() {
+        return start;
+    }
+
+    public int length() {
+        return length;
+    }
+
+    // Text of the current token
+    public String token() {
+        return new String(buffer, start, length);
+    }
+
+    // Determine if the current token is the single character given
+    public boolean is(char c) {
+        return (length == 1) && (buffer[start] == c);
+    }
+
+    /**
+     * Skip the rest of a ( comment, up to and including the ) word.
+     *
+     * @return true if the comment was closed, false if the line ended first
+     */
+    public boolean skipComment() {
+
+        int type;
+
+        while ((type = next()) != EOF) {
+
+            if ((type == WORD) && is(')')) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private static boolean isWordChar(char c) {
+        return (c >= '!') && (c <= 'z') && (c != '"');
+    }
+
+    // Scan a string whose opening quote has been consumed. Escapes are decoded
+    // in place, which is safe as the decoded text is never longer.
+    private int scanString() {
+
+        char[] b = buffer;
+        int p = position;
+        int out = p;
+
+        start = p;
+
+        while ((p < limit) && (b[p] != '"') && (b[p] != '\n') && (b[p] != '\r')) {
+            char c = b[p++];
+
+            if ((c == '\\') && (p < limit)) {
+                c = b[p++];
+
+                switch (c) {
+                    case 'a':
+                        c = 0x7;
+                        break;
+                    case 'b':
+                        c = '\b';
+                        break;
+                    case 'f':
+                        c = '\f';
+                        break;
+                    case 'n':
+                        c = '\n';
+                        break;
+                    case 'r':
+                        c = '\r';
+                        break;
+                    case 't':
+                        c = '\t';
+                        break;
+                    case 'v':
+                        c = 0xb;
+                        break;
+                    default:
+                        if ((c >= '0') && (c <= '7')) {
+                            int digits = (c <= '3') ? 3 : 2;
+                            int value = c - '0';
+
+                            for (int i = 1; (i < digits) && (p < limit) && (b[p] >= '0') && (b[p] <= '7'); i++) {
+                                value = (value << 3) + (b[p++] - '0');
+                            }
+
+                            c = (char) value;
+                        }
+                        break;
+                }
+            }
+
+            b[out++] = c;
+        }
+
+        length = out - start;
+
+        // Step over the closing quote
+        position = ((p < limit) && (b[p] == '"')) ? p + 1 : p;
+
+        return STRING;
+    }
+}
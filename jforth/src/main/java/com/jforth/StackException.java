@@ -0,0 +1,17 @@
+package com.jforth;
+
+/**
+ * Thrown by OStack on overflow or underflow.
+ * <p/>
+ * Words check stack depth before popping, so this normally only surfaces
+ * when a fixed size stack fills up. The outer interpreter reports it like
+ * any other execution error.
+ */
+public class StackException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    public StackException(String message) {
+        super(message);
+    }
+}
@@ -1,10 +1,25 @@
 package com.jforth;
 
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
 /**
  * Storage Word Class
  * <p/>
  * A class for defining variables and arrays
  * <p/>
+ * A variable or array read lazily from an image gets its contents from the
+ * image when it is first used.
+ * <p/>
+ * A variable or array frozen into a core is shared by the sessions running
+ * on it. Each session reads the frozen contents until it first stores into
+ * them, when it gets a copy of its own.
+ * <p/>
+ * A shared variable or array holds only numbers, starting at 0, in an
+ * AtomicIntegerArray. Every session and thread using the word sees the same
+ * contents, which are never copied, and +! and the atomic words update them
+ * without losing updates made at the same time.
+ * <p/>
  * Written by: Craig A. Lindley
  * Last Update: 03/03/2008
  */
@@ -13,8 +28,15 @@ public final class StorageWord extends BaseWord {
     // Class data
     private int size;
     private Object[] array = null;
+    private volatile DictionaryImage.Body body = null;
+    private boolean shared = false;
+    private final AtomicIntegerArray atomic;        // Contents of a shared variable or array
 
     public StorageWord(String name, int size) {
+        this(name, size, false);
+    }
+
+    public StorageWord(String name, int size, boolean atomic) {
         super(name, false, false);
 
         // Save incoming size which is the number of storage elements
@@ -22,7 +44,13 @@ public final class StorageWord extends BaseWord {
         this.size = size;
 
         // Allocate storage for size number of items
-        array = new Object[size];
+        if (atomic) {
+            this.atomic = new AtomicIntegerArray(size);
+
+        } else {
+            this.atomic = null;
+            array = new Object[size];
+        }
     }
 
     public int execute(OStack dStack, OStack vStack) {
@@ -34,33 +62,89 @@ public final class StorageWord extends BaseWord {
         return 1;
     }
 
-    public boolean isArray() {
+    // Leave the contents in an image until they are first needed
+    void setBody(DictionaryImage.Body body) {
+        this.body = body;
+    }
 
-        return (size > 1);
+    // Fill in the contents from the image if that hasn't been done yet
+    private void materialize(OStack vStack) {
+
+        synchronized (this) {
+            DictionaryImage.Body b = body;
+
+            if (b != null) {
+                try {
+                    b.fill(this);
+
+                } catch (IOException ioe) {
+                    out(vStack).println("Image error - " + ioe.getMessage());
+                }
+
+                // A damaged image leaves the rest of the contents unset
+                body = null;
+            }
+        }
     }
 
-    public Object fetch(OStack vStack, int offset) {
+    // Share the contents between sessions from now on, copying them on write
+    void freeze() {
+        shared = true;
+    }
 
-        offset = Math.abs(offset);
+    // The contents as seen by the session running against vStack
+    private Object[] contents(OStack vStack, boolean writing) {
 
-        if (size == 1) {
-            offset = 0;
+        if (!shared || (vStack == null) || (vStack.getSession() == null)) {
+            return array;
         }
 
-        Object o = null;
+        return vStack.getSession().storage(this, array, writing);
+    }
+
+    // Set an element while filling in the contents. Returns false if a
+    // shared variable is given something other than a number.
+    boolean set(int offset, Object data) {
 
-        if (offset <= size - 1) {
-            // Offset is within range, fetch the data
-            o = array[offset];
+        if (atomic == null) {
+            array[offset] = data;
+
+        } else if (data instanceof Integer) {
+            atomic.set(offset, ((Integer) data).intValue());
 
         } else {
-            System.out.println("@ Error - \'" + name + "\' size: " + size + " index: " + offset);
+            return false;
         }
 
-        return o;
+        return true;
     }
 
-    public void display(OStack vStack, int offset) {
+    // Where to report to. Storage is also read without an interpreter's stacks.
+    private static OutputSink out(OStack vStack) {
+        return (vStack != null) ? vStack.out() : OutputSink.console();
+    }
+
+    // Number of storage elements
+    public int getSize() {
+        return size;
+    }
+
+    public boolean isArray() {
+
+        return (size > 1);
+    }
+
+    // Whether this is a shared variable or array
+    public boolean isAtomic() {
+        return atomic != null;
+    }
+
+    // Index of the element at offset, or -1 after reporting it out of range
+    private int element(OStack vStack, int offset, String word) {
+
+        if (body != null) {
+            materialize(vStack);
+        }
 
         offset = Math.abs(offset);
 
@@ -68,75 +152,134 @@ public final class StorageWord extends BaseWord {
             offset = 0;
         }
 
-        if (offset <= size - 1) {
+        // The absolute value of the most negative offset is still negative
+        if ((offset < 0) || (offset > size - 1)) {
+            out(vStack).println(word + " Error - \'" + name + "\' size: " + size + " index: " + offset);
+            return -1;
+        }
 
-            // Offset is within range, fetch the data
-            Object o = array[offset];
+        return offset;
+    }
 
-            String s;
+    /**
+     * Atomically add to an element of a shared variable or array.
+     *
+     * @param delta is the number to add
+     * @return the element before the add, or null if the offset is out of range
+     */
+    public Integer fetchAndAdd(OStack vStack, int delta, int offset) {
 
-            if (o instanceof Integer) {
-                s = ((Integer) o).toString();
+        offset = element(vStack, offset, "@+!");
 
-            } else {
-                s = (String) o;
-            }
+        return (offset >= 0) ? NumberParser.valueOf(atomic.getAndAdd(offset, delta)) : null;
+    }
+
+    /**
+     * Atomically set an element of a shared variable or array if it holds an
+     * expected value.
+     *
+     * @param expected is the value the element must hold
+     * @param update   is the value to set it to
+     * @return false if the element held something else
+     */
+    public boolean compareAndSet(OStack vStack, int expected, int update, int offset) {
+
+        offset = element(vStack, offset, "cas!");
+
+        return (offset >= 0) && atomic.compareAndSet(offset, expected, update);
+    }
+
+    public Object fetch(OStack vStack, int offset) {
+
+        offset = element(vStack, offset, "@");
+
+        if (offset < 0) {
+            return null;
+        }
+
+        return (atomic != null) ? NumberParser.valueOf(atomic.get(offset)) : contents(vStack, false)[offset];
+    }
+
+    public void display(OStack vStack, int offset) {
+
+        offset = element(vStack, offset, "?");
 
-            System.out.print(s);
+        if (offset < 0) {
+            return;
+        }
+
+        Object o = (atomic != null) ? NumberParser.valueOf(atomic.get(offset)) : contents(vStack, false)[offset];
+
+        String s;
+
+        if (o instanceof Integer) {
+            s = ((Integer) o).toString();
 
         } else {
-            System.out.println("? Error - \'" + name + "\' size: " + size + " index: " + offset);
+            s = (String) o;
         }
+
+        out(vStack).print(s);
     }
 
     public void store(OStack vStack, Object data, int offset) {
 
-        offset = Math.abs(offset);
+        data = PicturedNumber.text(data);
+        offset = element(vStack, offset, "!");
 
-        if (size == 1) {
-            offset = 0;
+        if (offset < 0) {
+            return;
         }
 
-        if (offset <= size - 1) {
-            // Offset is within range, store the data
-            array[offset] = data;
+        if (atomic == null) {
+            contents(vStack, true)[offset] = data;
+
+        } else if (data instanceof Integer) {
+            atomic.set(offset, ((Integer) data).intValue());
 
         } else {
-            System.out.println("! Error - \'" + name + "\' size: " + size + " index: " + offset);
+            out(vStack).println("! - \'" + name + "\' is shared and holds only numbers");
         }
     }
 
     public void plusStore(OStack vStack, Object data, int offset) {
 
-        offset = Math.abs(offset);
+        data = PicturedNumber.text(data);
+        offset = element(vStack, offset, "+!");
 
-        if (size == 1) {
-            offset = 0;
+        if (offset < 0) {
+            return;
         }
 
-        if (offset <= size - 1) {
+        if (atomic != null) {
+
+            if (data instanceof Integer) {
+                atomic.getAndAdd(offset, ((Integer) data).intValue());
+
+            } else {
+                out(vStack).println("+! - \'" + name + "\' is shared and holds only numbers");
+            }
 
-            // Offset is within range, fetch the data
-            Object o1 = array[offset];
-            Object o2 = data;
+            return;
+        }
 
-            if ((o1 instanceof Integer) && (o2 instanceof Integer)) {
-                int i1 = ((Integer) o1).intValue();
-                int i2 = ((Integer) o2).intValue();
+        Object[] array = contents(vStack, true);
+        Object o1 = array[offset];
+        Object o2 = data;
 
-                array[offset] = new Integer(i1 + i2);
+        if ((o1 instanceof Integer) && (o2 instanceof Integer)) {
+            int i1 = ((Integer) o1).intValue();
+            int i2 = ((Integer) o2).intValue();
 
-            } else if ((o1 instanceof String) && (o2 instanceof String)) {
-                String s1 = (String) o1;
-                String s2 = (String) o2;
-                array[offset] = s1 + s2;
+            array[offset] = NumberParser.valueOf(i1 + i2);
 
-            } else {
-                System.out.println("+! - Type mismatch in arguments");
-            }
+        } else if ((o1 instanceof String) && (o2 instanceof String)) {
+            String s1 = (String) o1;
+            String s2 = (String) o2;
+            array[offset] = s1 + s2;
 
         } else {
-            System.out.println("+! Error - \'" + name + "\' size: " + size + " index: " + offset);
+            out(vStack).println("+! - Type mismatch in arguments");
         }
     }
 }
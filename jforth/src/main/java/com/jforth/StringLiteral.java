@@ -20,6 +20,10 @@ public final class StringLiteral extends BaseWord {
         this.str = str;
     }
 
+    public String getString() {
+        return str;
+    }
+
     public int execute(OStack dStack, OStack vStack) {
 
         dStack.push(str);
@@ -0,0 +1,24 @@
+package com.jforth;
+
+/**
+ * Task Word Class
+ * <p/>
+ * A word defined by task: naming a task. Like a variable it pushes itself
+ * onto the variable stack, where activate expects it. Whether the task is
+ * running is kept by the scheduler of each session, not by the word, so a
+ * task word frozen into a core can be activated in every session.
+ */
+public final class TaskWord extends BaseWord {
+
+    public TaskWord(String name) {
+        super(name, false, false);
+    }
+
+    public int execute(OStack dStack, OStack vStack) {
+
+        // Push a reference to this object onto the variable stack
+        vStack.push(this);
+
+        return 1;
+    }
+}
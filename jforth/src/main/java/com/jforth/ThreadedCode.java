@@ -0,0 +1,723 @@
+package com.jforth;
+
+import java.util.ArrayList;
+
+/**
+ * Threaded Code Class
+ * <p/>
+ * Compiled form of a non primitive word's definition. Each word of the
+ * definition becomes an opcode in an int array, followed by its operand if
+ * it has one. Literal strings and the words to call are kept in a constant
+ * pool. The control words are translated into branches with absolute targets
+ * so the whole definition runs in one dispatch loop.
+ * <p/>
+ * Words the compiler does not know about are called through the constant
+ * pool, so primitive words stay the way to extend the language.
+ * <p/>
+ * Calls to short definitions without control words are replaced by a copy
+ * of the called word's body, up to the inline threshold of NonPrimitiveWord.
+ * The called word records its caller as a dependent, so forgetting or
+ * redefining it drops the caller's compiled code too. A word can only call
+ * words defined before it, so inlining can't recurse.
+ * <p/>
+ * Common sequences of words found by the Peephole class are compiled into
+ * single superinstructions.
+ * <p/>
+ * Tasks run threaded code as continuations. Calls to other definitions are
+ * then made by the task's Continuation rather than on the Java stack, so
+ * the code can stop at any call and carry on from there later.
+ */
+public final class ThreadedCode {
+
+    // Opcodes. Those followed by an operand are noted.
+    static final int OP_LIT = 0;           // number to push
+    static final int OP_REF = 1;           // pool index of object to push
+    static final int OP_CALL = 2;          // pool index of word to execute
+    static final int OP_BRANCH = 3;        // target
+    static final int OP_IF = 4;            // target when flag is false
+    static final int OP_END = 5;           // target when flag is false
+    static final int OP_DO = 6;
+    static final int OP_LOOP = 7;          // target of the loop body
+    static final int OP_PLUS_LOOP = 8;     // target of the loop body
+    static final int OP_LEAVE = 9;
+
+    // Inlined primitives. The operand is the pool index of the primitive
+    // itself, which is called whenever the operands aren't plain numbers.
+    static final int OP_ADD = 10;
+    static final int OP_SUB = 11;
+    static final int OP_MUL = 12;
+    static final int OP_INC = 13;
+    static final int OP_DEC = 14;
+    static final int OP_DUP = 15;
+    static final int OP_DROP = 16;
+    static final int OP_SWAP = 17;
+    static final int OP_OVER = 18;
+    static final int OP_LT = 19;
+    static final int OP_EQ = 20;
+    static final int OP_GT = 21;
+    static final int OP_ZERO_EQ = 22;
+    static final int OP_I = 23;
+
+    // Superinstructions. Each replaces a sequence of words, see Peephole.
+    static final int OP_LIT_ADD = 24;      // number, pool index of +
+    static final int OP_LIT_SUB = 25;      // number, pool index of -
+    static final int OP_LIT_MUL = 26;      // number, pool index of *
+    static final int OP_LIT_LT = 27;       // number, pool index of <
+    static final int OP_DUP_MUL = 28;      // pool index of *
+    static final int OP_VAR_FETCH = 29;    // pool index of variable
+    static final int OP_VAR_STORE = 30;    // pool index of variable
+    static final int OP_ARRAY_FETCH = 31;  // pool index of array
+    static final int OP_ARRAY_STORE = 32;  // pool index of array
+    static final int OP_I_ARRAY_FETCH = 33; // pool index of array
+    static final int OP_ZERO_EQ_IF = 34;   // target when flag is false, pool index of 0=
+
+    private static final String[] INLINED = {
+            "+", "-", "*", "1+", "1-", "dup", "drop", "swap", "over", "<", "=", ">", "0=", "i"
+    };
+
+    // Class data
+    private final int[] code;
+    private final Object[] pool;
+
+    private ThreadedCode(int[] code, Object[] pool) {
+
+        this.code = code;
+        this.pool = pool;
+    }
+
+    /**
+     * Compile the definition of a non primitive word.
+     *
+     * @param npw is the word to compile
+     * @return the compiled code or null if the definition has unresolved
+     * control flow and must be left to the object engine
+     */
+    public static ThreadedCode compile(NonPrimitiveWord npw) {
+
+        // Expand the definition, splicing in the bodies of the words inlined.
+        // start maps each word of the definition to its place in the expansion.
+        int words = npw.size();
+        int[] start = new int[words + 1];
+        ArrayList<ExecuteIF> expansion = new ArrayList<ExecuteIF>();
+        ArrayList<NonPrimitiveWord> inlined = new ArrayList<NonPrimitiveWord>();
+
+        for (int i = 0; i < words; i++) {
+            ExecuteIF eif = npw.getWord(i);
+            ArrayList<ExecuteIF> body = inlineBody(eif, inlined);
+
+            start[i] = expansion.size();
+
+            if (body != null) {
+                expansion.addAll(body);
+
+            } else {
+                expansion.add(eif);
+            }
+        }
+
+        start[words] = expansion.size();
+
+        int size = expansion.size();
+        ExecuteIF[] cells = expansion.toArray(new ExecuteIF[size]);
+
+        // Absolute branch target of each control word in the expansion, and
+        // which cells are branched to
+        int[] branch = new int[size];
+        boolean[] targets = new boolean[size + 1];
+
+        for (int i = 0; i < words; i++) {
+            ExecuteIF eif = npw.getWord(i);
+
+            if (isBranch(eif)) {
+                int target = i + indexIncrement(eif);
+
+                if (!validTarget(target, i, words)) {
+                    return null;
+                }
+
+                branch[start[i]] = start[target];
+                targets[start[target]] = true;
+            }
+        }
+
+        // First pass picks the opcode for each instruction and works out where
+        // it will start. Words swallowed by a superinstruction get no opcode.
+        // The extra address entry is the address of the end of the code.
+        int[] ops = new int[size];
+        int[] address = new int[size + 1];
+        int length = 0;
+
+        for (int i = 0; i < size; ) {
+            int op = Peephole.match(cells, i, targets);
+            int span = 1;
+
+            if (op != -1) {
+                span = Peephole.span(op);
+
+            } else {
+                op = opcode(cells[i]);
+            }
+
+            ops[i] = op;
+            address[i] = length;
+            length += length(op);
+
+            for (int k = 1; k < span; k++) {
+                ops[i + k] = -1;
+                address[i + k] = -1;
+            }
+
+            i += span;
+        }
+
+        address[size] = length;
+
+        // Second pass emits the code
+        int[] code = new int[length];
+        ArrayList<Object> pool = new ArrayList<Object>();
+        int pc = 0;
+
+        for (int i = 0; i < size; i++) {
+            int op = ops[i];
+
+            if (op == -1) {
+                continue;
+            }
+
+            ExecuteIF eif = cells[i];
+            int target = -1;
+
+            code[pc++] = op;
+
+            switch (op) {
+
+                case OP_LIT:
+                    code[pc++] = ((NumericLiteral) eif).getNumber();
+                    break;
+
+                case OP_REF:
+                    code[pc++] = pool.size();
+                    pool.add(((StringLiteral) eif).getString());
+                    break;
+
+                case OP_IF:
+                case OP_BRANCH:
+                case OP_END:
+                case OP_LOOP:
+                case OP_PLUS_LOOP:
+                    target = branch[i];
+                    break;
+
+                case OP_DO:
+                case OP_LEAVE:
+                    break;
+
+                case OP_LIT_ADD:
+                case OP_LIT_SUB:
+                case OP_LIT_MUL:
+                case OP_LIT_LT:
+                    code[pc++] = ((NumericLiteral) eif).getNumber();
+                    code[pc++] = pool.size();
+                    pool.add(cells[i + 1]);
+                    break;
+
+                case OP_DUP_MUL:
+                case OP_I_ARRAY_FETCH:
+                    code[pc++] = pool.size();
+                    pool.add(cells[i + 1]);
+                    break;
+
+                case OP_ZERO_EQ_IF:
+                    target = branch[i + 1];
+
+                    if (address[target] == -1) {
+                        return null;
+                    }
+
+                    code[pc++] = address[target];
+                    code[pc++] = pool.size();
+                    pool.add(eif);
+                    target = -1;
+                    break;
+
+                default:
+                    // Calls, inlined primitives and variable superinstructions
+                    code[pc++] = pool.size();
+                    pool.add(eif);
+                    break;
+            }
+
+            if (target != -1) {
+
+                if (address[target] == -1) {
+                    return null;
+                }
+
+                code[pc++] = address[target];
+            }
+        }
+
+        for (int i = 0; i < size; i++) {
+
+            if (ops[i] >= OP_LIT_ADD) {
+                Peephole.fired(ops[i]);
+            }
+        }
+
+        for (NonPrimitiveWord callee : inlined) {
+            callee.addDependent(npw);
+        }
+
+        return new ThreadedCode(code, pool.toArray());
+    }
+
+    // Number of code array entries taken by an opcode and its operands
+    static int length(int op) {
+
+        switch (op) {
+
+            case OP_DO:
+            case OP_LEAVE:
+                return 1;
+
+            case OP_LIT_ADD:
+            case OP_LIT_SUB:
+            case OP_LIT_MUL:
+            case OP_LIT_LT:
+            case OP_ZERO_EQ_IF:
+                return 3;
+
+            default:
+                return 2;
+        }
+    }
+
+    // Opcode for a single word of a definition
+    private static int opcode(ExecuteIF eif) {
+
+        if (eif instanceof NumericLiteral) {
+            return OP_LIT;
+
+        } else if (eif instanceof StringLiteral) {
+            return OP_REF;
+
+        } else if (eif instanceof IfControlWord) {
+            return OP_IF;
+
+        } else if (eif instanceof ElseControlWord) {
+            return OP_BRANCH;
+
+        } else if (eif instanceof EndLoopControlWord) {
+            return OP_END;
+
+        } else if (eif instanceof LoopControlWord) {
+            return OP_LOOP;
+
+        } else if (eif instanceof PlusLoopControlWord) {
+            return OP_PLUS_LOOP;
+
+        } else if (eif instanceof DoLoopControlWord) {
+            return OP_DO;
+
+        } else if (eif instanceof LeaveLoopControlWord) {
+            return OP_LEAVE;
+        }
+
+        return callOpcode(eif);
+    }
+
+    // Relative branch of a control word, or 0 if it doesn't branch
+    private static int indexIncrement(ExecuteIF eif) {
+
+        if (eif instanceof IfControlWord) {
+            return ((IfControlWord) eif).getFalseIndexIncrement();
+
+        } else if (eif instanceof ElseControlWord) {
+            return ((ElseControlWord) eif).getIndexIncrement();
+
+        } else if (eif instanceof EndLoopControlWord) {
+            return ((EndLoopControlWord) eif).getIndexIncrement();
+
+        } else if (eif instanceof LoopControlWord) {
+            return ((LoopControlWord) eif).getIndexIncrement();
+
+        } else if (eif instanceof PlusLoopControlWord) {
+            return ((PlusLoopControlWord) eif).getIndexIncrement();
+        }
+
+        return 0;
+    }
+
+    // A missing then (zero increment) or an out of range branch can't be compiled
+    private static boolean validTarget(int target, int from, int size) {
+        return (target >= 0) && (target <= size) && (target != from);
+    }
+
+    // Control words which branch
+    private static boolean isBranch(ExecuteIF eif) {
+
+        return (eif instanceof IfControlWord) || (eif instanceof ElseControlWord)
+                || (eif instanceof EndLoopControlWord) || (eif instanceof LoopControlWord)
+                || (eif instanceof PlusLoopControlWord);
+    }
+
+    /**
+     * Get the body to inline in place of a call to a word. The body has the
+     * words it calls inlined in turn as far as the threshold allows.
+     *
+     * @param eif     is the word called
+     * @param inlined collects the words whose bodies were used
+     * @return the body or null if the word isn't to be inlined
+     */
+    private static ArrayList<ExecuteIF> inlineBody(ExecuteIF eif, ArrayList<NonPrimitiveWord> inlined) {
+
+        int threshold = NonPrimitiveWord.getInlineThreshold();
+
+        if ((threshold <= 0) || !(eif instanceof NonPrimitiveWord)
+                || (((NonPrimitiveWord) eif).size() > threshold)) {
+            return null;
+        }
+
+        NonPrimitiveWord callee = (NonPrimitiveWord) eif;
+        ArrayList<ExecuteIF> body = new ArrayList<ExecuteIF>();
+        ArrayList<NonPrimitiveWord> used = new ArrayList<NonPrimitiveWord>();
+
+        for (int i = 0; i < callee.size(); i++) {
+            ExecuteIF word = callee.getWord(i);
+
+            // Only straight line code is inlined
+            if (isBranch(word) || (word instanceof DoLoopControlWord) || (word instanceof LeaveLoopControlWord)) {
+                return null;
+            }
+
+            ArrayList<ExecuteIF> nested = inlineBody(word, used);
+
+            if (nested != null) {
+                body.addAll(nested);
+
+            } else {
+                body.add(word);
+            }
+
+            if (body.size() > threshold) {
+                return null;
+            }
+        }
+
+        inlined.addAll(used);
+        inlined.add(callee);
+
+        return body;
+    }
+
+    // Primitives with an inline fast path get their own opcode
+    private static int callOpcode(ExecuteIF eif) {
+
+        if (eif instanceof PrimitiveWord) {
+            String name = ((PrimitiveWord) eif).name;
+
+            for (int i = 0; i < INLINED.length; i++) {
+                if (INLINED[i].equals(name)) {
+                    return OP_ADD + i;
+                }
+            }
+        }
+
+        return OP_CALL;
+    }
+
+    // Opcodes and operands, for the bytecode compiler
+    int[] getCode() {
+        return code;
+    }
+
+    Object[] getPool() {
+        return pool;
+    }
+
+    /**
+     * Run the compiled code. Runtime errors are reported with the same
+     * messages as the control words they replace.
+     *
+     * @return 1 on success or 0 if an error occurred
+     */
+    public int execute(OStack dStack, OStack vStack) {
+        return run(dStack, vStack, 0, null);
+    }
+
+    /**
+     * Run the compiled code from an address. Given a continuation, words
+     * are called through it, and the code stops when a call can't be
+     * finished here: when it enters another definition or the task gives up
+     * its turn. The continuation has recorded where to carry on.
+     *
+     * @param ip is the address to start at
+     * @param k  is the continuation of the task running the code, or null
+     * @return 1 on reaching the end of the code, 0 if an error occurred or
+     * Continuation.SUSPENDED if the code stopped at a call
+     */
+    int run(OStack dStack, OStack vStack, int ip, Continuation k) {
+
+        final int[] code = this.code;
+        final Object[] pool = this.pool;
+        final int length = code.length;
+
+        int flag;
+
+        while (ip < length) {
+
+            switch (code[ip]) {
+
+                case OP_LIT:
+                    dStack.pushInt(code[ip + 1]);
+                    ip += 2;
+                    break;
+
+                case OP_REF:
+                    dStack.push(pool[code[ip + 1]]);
+                    ip += 2;
+                    break;
+
+                case OP_CALL:
+                    if (k != null) {
+
+                        if ((flag = k.call(this, ip + 2, (ExecuteIF) pool[code[ip + 1]])) != 1) {
+                            return flag;
+                        }
+
+                    } else if (!Ops.call(dStack, vStack, pool, code[ip + 1])) {
+                        return 0;
+                    }
+                    ip += 2;
+                    break;
+
+                case OP_BRANCH:
+                    ip = code[ip + 1];
+                    break;
+
+                case OP_IF:
+                    if ((flag = Ops.ifFlag(dStack)) < 0) {
+                        return 0;
+                    }
+                    ip = (flag != 0) ? ip + 2 : code[ip + 1];
+                    break;
+
+                case OP_END:
+                    if ((flag = Ops.endFlag(dStack)) < 0) {
+                        return 0;
+                    }
+                    ip = (flag != 0) ? ip + 2 : code[ip + 1];
+                    break;
+
+                case OP_DO:
+                    if (!Ops.doLoop(dStack, vStack)) {
+                        return 0;
+                    }
+                    ip += 1;
+                    break;
+
+                case OP_LOOP:
+                    if ((flag = Ops.loop(vStack)) < 0) {
+                        return 0;
+                    }
+                    ip = (flag != 0) ? code[ip + 1] : ip + 2;
+                    break;
+
+                case OP_PLUS_LOOP:
+                    if ((flag = Ops.plusLoop(dStack, vStack)) < 0) {
+                        return 0;
+                    }
+                    ip = (flag != 0) ? code[ip + 1] : ip + 2;
+                    break;
+
+                case OP_LEAVE:
+                    if (!Ops.leave(vStack)) {
+                        return 0;
+                    }
+                    ip += 1;
+                    break;
+
+                case OP_ADD:
+                    if (!Ops.add(dStack, vStack, pool, code[ip + 1])) {
+                        return 0;
+                    }
+                    ip += 2;
+                    break;
+
+                case OP_SUB:
+                    if (!Ops.sub(dStack, vStack, pool, code[ip + 1])) {
+                        return 0;
+                    }
+                    ip += 2;
+                    break;
+
+                case OP_MUL:
+                    if (!Ops.mul(dStack, vStack, pool, code[ip + 1])) {
+                        return 0;
+                    }
+                    ip += 2;
+                    break;
+
+                case OP_INC:
+                    if (!Ops.inc(dStack, vStack, pool, code[ip + 1])) {
+                        return 0;
+                    }
+                    ip += 2;
+                    break;
+
+                case OP_DEC:
+                    if (!Ops.dec(dStack, vStack, pool, code[ip + 1])) {
+                        return 0;
+                    }
+                    ip += 2;
+                    break;
+
+                case OP_DUP:
+                    if (!Ops.dup(dStack)) {
+                        return 0;
+                    }
+                    ip += 2;
+                    break;
+
+                case OP_DROP:
+                    if (!Ops.drop(dStack)) {
+                        return 0;
+                    }
+                    ip += 2;
+                    break;
+
+                case OP_SWAP:
+                    if (!Ops.swap(dStack)) {
+                        return 0;
+                    }
+                    ip += 2;
+                    break;
+
+                case OP_OVER:
+                    if (!Ops.over(dStack)) {
+                        return 0;
+                    }
+                    ip += 2;
+                    break;
+
+                case OP_LT:
+                    if (!Ops.lessThan(dStack, vStack, pool, code[ip + 1])) {
+                        return 0;
+                    }
+                    ip += 2;
+                    break;
+
+                case OP_EQ:
+                    if (!Ops.equal(dStack, vStack, pool, code[ip + 1])) {
+                        return 0;
+                    }
+                    ip += 2;
+                    break;
+
+                case OP_GT:
+                    if (!Ops.greaterThan(dStack, vStack, pool, code[ip + 1])) {
+                        return 0;
+                    }
+                    ip += 2;
+                    break;
+
+                case OP_ZERO_EQ:
+                    if (!Ops.zeroEqual(dStack, vStack, pool, code[ip + 1])) {
+                        return 0;
+                    }
+                    ip += 2;
+                    break;
+
+                case OP_I:
+                    if (!Ops.loopIndex(dStack, vStack)) {
+                        return 0;
+                    }
+                    ip += 2;
+                    break;
+
+                case OP_LIT_ADD:
+                    if (!Ops.literalAdd(dStack, vStack, pool, code[ip + 1], code[ip + 2])) {
+                        return 0;
+                    }
+                    ip += 3;
+                    break;
+
+                case OP_LIT_SUB:
+                    if (!Ops.literalSub(dStack, vStack, pool, code[ip + 1], code[ip + 2])) {
+                        return 0;
+                    }
+                    ip += 3;
+                    break;
+
+                case OP_LIT_MUL:
+                    if (!Ops.literalMul(dStack, vStack, pool, code[ip + 1], code[ip + 2])) {
+                        return 0;
+                    }
+                    ip += 3;
+                    break;
+
+                case OP_LIT_LT:
+                    if (!Ops.literalLessThan(dStack, vStack, pool, code[ip + 1], code[ip + 2])) {
+                        return 0;
+                    }
+                    ip += 3;
+                    break;
+
+                case OP_DUP_MUL:
+                    if (!Ops.dupMul(dStack, vStack, pool, code[ip + 1])) {
+                        return 0;
+                    }
+                    ip += 2;
+                    break;
+
+                case OP_VAR_FETCH:
+                    if (!Ops.variableFetch(dStack, vStack, pool, code[ip + 1])) {
+                        return 0;
+                    }
+                    ip += 2;
+                    break;
+
+                case OP_VAR_STORE:
+                    if (!Ops.variableStore(dStack, vStack, pool, code[ip + 1])) {
+                        return 0;
+                    }
+                    ip += 2;
+                    break;
+
+                case OP_ARRAY_FETCH:
+                    if (!Ops.arrayFetch(dStack, vStack, pool, code[ip + 1])) {
+                        return 0;
+                    }
+                    ip += 2;
+                    break;
+
+                case OP_ARRAY_STORE:
+                    if (!Ops.arrayStore(dStack, vStack, pool, code[ip + 1])) {
+                        return 0;
+                    }
+                    ip += 2;
+                    break;
+
+                case OP_I_ARRAY_FETCH:
+                    if (!Ops.indexArrayFetch(dStack, vStack, pool, code[ip + 1])) {
+                        return 0;
+                    }
+                    ip += 2;
+                    break;
+
+                case OP_ZERO_EQ_IF:
+                    if ((flag = Ops.zeroEqualFlag(dStack, vStack, pool, code[ip + 2])) < 0) {
+                        return 0;
+                    }
+                    ip = (flag != 0) ? ip + 3 : code[ip + 1];
+                    break;
+
+                default:
+                    dStack.out().println("Invalid threaded code at " + ip);
+                    return 0;
+            }
+        }
+
+        return 1;
+    }
+}
@@ -1,22 +1,76 @@
 package com.jforth;
 
-import java.util.Iterator;
-import java.util.LinkedList;
+import java.util.Arrays;
 
 /**
  * WordsList Class for mini Forth Implementation
  * <p/>
- * This is a simple linked list class for linking BaseWord objects
- * together. The list can be added to, can be searched and can be truncated
- * at a specified position.
+ * This is the dictionary. Words are kept in definition order for listing
+ * and truncation, and are also indexed by a hash table so that a search
+ * costs the same whatever the size of the dictionary.
+ * <p/>
+ * Each hash bucket is a chain of entries with the most recent definition
+ * first. A word that redefines an existing name therefore shadows the older
+ * definition, which stays further down the chain and becomes visible again
+ * when the newer one is forgotten.
+ * <p/>
+ * A session's dictionary holds only the words defined in that session and
+ * has the shared dictionary of its core as a parent. Searches look through
+ * the session's words first, then the parent's. The parent is never changed
+ * through the session: its words can be shadowed but not forgotten.
+ * <p/>
+ * Searches take no locks. Changes are made one at a time and each publishes
+ * a new snapshot of the list, which searches started later see whole. The
+ * words and hash table are shared by the snapshots and only ever appended
+ * to: each entry records its position in definition order, and a snapshot
+ * skips entries newer than itself. Forgetting words and growing the table
+ * build new arrays, so older snapshots are never disturbed.
  * <p/>
  * Written by: Craig A. Lindley
  * Last Update: 03/03/2008
  */
 public class WordsList {
 
+    private static final int INITIAL_CAPACITY = 256;
+    private static final int SESSION_CAPACITY = 16;
+
+    // A single dictionary entry in a hash bucket chain
+    private static final class Entry {
+
+        final int hash;
+        final int index;
+        final BaseWord word;
+        final Entry next;
+
+        Entry(int hash, int index, BaseWord word, Entry next) {
+
+            this.hash = hash;
+            this.index = index;
+            this.word = word;
+            this.next = next;
+        }
+    }
+
+    // The list as of one change. Only the first count words are in it.
+    private static final class Snapshot {
+
+        final BaseWord[] words;
+        final int count;
+        final Entry[] table;
+        final int version;
+
+        Snapshot(BaseWord[] words, int count, Entry[] table, int version) {
+
+            this.words = words;
+            this.count = count;
+            this.table = table;
+            this.version = version;
+        }
+    }
+
     // Class data
-    private LinkedList<BaseWord> wordsList;
+    private volatile Snapshot current;
+    private final WordsList parent;
 
     /**
      * Words List class constructor.
@@ -24,7 +78,18 @@ public class WordsList {
      * Sets the content of the list to empty
      */
     public WordsList() {
-        wordsList = new LinkedList<BaseWord>();
+        this(null);
+    }
+
+    /**
+     * Words List constructor for a session's dictionary.
+     *
+     * @param parent is the dictionary searched after the words of this one
+     */
+    public WordsList(WordsList parent) {
+
+        this.parent = parent;
+        current = empty(0);
     }
 
     /**
@@ -33,23 +98,88 @@ public class WordsList {
      * @return boolean true if list is empty, false if not empty
      */
     public boolean isEmpty() {
-        return wordsList.size() == 0;
+        return current.count == 0;
+    }
+
+    /**
+     * Number of words in the list, including shadowed ones but not those
+     * of the parent
+     *
+     * @return int count of words
+     */
+    public int size() {
+        return current.count;
+    }
+
+    /**
+     * Count of the changes made to the list, so a user can tell whether
+     * the list is the same as when last looked at
+     *
+     * @return int which changes whenever words are added or removed
+     */
+    public int getVersion() {
+        return current.version;
+    }
+
+    /**
+     * Get a word by its position in definition order
+     *
+     * @param index is the position of the word, 0 being the first defined
+     * @return BaseWord at that position
+     */
+    public BaseWord get(int index) {
+
+        Snapshot s = current;
+
+        if ((index < 0) || (index >= s.count)) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + s.count);
+        }
+
+        return s.words[index];
     }
 
     /**
      * Remove all elements from the list
      */
-    public void clear() {
-        wordsList.clear();
+    public synchronized void clear() {
+        current = empty(current.version + 1);
     }
 
     /**
-     * Add a BaseWord onto the list at the end
+     * Add a BaseWord onto the list at the end. It shadows any earlier
+     * word of the same name.
      *
      * @param bw is the element to add to the list
      */
-    public void add(BaseWord bw) {
-        wordsList.add(bw);
+    public synchronized void add(BaseWord bw) {
+
+        Snapshot s = current;
+        BaseWord shadowed = find(s, bw.name);
+
+        if (shadowed != null) {
+            shadowed.invalidate();
+        }
+
+        // Slots past the end of the latest snapshot are unused by any other
+        BaseWord[] words = s.words;
+
+        if (s.count == words.length) {
+            words = Arrays.copyOf(words, words.length << 1);
+        }
+
+        words[s.count] = bw;
+
+        int count = s.count + 1;
+        Entry[] table = s.table;
+
+        if (count > table.length - (table.length >> 2)) {
+            table = table(words, count, table.length << 1);
+
+        } else {
+            link(table, bw, s.count);
+        }
+
+        current = new Snapshot(words, count, table, s.version + 1);
     }
 
     /**
@@ -60,21 +190,23 @@ public class WordsList {
      */
     public String toString(boolean showDetail) {
 
-        if (isEmpty()) {
+        if (isEmpty() && ((parent == null) || parent.isEmpty())) {
             return "WordsList is empty\n";
         }
 
         StringBuffer sb = new StringBuffer();
         sb.append("Words:\n");
 
-        Iterator<BaseWord> i1 = wordsList.descendingIterator();
+        for (WordsList list = this; list != null; list = list.parent) {
+            Snapshot s = list.current;
 
-        while (i1.hasNext()) {
-            BaseWord bw = i1.next();
-            sb.append(bw.toString(showDetail));
+            for (int i = s.count - 1; i >= 0; i--) {
+                BaseWord bw = s.words[i];
+                sb.append(bw.toString(showDetail));
 
-            if (showDetail) {
-                sb.append("\n");
+                if (showDetail) {
+                    sb.append("\n");
+                }
             }
         }
 
@@ -85,27 +217,71 @@ public class WordsList {
      * Search the list for the specified element
      *
      * @param wordName is the word being searched for
-     * @return BaseWord reference if word is found or null if it wasn't
+     * @return BaseWord reference to the most recent definition if word is
+     * found or null if it wasn't
      */
-    public BaseWord search(String wordName) throws Exception {
+    public BaseWord search(String wordName) {
 
-        if (isEmpty()) {
-            throw new Exception("WordsList is empty");
+        BaseWord bw = find(current, wordName);
+
+        if ((bw == null) && (parent != null)) {
+            bw = parent.search(wordName);
         }
 
-        Iterator<BaseWord> i1 = wordsList.descendingIterator();
+        return bw;
+    }
 
-        while (i1.hasNext()) {
-            BaseWord bw = i1.next();
+    // Search a snapshot of this list without its parent
+    private static BaseWord find(Snapshot s, String wordName) {
 
-            if (bw.name.equals(wordName)) {
-                return bw;
+        int hash = hash(wordName.hashCode());
+
+        for (Entry e = s.table[hash & (s.table.length - 1)]; e != null; e = e.next) {
+
+            if ((e.hash == hash) && (e.index < s.count) && e.word.name.equals(wordName)) {
+                return e.word;
             }
         }
 
         return null;
     }
 
+    /**
+     * Search the list for a name held in part of a char array, without
+     * making a String of it
+     *
+     * @param chars  holds the name of the word being searched for
+     * @param offset is the index of the first character of the name
+     * @param length is the number of characters in the name
+     * @return BaseWord reference to the most recent definition if word is
+     * found or null if it wasn't
+     */
+    public BaseWord search(char[] chars, int offset, int length) {
+
+        // Same hash as String.hashCode()
+        int h = 0;
+
+        for (int i = offset; i < offset + length; i++) {
+            h = 31 * h + chars[i];
+        }
+
+        return search(hash(h), chars, offset, length);
+    }
+
+    private BaseWord search(int hash, char[] chars, int offset, int length) {
+
+        Snapshot s = current;
+
+        for (Entry e = s.table[hash & (s.table.length - 1)]; e != null; e = e.next) {
+
+            if ((e.hash == hash) && (e.index < s.count) && matches(e.word.name, chars, offset, length)) {
+                return e.word;
+            }
+        }
+
+        return (parent != null) ? parent.search(hash, chars, offset, length) : null;
+    }
+
     /**
      * Truncate list at specified element. Assumes the BaseWord passed in
      * is contained in the list. It had better be.
@@ -113,24 +289,82 @@ public class WordsList {
      * @param bw is the first word in the list to forget.
      *           All words from this word to the end of the list are forgotten.
      *           bw is usually found using the search method above.
+     * @return false if the word isn't in this list, such as a word of the parent
      */
-    public void truncateList(BaseWord bw) {
+    public synchronized boolean truncateList(BaseWord bw) {
 
-        int size = wordsList.size();
-        int index = wordsList.lastIndexOf(bw);
+        Snapshot s = current;
+        int index = s.count - 1;
 
-        if (index != -1) {
+        while ((index >= 0) && (s.words[index] != bw)) {
+            index--;
+        }
 
-            for (int i = index; i < size; i++) {
-                wordsList.remove(index);
-            }
+        if (index == -1) {
+            return false;
+        }
+
+        // New arrays, as older snapshots still hold the forgotten words
+        BaseWord[] words = new BaseWord[s.words.length];
+        System.arraycopy(s.words, 0, words, 0, index);
 
+        current = new Snapshot(words, index, table(words, index, s.table.length), s.version + 1);
+
+        for (int i = s.count - 1; i >= index; i--) {
+            s.words[i].invalidate();
         }
+
+        return true;
     }
-}
 
+    // Snapshot of an empty list
+    private Snapshot empty(int version) {
 
+        int capacity = (parent == null) ? INITIAL_CAPACITY : SESSION_CAPACITY;
 
+        return new Snapshot(new BaseWord[capacity], 0, new Entry[capacity], version);
+    }
 
+    // Supplemental hash so that names differing only in high bits spread out
+    private static int hash(int h) {
+        return h ^ (h >>> 16);
+    }
 
+    private static boolean matches(String name, char[] chars, int offset, int length) {
+
+        if (name.length() != length) {
+            return false;
+        }
+
+        for (int i = 0; i < length; i++) {
+
+            if (name.charAt(i) != chars[offset + i]) {
+                return false;
+            }
+        }
 
+        return true;
+    }
+
+    // Put a word at the head of its bucket. Snapshots older than the word
+    // skip over it, so the table can be shared with them.
+    private static void link(Entry[] table, BaseWord bw, int index) {
+
+        int hash = hash(bw.name.hashCode());
+        int slot = hash & (table.length - 1);
+
+        table[slot] = new Entry(hash, index, bw, table[slot]);
+    }
+
+    // Build a table in definition order so newer words stay in front
+    private static Entry[] table(BaseWord[] words, int count, int capacity) {
+
+        Entry[] table = new Entry[capacity];
+
+        for (int i = 0; i < count; i++) {
+            link(table, words[i], i);
+        }
+
+        return table;
+    }
+}
@@ -0,0 +1,104 @@
+package com.jforth
+
+class BatchSpec extends ForthSpecification {
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream()
+    JForth forth = new JForth()
+
+    def setup() {
+        forth.setOutput(new OutputSink(bytes))
+    }
+
+    int batch(File... files) {
+        return forth.runBatch(files*.path as String[])
+    }
+
+    def "a batch that runs through returns 0 with no prompts or OKs"() {
+        when:
+        int status = batch(source(': sq dup * ;\n'), source('3 sq .\ncr\n4 sq .\n'))
+
+        then:
+        status == 0
+        bytes.toString() == "9\n16"
+    }
+
+    def "a batch stops at the first error and returns 1"() {
+        given:
+        File ran = source('1 .\n')
+        File failing = source('2 .\nbogus\n3 .\n')
+        File skipped = source('4 .\n')
+
+        when:
+        int status = batch(ran, failing, skipped)
+
+        then:
+        status == 1
+        bytes.toString() == '12bogus ?\nFile: "' + failing.path + '" error at line 2\n'
+    }
+
+    def "an immediate word failing in a definition fails the batch"() {
+        given:
+        File failing = source(': foo loop ;\n1 .\n')
+
+        when:
+        int status = batch(failing)
+
+        then:
+        status == 1
+        bytes.toString() == 'loop - word execution or stack error\nFile: "' + failing.path + '" error at line 1\n'
+        forth.dictionary.search("foo") == null
+        !forth.compiling
+    }
+
+    def "a file ending inside a definition fails the batch"() {
+        given:
+        File failing = source('1 .\n: foo 1 2\n')
+
+        when:
+        int status = batch(failing, source('2 .\n'))
+
+        then:
+        status == 1
+        bytes.toString() == '1foo - definition from line 2 not ended\nFile: "' + failing.path + '" error at line 3\n'
+        forth.dictionary.search("foo") == null
+        !forth.compiling
+    }
+
+    def "a missing file fails the batch"() {
+        expect:
+        batch(new File("no-such-file.fs")) == 1
+        bytes.toString().contains("not found")
+    }
+
+    def "standard input is run for -"() {
+        given:
+        InputStream saved = System.in
+        System.setIn(new ByteArrayInputStream('5 5 * .\n'.bytes))
+
+        when:
+        int status = forth.runBatch(["-"] as String[])
+
+        then:
+        status == 0
+        bytes.toString() == "25"
+
+        cleanup:
+        System.setIn(saved)
+    }
+
+    def "standard input ending inside a definition fails the batch"() {
+        given:
+        InputStream saved = System.in
+        System.setIn(new ByteArrayInputStream(': foo 1 2\n'.bytes))
+
+        when:
+        int status = forth.runBatch(["-"] as String[])
+
+        then:
+        status == 1
+        bytes.toString() == "foo - definition from line 1 not ended\nInput error at line 2\n"
+
+        cleanup:
+        System.setIn(saved)
+    }
+}
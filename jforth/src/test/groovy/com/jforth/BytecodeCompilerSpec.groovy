@@ -0,0 +1,95 @@
+package com.jforth
+
+class BytecodeCompilerSpec extends ForthSpecification {
+
+    boolean threaded
+    int jit
+
+    def setup() {
+        threaded = NonPrimitiveWord.isThreadedCode()
+        jit = NonPrimitiveWord.getJitThreshold()
+        NonPrimitiveWord.setThreadedCode(true)
+    }
+
+    def cleanup() {
+        NonPrimitiveWord.setThreadedCode(threaded)
+        NonPrimitiveWord.setJitThreshold(jit)
+    }
+
+    static NonPrimitiveWord word(JForth forth, String name) {
+        return (NonPrimitiveWord) forth.dictionary.search(name)
+    }
+
+    def "a threshold of 0 compiles on the first call"() {
+        given:
+        NonPrimitiveWord.setJitThreshold(0)
+        JForth forth = new JForth()
+
+        when:
+        String out = run(forth, ': t 0 10 0 do i + loop ; t .')
+
+        then:
+        out == "45"
+        word(forth, "t").@compiled != null
+    }
+
+    def "a word is compiled after threshold runs of threaded code"() {
+        given:
+        NonPrimitiveWord.setJitThreshold(3)
+        JForth forth = new JForth()
+        run(forth, ': t 2 3 * ;')
+
+        when:
+        String first = run(forth, 't t t . . .')
+
+        then:
+        first == "666"
+        word(forth, "t").@compiled == null
+
+        when:
+        String then = run(forth, 't .')
+
+        then:
+        then == "6"
+        word(forth, "t").@compiled != null
+    }
+
+    def "a negative threshold never compiles"() {
+        given:
+        NonPrimitiveWord.setJitThreshold(-1)
+        JForth forth = new JForth()
+
+        when:
+        run(forth, ': t 1 ; t t t drop drop drop')
+
+        then:
+        word(forth, "t").@compiled == null
+    }
+
+    def "compiled code gives the same results"() {
+        given:
+        NonPrimitiveWord.setJitThreshold(0)
+
+        expect:
+        run(': t 0 3 0 do 4 0 do j i * + loop loop ; t .') == "18"
+        run(': t if "yes" else "no" then ; 1 t . 0 t .') == "yesno"
+        run(': t 0 20 0 do i 5 = if leave then i + loop ; t .') == "30"
+    }
+
+    def "redefining a word inlined by a compiled caller drops the compiled caller"() {
+        given:
+        NonPrimitiveWord.setJitThreshold(0)
+        JForth forth = new JForth()
+        run(forth, ': v 1 ; : t v 10 + ; t drop')
+        NonPrimitiveWord caller = word(forth, "t")
+
+        expect:
+        caller.@compiled != null
+
+        when:
+        run(forth, ': v 2 ;')
+
+        then:
+        caller.@compiled == null
+    }
+}
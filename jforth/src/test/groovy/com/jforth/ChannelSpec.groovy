@@ -0,0 +1,94 @@
+package com.jforth
+
+class ChannelSpec extends ForthSpecification {
+
+    def "capacity is rounded up to a power of two"() {
+        expect:
+        new Channel(3).capacity() == 4
+        new Channel(8).capacity() == 8
+    }
+
+    def "a batch goes in and comes out whole or not at all"() {
+        given:
+        Channel channel = new Channel(4)
+        Object[] cells = [1, 2, 3] as Object[]
+        Object[] received = new Object[3]
+
+        expect:
+        channel.send(cells, 0, 3)
+        !channel.send(cells, 0, 2)
+        channel.size() == 3
+        channel.send(cells, 0, 1)
+        !channel.receive(new Object[5], 0, 5)
+        channel.receive(received, 0, 3)
+        received == [1, 2, 3] as Object[]
+        channel.receive() == 1
+        channel.receive() == null
+    }
+
+    def "batches from concurrent senders stay together"() {
+        given:
+        Channel channel = new Channel(64)
+        int senders = 4
+        int batches = 1000
+        List<Thread> threads = (0..<senders).collect { int s ->
+            Thread.start {
+                Object[] batch = [s, s, s] as Object[]
+                for (int b = 0; b < batches; b++) {
+                    while (!channel.send(batch, 0, 3)) {
+                        Thread.yield()
+                    }
+                }
+            }
+        }
+
+        when:
+        Object[] cells = new Object[3]
+        int received = 0
+        boolean together = true
+
+        while (received < senders * batches) {
+            if (channel.receive(cells, 0, 3)) {
+                together &= (cells[0] == cells[1]) && (cells[1] == cells[2])
+                received++
+            }
+        }
+
+        threads*.join()
+
+        then:
+        together
+        channel.size() == 0
+    }
+
+    def "send-n and receive-n keep the order of the cells"() {
+        given:
+        JForth forth = new JForth()
+        run(forth, '8 channel ch')
+
+        expect:
+        run(forth, '1 2 3 3 ch send-n 3 ch receive-n . . .') == "321"
+        run(forth, '"a" 5 2 ch send-n ch receive . ch receive .') == "a5"
+        run(forth, '7 ch send 0 ch receive-n ch receive .') == "7"
+    }
+
+    def "batch counts outside the capacity are refused"() {
+        given:
+        JForth forth = new JForth()
+        run(forth, '4 channel ch')
+
+        expect:
+        run(forth, '1 2 3 4 5 5 ch send-n').startsWith("send-n - count must be 0 to the channel capacity 4")
+        run(forth, '-1 ch receive-n').startsWith("receive-n - count must be 0 to the channel capacity 4")
+    }
+
+    def "try-send and try-receive don't wait"() {
+        given:
+        JForth forth = new JForth()
+        run(forth, '2 channel ch')
+
+        expect:
+        run(forth, '1 ch try-send . 2 ch try-send . 3 ch try-send .') == "110"
+        run(forth, 'ch try-receive . . ch try-receive . . ch try-receive .') == "11120"
+    }
+}
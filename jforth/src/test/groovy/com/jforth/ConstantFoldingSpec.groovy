@@ -0,0 +1,51 @@
+package com.jforth
+
+class ConstantFoldingSpec extends ForthSpecification {
+
+    static NonPrimitiveWord define(JForth forth, String source, String name) {
+        run(forth, source)
+        return (NonPrimitiveWord) forth.dictionary.search(name)
+    }
+
+    def "literal arithmetic is folded into one literal"() {
+        given:
+        JForth forth = new JForth()
+
+        when:
+        NonPrimitiveWord t = define(forth, ': t 2 3 + 4 * ;', "t")
+
+        then:
+        t.size() == 1
+        ((NumericLiteral) t.getWord(0)).getNumber() == 20
+        run(forth, 't .') == "20"
+    }
+
+    def "constants are inlined as literals and folded"() {
+        given:
+        JForth forth = new JForth()
+
+        when:
+        NonPrimitiveWord t = define(forth, '10 constant ten : t ten 1 + ;', "t")
+
+        then:
+        t.size() == 1
+        run(forth, 't .') == "11"
+    }
+
+    def "literals before a branch target are not folded into it"() {
+        given:
+        JForth forth = new JForth()
+
+        when:
+        NonPrimitiveWord t = define(forth, ': t 0 begin 1 + dup 4 = end ;', "t")
+
+        then:
+        t.size() > 1
+        run(forth, 't .') == "4"
+    }
+
+    def "folding stops at words with side effects"() {
+        expect:
+        run(': t 1 2 . 3 + ; t .') == "24"
+    }
+}
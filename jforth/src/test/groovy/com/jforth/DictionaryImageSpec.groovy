@@ -0,0 +1,99 @@
+package com.jforth
+
+class DictionaryImageSpec extends ForthSpecification {
+
+    static final String DEFINITIONS = '''
+        10 constant ten
+        variable v  7 v !
+        4 array a  5 2 a !
+        "hi" constant greeting
+        : sq dup * ;
+        : sum 0 swap 0 do i + loop ;
+        : pick1 0= if 1 else 2 then ;
+        : test ten sq v @ + 2 a @ + 4 sum + ;
+        '''
+
+    static File image() {
+        File file = File.createTempFile("jforth", ".img")
+        file.deleteOnExit()
+        return file
+    }
+
+    def "an image restores the words it was saved from"() {
+        given:
+        File file = image()
+        JForth saved = new JForth()
+        run(saved, DEFINITIONS)
+        run(saved, '"' + file.path + '" save-image')
+
+        when:
+        JForth loaded = new JForth()
+        String out = run(loaded, '"' + file.path + '" ' + (lazy ? 'map-image' : 'load-image'))
+
+        then:
+        out == ""
+        run(loaded, 'test .') == run(saved, 'test .')
+        run(loaded, 'test .') == "118"
+        run(loaded, '0 pick1 . 5 pick1 .') == "12"
+        run(loaded, 'greeting .') == "hi"
+
+        where:
+        lazy << [false, true]
+    }
+
+    def "loading an image replaces the session's own words"() {
+        given:
+        File file = image()
+        JForth saved = new JForth()
+        run(saved, ': only-saved 1 ;')
+        run(saved, '"' + file.path + '" save-image')
+
+        JForth loaded = new JForth()
+        run(loaded, ': only-loaded 2 ;')
+
+        when:
+        run(loaded, '"' + file.path + '" load-image')
+
+        then:
+        loaded.dictionary.search("only-saved") != null
+        loaded.dictionary.search("only-loaded") == null
+    }
+
+    def "tasks and channels are saved and restored empty"() {
+        given:
+        File file = image()
+        JForth saved = new JForth()
+        run(saved, '4 channel ch  7 ch send  task: t  variable total 0 total !')
+        run(saved, ': fill 3 0 do i ch send loop ;')
+        run(saved, ': drain 3 0 do ch receive total @ + total ! loop ;')
+
+        when:
+        String out = run(saved, '"' + file.path + '" save-image')
+        JForth loaded = new JForth()
+        run(loaded, '"' + file.path + '" ' + (lazy ? 'map-image' : 'load-image'))
+
+        then:
+        out == ""
+        run(loaded, 'ch try-receive .') == "0"
+        run(loaded, 'fill drain total @ .') == "3"
+        run(loaded, "' fill t activate pause 3 ch receive-n + + .") == "3"
+        loaded.dictionary.search("ch").getChannel().capacity() == 4
+
+        where:
+        lazy << [false, true]
+    }
+
+    def "a file that isn't an image leaves the dictionary alone"() {
+        given:
+        File file = source("not an image")
+        JForth forth = new JForth()
+        run(forth, ': keep 3 ;')
+
+        when:
+        String out = run(forth, '"' + file.path + '" load-image')
+
+        then:
+        out.startsWith("load-image - ")
+        run(forth, 'keep .') == "3"
+    }
+}
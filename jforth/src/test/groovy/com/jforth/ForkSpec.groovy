@@ -0,0 +1,95 @@
+package com.jforth
+
+class ForkSpec extends ForthSpecification {
+
+    static File image() {
+        File file = File.createTempFile("jforth", ".img")
+        file.deleteOnExit()
+        return file
+    }
+
+    def "a fork shares the parent's compiled words"() {
+        given:
+        JForth parent = new JForth()
+        run(parent, ': sq dup * ; 3 sq drop')
+
+        when:
+        JForth child = parent.fork()
+
+        then:
+        child.dictionary.search("sq").is(parent.dictionary.search("sq"))
+        run(child, '5 sq .') == "25"
+    }
+
+    def "definitions made after the fork are not shared"() {
+        given:
+        JForth parent = new JForth()
+        JForth child = parent.fork()
+
+        when:
+        run(child, ': only-child 1 ;')
+        run(parent, ': only-parent 2 ;')
+
+        then:
+        parent.dictionary.search("only-child") == null
+        child.dictionary.search("only-parent") == null
+    }
+
+    def "storage is copied by whichever session writes first"() {
+        given:
+        JForth parent = new JForth()
+        run(parent, 'variable v 1 v ! 3 array a 7 1 a !')
+        JForth child = parent.fork()
+
+        when:
+        run(child, '2 v ! 8 1 a !')
+
+        then:
+        run(parent, 'v @ . 1 a @ .') == "17"
+        run(child, 'v @ . 1 a @ .') == "28"
+
+        when:
+        run(parent, '5 v !')
+
+        then:
+        run(parent, 'v @ .') == "5"
+        run(child, 'v @ .') == "2"
+        run(parent.fork(), 'v @ .') == "5"
+    }
+
+    def "an image saves the values the saving session sees"() {
+        given:
+        File file = image()
+        JForth parent = new JForth()
+        run(parent, 'variable v 1 v !')
+        JForth child = parent.fork()
+        run(parent, '2 v !')
+        run(child, '3 v !')
+
+        when:
+        run(parent, '"' + file.path + '" save-image')
+        JForth loaded = new JForth()
+        run(loaded, '"' + file.path + '" load-image')
+
+        then:
+        run(parent, 'v @ .') == "2"
+        run(loaded, 'v @ .') == "2"
+    }
+
+    def "an image saved after mark has the values written since"() {
+        given:
+        File file = image()
+        JForth forth = new JForth()
+        run(forth, 'variable v 1 v !')
+        forth.mark()
+        run(forth, '4 v !')
+
+        when:
+        run(forth, '"' + file.path + '" save-image')
+        JForth loaded = new JForth()
+        run(loaded, '"' + file.path + '" load-image')
+
+        then:
+        run(loaded, 'v @ .') == "4"
+    }
+}
@@ -0,0 +1,43 @@
+package com.jforth
+
+import spock.lang.Specification
+
+/**
+ * Base of the specifications which run Forth source through a session and
+ * look at what it printed.
+ */
+abstract class ForthSpecification extends Specification {
+
+    // Interpret text in a session and return what it printed
+    static String run(JForth forth, String text) {
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream()
+        OutputSink saved = forth.getOutput()
+
+        forth.setOutput(new OutputSink(bytes))
+
+        try {
+            forth.interpretLine(text)
+            forth.getOutput().flush()
+
+        } finally {
+            forth.setOutput(saved)
+        }
+
+        return bytes.toString('UTF-8')
+    }
+
+    static String run(String text) {
+        return run(new JForth(), text)
+    }
+
+    // Write source to a temporary file
+    static File source(String text) {
+
+        File file = File.createTempFile("jforth", ".fs")
+        file.deleteOnExit()
+        file.setText(text, 'UTF-8')
+
+        return file
+    }
+}
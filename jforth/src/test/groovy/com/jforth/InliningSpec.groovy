@@ -0,0 +1,80 @@
+package com.jforth
+
+class InliningSpec extends ForthSpecification {
+
+    boolean threaded
+    int jit
+    int inline
+
+    def setup() {
+        threaded = NonPrimitiveWord.isThreadedCode()
+        jit = NonPrimitiveWord.getJitThreshold()
+        inline = NonPrimitiveWord.getInlineThreshold()
+        NonPrimitiveWord.setThreadedCode(true)
+        NonPrimitiveWord.setJitThreshold(-1)
+        NonPrimitiveWord.setInlineThreshold(8)
+    }
+
+    def cleanup() {
+        NonPrimitiveWord.setThreadedCode(threaded)
+        NonPrimitiveWord.setJitThreshold(jit)
+        NonPrimitiveWord.setInlineThreshold(inline)
+    }
+
+    static NonPrimitiveWord word(JForth forth, String name) {
+        return (NonPrimitiveWord) forth.dictionary.search(name)
+    }
+
+    def "a short word is inlined and its caller recorded as a dependent"() {
+        given:
+        JForth forth = new JForth()
+
+        when:
+        String out = run(forth, ': sq dup * ; : t 3 sq ; t .')
+
+        then:
+        out == "9"
+        word(forth, "sq").@dependents.contains(word(forth, "t"))
+    }
+
+    def "redefining an inlined word drops the caller's compiled code"() {
+        given:
+        JForth forth = new JForth()
+        run(forth, ': sq dup * ; : t 3 sq ; t drop')
+        NonPrimitiveWord t = word(forth, "t")
+
+        expect:
+        t.@code != null
+
+        when:
+        run(forth, ': sq dup + ;')
+
+        then:
+        t.@code == null
+        run(forth, 't .') == "9"
+    }
+
+    def "words with branches are not inlined"() {
+        given:
+        JForth forth = new JForth()
+
+        when:
+        String out = run(forth, ': m dup 0 < if drop 0 then ; : t -1 m 5 m + ; t .')
+
+        then:
+        out == "5"
+        word(forth, "m").@dependents == null
+    }
+
+    def "an inline threshold of 0 turns inlining off"() {
+        given:
+        NonPrimitiveWord.setInlineThreshold(0)
+        JForth forth = new JForth()
+
+        when:
+        run(forth, ': sq dup * ; : t 3 sq ; t drop')
+
+        then:
+        word(forth, "sq").@dependents == null
+    }
+}
@@ -0,0 +1,63 @@
+package com.jforth
+
+import java.util.concurrent.TimeUnit
+
+class JForthPoolSpec extends ForthSpecification {
+
+    JForthPool pool(int initial, int maxSize) {
+        JForth baseline = new JForth()
+        run(baseline, ': sq dup * ; variable v 7 v ! 3 array a 5 0 a !')
+        return new JForthPool(baseline, initial, maxSize)
+    }
+
+    def "borrowing an idle session is a hit and making one is a miss"() {
+        given:
+        JForthPool pool = pool(1, 2)
+
+        when:
+        JForth first = pool.borrow(1, TimeUnit.SECONDS)
+        JForth second = pool.borrow(1, TimeUnit.SECONDS)
+
+        then:
+        first != null
+        second != null
+        pool.getHits() == 1
+        pool.getMisses() == 1
+        pool.getIdle() == 0
+    }
+
+    def "a session given back is reset to the baseline"() {
+        given:
+        JForthPool pool = pool(1, 1)
+        JForth session = pool.borrow(1, TimeUnit.SECONDS)
+
+        when:
+        run(session, 'hex 9 v ! 6 0 a ! : extra 1 ; : sq 0 ; 1 2 3')
+        pool.release(session)
+        JForth again = pool.borrow(1, TimeUnit.SECONDS)
+
+        then:
+        again.is(session)
+        again.dStack.empty()
+        again.dictionary.search("extra") == null
+        run(again, 'v @ . 0 a @ . 4 sq . 16 .') == "751616"
+    }
+
+    def "borrowing gives up after the timeout when all sessions are lent out"() {
+        given:
+        JForthPool pool = pool(0, 1)
+        pool.borrow(1, TimeUnit.SECONDS)
+
+        expect:
+        pool.borrow(10, TimeUnit.MILLISECONDS) == null
+        pool.getTimeouts() == 1
+    }
+
+    def "a bad pool size is refused"() {
+        when:
+        new JForthPool(new JForth(), 2, 1)
+
+        then:
+        thrown(IllegalArgumentException)
+    }
+}
@@ -0,0 +1,51 @@
+package com.jforth
+
+class LazyImageSpec extends ForthSpecification {
+
+    static JForth mapped(String definitions) {
+
+        File file = File.createTempFile("jforth", ".img")
+        file.deleteOnExit()
+
+        JForth saved = new JForth()
+        run(saved, definitions)
+        run(saved, '"' + file.path + '" save-image')
+
+        JForth forth = new JForth()
+        run(forth, '"' + file.path + '" map-image')
+        return forth
+    }
+
+    static NonPrimitiveWord word(JForth forth, String name) {
+        return (NonPrimitiveWord) forth.dictionary.search(name)
+    }
+
+    def "only the names are read until a word is used"() {
+        given:
+        JForth forth = mapped(': sq dup * ; : cube dup sq * ; : unused 1 ;')
+
+        expect:
+        word(forth, "sq").@body != null
+        word(forth, "cube").@body != null
+
+        when:
+        String out = run(forth, '2 cube .')
+
+        then:
+        out == "8"
+        word(forth, "cube").@body == null
+        word(forth, "sq").@body == null
+        word(forth, "unused").@body != null
+    }
+
+    def "variables are decoded on first use"() {
+        given:
+        JForth forth = mapped('variable v 42 v !')
+        StorageWord v = (StorageWord) forth.dictionary.search("v")
+
+        expect:
+        v.@body != null
+        run(forth, 'v @ .') == "42"
+        v.@body == null
+    }
+}
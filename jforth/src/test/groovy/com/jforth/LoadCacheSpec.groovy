@@ -0,0 +1,94 @@
+package com.jforth
+
+class LoadCacheSpec extends ForthSpecification {
+
+    File directory
+
+    def setup() {
+        directory = File.createTempFile("jforth", ".cache")
+        directory.delete()
+        directory.mkdir()
+        directory.deleteOnExit()
+    }
+
+    def cleanup() {
+        directory.listFiles().each { it.delete() }
+        directory.delete()
+    }
+
+    JForth session() {
+        JForth forth = new JForth()
+        forth.setLoadCache(directory)
+        return forth
+    }
+
+    static String load(JForth forth, File file) {
+        return run(forth, '"' + file.path + '" load')
+    }
+
+    def "a file of definitions is cached and replayed"() {
+        given:
+        File file = source(': sq dup * ;\n: cube dup sq * ;\n')
+
+        when:
+        JForth first = session()
+        load(first, file)
+
+        then:
+        directory.list().length == 1
+
+        when:
+        JForth second = session()
+        load(second, file)
+
+        then:
+        directory.list().length == 1
+        run(second, '3 cube .') == "27"
+    }
+
+    def "the cache key depends on the words already defined"() {
+        given:
+        File file = source(': twice k 2 * ;\n')
+
+        when:
+        JForth first = session()
+        run(first, '3 constant k')
+        load(first, file)
+        JForth second = session()
+        run(second, '5 constant k')
+        load(second, file)
+
+        then:
+        directory.list().length == 2
+        run(first, 'twice .') == "6"
+        run(second, 'twice .') == "10"
+    }
+
+    def "the cache key depends on the number base"() {
+        given:
+        File file = source(': n 10 ;\n')
+
+        when:
+        JForth first = session()
+        load(first, file)
+        JForth second = session()
+        run(second, 'hex')
+        load(second, file)
+
+        then:
+        directory.list().length == 2
+        run(second, 'decimal n .') == "16"
+    }
+
+    def "a file that does more than define words is not cached"() {
+        given:
+        File file = source(': sq dup * ;\n4 sq .\n')
+
+        when:
+        String out = load(session(), file)
+
+        then:
+        out == "16"
+        directory.list().length == 0
+    }
+}
@@ -0,0 +1,45 @@
+package com.jforth
+
+class LoadSpec extends ForthSpecification {
+
+    static String load(JForth forth, File file) {
+        return run(forth, '"' + file.path + '" load')
+    }
+
+    def "a file is interpreted across lines"() {
+        given:
+        JForth forth = new JForth()
+        File file = source(': sq\n  dup *\n;\n5 sq .\n')
+
+        expect:
+        load(forth, file) == "25"
+        run(forth, '3 sq .') == "9"
+    }
+
+    def "errors report the line of the offending word"() {
+        given:
+        File file = source(text)
+
+        expect:
+        load(new JForth(), file).contains("error at line " + line)
+
+        where:
+        text                                       | line
+        'bogus\n'                                  | 1
+        '1 2 +\n\n  bogus\n'                       | 3
+        '( a comment\n over\n two lines )\nbogus'  | 4
+        ': foo 1 2 + ;\r\n\r\nbogus\r\n'           | 3
+    }
+
+    def "escaped newlines in strings don't count as lines"() {
+        given:
+        File file = source('"a\\nb\\nc" .\n\n: foo 1 2 + ;\nbogus\n')
+
+        when:
+        String out = load(new JForth(), file)
+
+        then:
+        out.startsWith("a\nb\nc")
+        out.contains("error at line 4")
+    }
+}
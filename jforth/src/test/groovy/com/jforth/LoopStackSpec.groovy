@@ -0,0 +1,74 @@
+package com.jforth
+
+import spock.lang.Specification
+
+class LoopStackSpec extends Specification {
+
+    def "a frame steps until its limit and is then removed"() {
+        given:
+        LoopStack loops = new LoopStack(4)
+        loops.enter(0, 3)
+
+        expect:
+        loops.index() == 0
+        loops.step(1)
+        loops.index() == 1
+        loops.step(1)
+        !loops.step(1)
+        loops.empty()
+    }
+
+    def "a negative increment counts down to the limit"() {
+        given:
+        LoopStack loops = new LoopStack(4)
+        loops.enter(3, 0)
+
+        expect:
+        loops.step(-1)
+        loops.step(-1)
+        !loops.step(-1)
+    }
+
+    def "outer frames are reached by depth"() {
+        given:
+        LoopStack loops = new LoopStack(4)
+        loops.enter(7, 10)
+        loops.enter(2, 5)
+
+        expect:
+        loops.index() == 2
+        loops.index(1) == 7
+        loops.limit() == 5
+        loops.limit(1) == 10
+    }
+
+    def "leave finishes the innermost loop at its next step"() {
+        given:
+        LoopStack loops = new LoopStack(4)
+        loops.enter(0, 100)
+
+        when:
+        loops.leave()
+
+        then:
+        !loops.step(1)
+    }
+
+    def "overflow throws StackException"() {
+        given:
+        LoopStack loops = new LoopStack(1)
+        loops.enter(0, 1)
+
+        when:
+        loops.enter(0, 1)
+
+        then:
+        thrown(StackException)
+    }
+
+    def ">r and r> inside a loop don't disturb the loop frames"() {
+        expect:
+        ForthSpecification.run(': t 0 5 0 do i >r r> + loop ; t .') == "10"
+        ForthSpecification.run(': t 0 3 0 do 3 0 do i j + >r r> + loop loop ; t .') == "18"
+    }
+}
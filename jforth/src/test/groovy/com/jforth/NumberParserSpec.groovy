@@ -0,0 +1,57 @@
+package com.jforth
+
+import spock.lang.Specification
+import spock.lang.Unroll
+
+class NumberParserSpec extends Specification {
+
+    static long parse(String text, int radix) {
+        char[] chars = text.toCharArray()
+        return NumberParser.parse(chars, 0, chars.length, radix)
+    }
+
+    @Unroll
+    def "#text in base #radix is #value"() {
+        expect:
+        parse(text, radix) == value
+
+        where:
+        text          | radix | value
+        "0"           | 10    | 0
+        "123"         | 10    | 123
+        "-45"         | 10    | -45
+        "+7"          | 10    | 7
+        "ff"          | 16    | 255
+        "FF"          | 16    | 255
+        "-10"         | 2     | -2
+        "2147483647"  | 10    | Integer.MAX_VALUE
+        "-2147483648" | 10    | Integer.MIN_VALUE
+    }
+
+    @Unroll
+    def "#text in base #radix is not a number"() {
+        expect:
+        parse(text, radix) == NumberParser.NOT_A_NUMBER
+
+        where:
+        text         | radix
+        ""           | 10
+        "-"          | 10
+        "12a"        | 10
+        "2"          | 2
+        "dup"        | 10
+        "2147483648" | 10
+    }
+
+    def "small numbers share their boxes"() {
+        expect:
+        NumberParser.valueOf(100).is(NumberParser.valueOf(100))
+        NumberParser.valueOf(-1024).is(NumberParser.valueOf(-1024))
+        NumberParser.valueOf(5000) == 5000
+    }
+
+    def "the interpreter reads numbers in the current base"() {
+        expect:
+        ForthSpecification.run('hex ff decimal .') == "255"
+    }
+}
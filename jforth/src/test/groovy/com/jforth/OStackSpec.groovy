@@ -0,0 +1,108 @@
+package com.jforth
+
+import spock.lang.Specification
+
+class OStackSpec extends Specification {
+
+    def "numbers are kept unboxed and references beside them"() {
+        given:
+        OStack stack = new OStack(8)
+        BaseWord word = new TaskWord("t")
+
+        when:
+        stack.pushInt(1)
+        stack.push("two")
+        stack.push(Integer.valueOf(3))
+        stack.push(word)
+
+        then:
+        stack.size() == 4
+        !stack.isInt(0)
+        stack.isInt(1)
+        !stack.isInt(2)
+        stack.isInt(3)
+        stack.pop().is(word)
+        stack.popInt() == 3
+        stack.pop() == "two"
+        stack.pop() == 1
+        stack.empty()
+    }
+
+    def "cell operations move references with their cells"() {
+        given:
+        OStack stack = new OStack(8)
+        stack.pushInt(1)
+        stack.push("b")
+        stack.pushInt(3)
+
+        when:
+        stack.rot()
+
+        then: "( 1 b 3 -- b 3 1 )"
+        stack.popInt() == 1
+        stack.popInt() == 3
+        stack.pop() == "b"
+
+        when:
+        stack.push("x")
+        stack.pushInt(7)
+        stack.swap()
+        stack.over()
+
+        then: "( x 7 -- 7 x 7 )"
+        stack.popInt() == 7
+        stack.pop() == "x"
+        stack.popInt() == 7
+    }
+
+    def "a dropped reference cell reads as a number once reused"() {
+        given:
+        OStack stack = new OStack(4)
+
+        when:
+        stack.push("s")
+        stack.drop()
+        stack.pushInt(5)
+
+        then:
+        stack.isInt()
+        stack.peek() == 5
+    }
+
+    def "null is a reference, not a number"() {
+        given:
+        OStack stack = new OStack(4)
+
+        when:
+        stack.push(null)
+
+        then:
+        !stack.isInt()
+        stack.pop() == null
+    }
+
+    def "overflow and underflow throw StackException"() {
+        given:
+        OStack stack = new OStack(2)
+
+        when:
+        stack.pushInt(1)
+        stack.pushInt(2)
+        stack.pushInt(3)
+
+        then:
+        thrown(StackException)
+
+        when:
+        stack.clear()
+        stack.pop()
+
+        then:
+        thrown(StackException)
+    }
+
+    def "the interpreter mixes numbers and strings on the stack"() {
+        expect:
+        ForthSpecification.run('1 "a" 2 swap . . .') == "a21"
+    }
+}
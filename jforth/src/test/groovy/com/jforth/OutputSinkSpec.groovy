@@ -0,0 +1,85 @@
+package com.jforth
+
+import java.nio.channels.Channels
+
+class OutputSinkSpec extends ForthSpecification {
+
+    def "output is held until a line ends or the sink is flushed"() {
+        given:
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream()
+        OutputSink sink = new OutputSink(bytes)
+
+        when:
+        sink.print("abc")
+        sink.print(-255, 16, 5)
+
+        then:
+        bytes.size() == 0
+
+        when:
+        sink.flush()
+
+        then:
+        bytes.toString() == "abc  -FF"
+
+        when:
+        sink.spaces(2)
+        sink.println("x")
+
+        then:
+        bytes.toString() == "abc  -FF  x" + System.getProperty("line.separator")
+    }
+
+    def "a sink writes to a channel"() {
+        given:
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream()
+        OutputSink sink = new OutputSink(Channels.newChannel(bytes))
+
+        when:
+        sink.print(12345, 10)
+        sink.flush()
+
+        then:
+        bytes.toString() == "12345"
+    }
+
+    def "a number too wide for its field is printed in full"() {
+        given:
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream()
+        OutputSink sink = new OutputSink(bytes)
+
+        when:
+        sink.print(Integer.MIN_VALUE, 10, 3)
+        sink.flush()
+
+        then:
+        bytes.toString() == "-2147483648"
+    }
+
+    def "errors are reported in order with the output before them"() {
+        expect:
+        run('5 . 3 array a 9 a @') == "5@ Error - 'a' size: 3 index: 9\n"
+    }
+
+    def "a damaged image is reported through the session's sink"() {
+        given:
+        File file = File.createTempFile("jforth", ".img")
+        file.deleteOnExit()
+        JForth saved = new JForth()
+        run(saved, ': w 5 ;')
+        run(saved, '"' + file.path + '" save-image')
+
+        // The body of w is its last cell, a tagged number
+        byte[] image = file.bytes
+        image[image.length - 5] = 99
+        File damaged = File.createTempFile("jforth", ".img")
+        damaged.deleteOnExit()
+        damaged.bytes = image
+
+        JForth forth = new JForth()
+        run(forth, '"' + damaged.path + '" map-image')
+
+        expect:
+        run(forth, '1 . w') == "1Image error - Bad cell tag 99\nw - word execution or stack error\n"
+    }
+}
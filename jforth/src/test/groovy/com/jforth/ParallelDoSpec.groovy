@@ -0,0 +1,95 @@
+package com.jforth
+
+class ParallelDoSpec extends ForthSpecification {
+
+    static ParallelDoControlWord loopOf(JForth forth, String name) {
+
+        NonPrimitiveWord npw = forth.dictionary.search(name)
+        return (0..<npw.size()).collect { npw.getWord(it) }.find { it instanceof ParallelDoControlWord }
+    }
+
+    def "ploop runs every iteration"() {
+        given:
+        JForth forth = new JForth()
+        run(forth, '100 array a')
+        run(forth, ': fill 100 0 pdo i i * i a ! ploop ;')
+        run(forth, ': sum 0 100 0 do i a @ + loop ;')
+
+        expect:
+        run(forth, 'fill sum .') == "328350"
+    }
+
+    def "preduce combines the chunks with the reduction word"() {
+        expect:
+        run(': total 0 1000 0 pdo i + preduce + ; total .') == "499500"
+        run(': none 7 0 0 pdo i + preduce + ; none .') == "7"
+    }
+
+    def "output comes out in index order"() {
+        given:
+        JForth forth = new JForth()
+        run(forth, ': show 200 0 pdo i . ploop ;')
+        run(forth, ': serial 200 0 do i . loop ;')
+
+        expect:
+        run(forth, 'show') == run(forth, 'serial')
+    }
+
+    def "the body and its callees are compiled when the loop is"() {
+        given:
+        JForth forth = new JForth()
+        run(forth, ': sq dup * ;')
+        run(forth, ': sqsum 0 10 0 pdo i sq + preduce + ;')
+
+        expect:
+        NonPrimitiveWord.isThreadedCode()
+        loopOf(forth, "sqsum").body.@code != null
+        forth.dictionary.search("sq").@code != null
+        run(forth, 'sqsum .') == "285"
+    }
+
+    def "a chunk running out of stack is reported"() {
+        expect:
+        run(': under 10 0 pdo drop ploop ; under').startsWith("pdo - ")
+    }
+
+    def "other failures reach the caller unwrapped"() {
+        given:
+        JForth forth = new JForth()
+        run(forth, ': div 10 0 pdo 1 0 / drop ploop ;')
+
+        when:
+        forth.dictionary.search("div").execute(forth.dStack, forth.vStack)
+
+        then:
+        ArithmeticException e = thrown()
+        e.message == "/ by zero"
+    }
+
+    def "each chunk pictures numbers on its own"() {
+        given:
+        JForth forth = new JForth()
+        run(forth, '2000 array out')
+        run(forth, ': show 2000 0 do i out @ . loop ;')
+        run(forth, ': pictures 2000 0 pdo i 1000003 * 2147483647 and <# #s #> i out ! ploop ;')
+        run(forth, ': serial 2000 0 do i 1000003 * 2147483647 and <# #s #> i out ! loop ;')
+
+        when:
+        run(forth, 'serial')
+        String expected = run(forth, 'show')
+        run(forth, 'pictures')
+
+        then:
+        run(forth, 'show') == expected
+    }
+
+    def "hex in a chunk leaves the session's base alone"() {
+        given:
+        JForth forth = new JForth()
+        run(forth, ': hexes 0 64 0 pdo hex i 255 + + preduce + ;')
+
+        expect:
+        run(forth, 'hexes .') == "18336"
+        run(forth, '10 .') == "10"
+    }
+}
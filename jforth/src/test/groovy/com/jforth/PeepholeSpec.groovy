@@ -0,0 +1,65 @@
+package com.jforth
+
+import spock.lang.Unroll
+
+class PeepholeSpec extends ForthSpecification {
+
+    boolean threaded
+    boolean enabled
+    int jit
+
+    def setup() {
+        threaded = NonPrimitiveWord.isThreadedCode()
+        enabled = Peephole.isEnabled()
+        jit = NonPrimitiveWord.getJitThreshold()
+        NonPrimitiveWord.setThreadedCode(true)
+        NonPrimitiveWord.setJitThreshold(-1)
+        Peephole.reset()
+    }
+
+    def cleanup() {
+        NonPrimitiveWord.setThreadedCode(threaded)
+        NonPrimitiveWord.setJitThreshold(jit)
+        Peephole.setEnabled(enabled)
+        Peephole.reset()
+    }
+
+    @Unroll
+    def "#source fuses #fusion"() {
+        given:
+        Peephole.setEnabled(true)
+
+        when:
+        String fused = run(source)
+        String report = Peephole.report()
+        Peephole.setEnabled(false)
+        String plain = run(source)
+
+        then:
+        fused == expected
+        plain == expected
+        report.contains(fusion + ": 1")
+
+        where:
+        source                                                 | fusion      | expected
+        ': t 5 + ; 1 t .'                                      | "lit +"     | "6"
+        ': t 5 < ; 1 t .'                                      | "lit <"     | "1"
+        ': t dup * ; 7 t .'                                    | "dup *"     | "49"
+        'variable v : t 3 v ! v @ ; t .'                       | "var @"     | "3"
+        '4 array a : t 0 4 0 do i i a ! loop 3 a @ ; t .'      | "array !"   | "3"
+        '4 array a : t 0 4 0 do i i a ! i a @ + loop ; t .'    | "i array @" | "6"
+        ': t 0= if 1 else 2 then ; 0 t .'                      | "0= if"     | "1"
+    }
+
+    def "nothing is fused while the peephole is disabled"() {
+        given:
+        Peephole.setEnabled(false)
+
+        when:
+        String out = run(': t 0 5 0 do i 2 * + loop ; t .')
+
+        then:
+        out == "20"
+        Peephole.report().startsWith("Fusions: 0")
+    }
+}
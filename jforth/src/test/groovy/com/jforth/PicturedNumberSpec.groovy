@@ -0,0 +1,50 @@
+package com.jforth
+
+import spock.lang.Unroll
+
+class PicturedNumberSpec extends ForthSpecification {
+
+    @Unroll
+    def "#source prints #expected"() {
+        expect:
+        run(source) == expected
+
+        where:
+        source                                          | expected
+        '1234 <# #s #> .'                               | "1234"
+        '-42 dup abs <# #s swap sign #> .'              | "-42"
+        '5 <# # # # #> .'                               | "005"
+        '255 hex <# #s #> decimal .'                    | "FF"
+        '1234 <# # # 46 hold #s #> .'                   | "12.34"
+        '42 6 .r'                                       | "    42"
+        '-7 3 .r 123456 2 .r'                           | " -7123456"
+    }
+
+    def "#> leaves a view of the session's hold buffer"() {
+        given:
+        JForth forth = new JForth()
+
+        when:
+        run(forth, '7 <# #s #>')
+
+        then:
+        forth.dStack.peek().is(forth.picture)
+    }
+
+    def "a picture kept in a variable or a constant is a copy"() {
+        given:
+        JForth forth = new JForth()
+
+        when:
+        run(forth, 'variable v  12 <# #s #> v !  34 <# #s #> constant c  56 <# #s #> drop')
+
+        then:
+        run(forth, 'v @ . c .') == "1234"
+    }
+
+    def "a picture works as a string"() {
+        expect:
+        run('"n=" 12 <# #s #> + .') == "n=12"
+        run('12 <# #s #> "12" = .') == "1"
+    }
+}
@@ -0,0 +1,78 @@
+package com.jforth
+
+import java.util.concurrent.Callable
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.Future
+
+class SessionSpec extends ForthSpecification {
+
+    def "sessions share the primitives of one core"() {
+        given:
+        JForth first = new JForth()
+        JForth second = new JForth()
+
+        expect:
+        first.getCore().is(second.getCore())
+        first.dictionary.search("dup").is(second.dictionary.search("dup"))
+    }
+
+    def "each session has its own base, stacks and definitions"() {
+        given:
+        JForth first = new JForth()
+        JForth second = new JForth()
+
+        when:
+        run(first, 'hex : w 1 ; 5')
+
+        then:
+        run(second, '255 .') == "255"
+        second.dictionary.search("w") == null
+        second.dStack.empty()
+        run(first, '. ff .') == "5FF"
+    }
+
+    def "a frozen core shares its library with the sessions made on it"() {
+        given:
+        JForth loader = new JForth()
+        run(loader, ': sq dup * ; variable v 7 v !')
+        JForthCore core = loader.freeze()
+
+        when:
+        JForth first = new JForth(core)
+        JForth second = new JForth(core)
+        run(first, '8 v !')
+
+        then:
+        first.dictionary.search("sq").is(second.dictionary.search("sq"))
+        run(first, 'v @ .') == "8"
+        run(second, 'v @ .') == "7"
+        run(second, '4 sq .') == "16"
+    }
+
+    def "sessions on one core run concurrently"() {
+        given:
+        JForth loader = new JForth()
+        run(loader, ': sum 0 swap 0 do i + loop ; variable total')
+        run(loader, ': bump 0 total ! 20 0 do dup total +! loop drop ;')
+        JForthCore core = loader.freeze()
+        ExecutorService pool = Executors.newFixedThreadPool(8)
+
+        when:
+        List<Future<String>> results = (1..64).collect { n ->
+            pool.submit({
+                JForth session = new JForth(core)
+                run(session, "$n bump $n sum total @ + .")
+            } as Callable<String>)
+        }
+
+        then:
+        results.eachWithIndex { Future<String> result, int i ->
+            int n = i + 1
+            assert result.get() == String.valueOf(n * (n - 1) / 2 + 20 * n as int)
+        }
+
+        cleanup:
+        pool.shutdown()
+    }
+}
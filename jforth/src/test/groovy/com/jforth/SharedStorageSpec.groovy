@@ -0,0 +1,67 @@
+package com.jforth
+
+class SharedStorageSpec extends ForthSpecification {
+
+    def "@+! leaves the value from before the add"() {
+        given:
+        JForth forth = new JForth()
+        run(forth, 'shared-variable n  4 shared-array counts')
+
+        expect:
+        run(forth, '5 n @+! . 2 n @+! . n @ .') == "057"
+        run(forth, '3 2 counts @+! . 2 counts @ .') == "03"
+    }
+
+    def "cas! sets the element only if it holds the expected value"() {
+        given:
+        JForth forth = new JForth()
+        run(forth, 'shared-variable n  10 n !')
+
+        expect:
+        run(forth, '10 20 n cas! . n @ .') == "120"
+        run(forth, '10 30 n cas! . n @ .') == "020"
+    }
+
+    def "an offset out of range is reported and leaves nothing"() {
+        given:
+        JForth forth = new JForth()
+        run(forth, '4 shared-array counts')
+
+        when:
+        String out = run(forth, '1 9 counts @+!')
+
+        then:
+        out.startsWith("@+! Error - 'counts' size: 4 index: 9")
+        forth.dStack.size() == 0
+    }
+
+    def "variables and arrays check their offsets the same way"() {
+        given:
+        JForth forth = new JForth()
+        run(forth, '4 array a  4 shared-array s')
+
+        expect:
+        run(forth, "7 9 $name ! ").startsWith("! Error - '$name' size: 4 index: 9")
+        run(forth, "7 9 $name +! ").startsWith("+! Error - '$name' size: 4 index: 9")
+        run(forth, "9 $name @ ").startsWith("@ Error - '$name' size: 4 index: 9")
+        run(forth, "-2147483648 $name @ ").startsWith("@ Error - '$name' size: 4")
+
+        where:
+        name << ["a", "s"]
+    }
+
+    def "updates from a pdo loop aren't lost"() {
+        given:
+        JForth forth = new JForth()
+        run(forth, 'shared-variable hits  shared-variable total')
+        run(forth, ': count 10000 0 pdo 1 hits atomic+! i total @+! drop ploop ;')
+
+        expect:
+        run(forth, 'count hits @ . total @ .') == "10000" + (0..<10000).sum()
+    }
+
+    def "shared storage holds only numbers"() {
+        expect:
+        run('shared-variable n "x" n !').startsWith("! - 'n' is shared and holds only numbers")
+    }
+}
@@ -0,0 +1,85 @@
+package com.jforth
+
+import spock.lang.Specification
+
+class SourceScannerSpec extends Specification {
+
+    static List<String> tokens(String text) {
+
+        SourceScanner scanner = new SourceScanner()
+        List<String> tokens = []
+        int type
+
+        scanner.reset(text)
+
+        while ((type = scanner.next()) != SourceScanner.EOF) {
+            tokens << ((type == SourceScanner.STRING) ? '"' + scanner.token() + '"' : scanner.token())
+        }
+
+        return tokens
+    }
+
+    def "words are split at spaces and control characters"() {
+        expect:
+        tokens(": sq  dup\t* ;") == [":", "sq", "dup", "*", ";"]
+    }
+
+    def "strings are tokens of their own with escapes decoded"() {
+        expect:
+        tokens('1 "a b\\tc" .') == ["1", '"a b\tc"', "."]
+        tokens('"\\101\\n"') == ['"A\n"']
+    }
+
+    def "an unterminated string ends with the line"() {
+        expect:
+        tokens('"abc\n def') == ['"abc"', "def"]
+    }
+
+    def "characters outside the word range are tokens on their own"() {
+        expect:
+        tokens("a{b") == ["a", "{", "b"]
+    }
+
+    def "a token is a slice of the buffer"() {
+        given:
+        SourceScanner scanner = new SourceScanner()
+        scanner.reset("  word ")
+
+        when:
+        scanner.next()
+
+        then:
+        new String(scanner.buffer(), scanner.start(), scanner.length()) == "word"
+        scanner.is('w' as char) == false
+    }
+
+    def "a comment is skipped up to its closing parenthesis"() {
+        given:
+        SourceScanner scanner = new SourceScanner()
+        scanner.reset("( a comment ) next")
+
+        when:
+        scanner.next()
+
+        then:
+        scanner.is('(' as char)
+        scanner.skipComment()
+        scanner.next() == SourceScanner.WORD
+        scanner.token() == "next"
+    }
+
+    def "the scanner reuses its buffer between lines"() {
+        given:
+        SourceScanner scanner = new SourceScanner()
+        scanner.reset("first line")
+        char[] buffer = scanner.buffer()
+
+        when:
+        scanner.reset("second")
+        scanner.next()
+
+        then:
+        scanner.buffer().is(buffer)
+        scanner.token() == "second"
+    }
+}
@@ -0,0 +1,113 @@
+package com.jforth
+
+class TaskSpec extends ForthSpecification {
+
+    static JForth session() {
+
+        JForth forth = new JForth()
+        run(forth, 'variable count 0 count !')
+        run(forth, ': spin 50 0 do pause loop ;')
+        return forth
+    }
+
+    def "tasks take their turns while the interpreter pauses"() {
+        given:
+        JForth forth = session()
+        run(forth, ': worker 5 0 do count @ 1 + count ! pause loop ;')
+        run(forth, 'task: a task: b')
+        run(forth, "' worker a activate ' worker b activate")
+
+        when:
+        run(forth, 'spin')
+
+        then:
+        run(forth, 'count @ .') == "10"
+        forth.scheduler.size() == 0
+    }
+
+    def "a task which fails is reported and ended"() {
+        given:
+        JForth forth = session()
+        run(forth, ': bad 1 0 / ;')
+        run(forth, "task: tb ' bad tb activate")
+
+        when:
+        String out = run(forth, 'pause')
+
+        then:
+        out.contains("Task tb - java.lang.ArithmeticException: / by zero")
+        forth.scheduler.size() == 0
+        run(forth, '1 2 + .') == "3"
+    }
+
+    def "stop ends the task running it"() {
+        given:
+        JForth forth = session()
+        run(forth, ': quitter 1 count ! stop 99 count ! ;')
+        run(forth, "task: c ' quitter c activate")
+
+        when:
+        run(forth, 'spin')
+
+        then:
+        run(forth, 'count @ .') == "1"
+        forth.scheduler.size() == 0
+    }
+
+    def "execute runs a definition as part of the task"() {
+        given:
+        JForth forth = session()
+        run(forth, ': step count @ 1 + count ! pause ;')
+        run(forth, "variable xt ' step xt !")
+        run(forth, ': steps 3 0 do xt @ execute loop ;')
+        run(forth, "task: t ' steps t activate")
+
+        when:
+        run(forth, 'pause')
+
+        then:
+        run(forth, 'count @ .') == "1"
+
+        when:
+        run(forth, 'spin')
+
+        then:
+        run(forth, 'count @ .') == "3"
+    }
+
+    def "tasks wait on channels without holding up the others"() {
+        given:
+        JForth forth = session()
+        run(forth, '4 channel ch variable total 0 total !')
+        run(forth, ': producer 100 0 do i ch send loop -1 ch send ;')
+        run(forth, ': consumer begin ch receive dup 0< not if total @ + total ! 0 else drop 1 then end ;')
+        run(forth, "task: p task: q ' producer p activate ' consumer q activate")
+
+        when:
+        run(forth, 'spin')
+
+        then:
+        run(forth, 'total @ .') == "4950"
+        forth.scheduler.size() == 0
+    }
+
+    def "tasks don't take threads of their own"() {
+        given:
+        JForth forth = session()
+        run(forth, ': worker 10 0 do pause loop ;')
+        int threads = Thread.activeCount()
+
+        when:
+        (1..500).each { run(forth, "task: t$it ' worker t$it activate") }
+
+        then:
+        forth.scheduler.size() == 500
+        Thread.activeCount() == threads
+
+        when:
+        run(forth, 'spin')
+
+        then:
+        forth.scheduler.size() == 0
+    }
+}
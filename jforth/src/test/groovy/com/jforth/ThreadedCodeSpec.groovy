@@ -0,0 +1,56 @@
+package com.jforth
+
+import spock.lang.Unroll
+
+class ThreadedCodeSpec extends ForthSpecification {
+
+    boolean threaded
+    int jit
+
+    def setup() {
+        threaded = NonPrimitiveWord.isThreadedCode()
+        jit = NonPrimitiveWord.getJitThreshold()
+        NonPrimitiveWord.setJitThreshold(-1)
+    }
+
+    def cleanup() {
+        NonPrimitiveWord.setThreadedCode(threaded)
+        NonPrimitiveWord.setJitThreshold(jit)
+    }
+
+    @Unroll
+    def "threaded code runs #source like the object engine"() {
+        when:
+        NonPrimitiveWord.setThreadedCode(false)
+        String objects = run(source)
+        NonPrimitiveWord.setThreadedCode(true)
+        String code = run(source)
+
+        then:
+        objects == expected
+        code == expected
+
+        where:
+        source                                                   | expected
+        ': t 0 10 0 do i + loop ; t .'                           | "45"
+        ': t 0 begin 1 + dup 5 = end ; t .'                      | "5"
+        ': t if 1 else 2 then ; 0 t . 1 t .'                     | "21"
+        ': t 0 20 0 do i 5 = if leave then i + loop ; t .'       | "30"
+        ': t 0 10 0 do i + 3 +loop ; t .'                        | "18"
+        ': t 0 3 0 do 4 0 do j i * + loop loop ; t .'            | "18"
+        ': t "a" "b" + ; t .'                                    | "ab"
+        ': sq dup * ; : t 3 sq sq ; t .'                         | "81"
+    }
+
+    def "a definition is compiled to threaded code when it runs"() {
+        given:
+        NonPrimitiveWord.setThreadedCode(true)
+        JForth forth = new JForth()
+        run(forth, ': t 1 2 + ;')
+        NonPrimitiveWord word = (NonPrimitiveWord) forth.dictionary.search("t")
+
+        expect:
+        run(forth, 't .') == "3"
+        word.compile() != null
+    }
+}
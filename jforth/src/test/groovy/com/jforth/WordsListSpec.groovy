@@ -0,0 +1,184 @@
+package com.jforth
+
+import spock.lang.Specification
+
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicInteger
+
+class WordsListSpec extends Specification {
+
+    def "a redefinition shadows the older word until it is forgotten"() {
+        given:
+        WordsList list = new WordsList()
+        TaskWord first = new TaskWord("w")
+        TaskWord second = new TaskWord("w")
+
+        when:
+        list.add(first)
+        list.add(new TaskWord("other"))
+        list.add(second)
+
+        then:
+        list.search("w").is(second)
+        list.size() == 3
+
+        when:
+        list.truncateList(second)
+
+        then:
+        list.search("w").is(first)
+        list.search("other") != null
+        list.size() == 2
+    }
+
+    def "forgetting a word forgets everything defined after it"() {
+        given:
+        WordsList list = new WordsList()
+        TaskWord a = new TaskWord("a")
+        list.add(a)
+        list.add(new TaskWord("b"))
+        list.add(new TaskWord("c"))
+
+        expect:
+        list.truncateList(a)
+        list.isEmpty()
+        list.search("b") == null
+        list.search("c") == null
+    }
+
+    def "words stay findable as the table grows"() {
+        given:
+        WordsList list = new WordsList()
+
+        when:
+        (0..<2000).each { list.add(new TaskWord("w" + it)) }
+
+        then:
+        (0..<2000).every { list.search("w" + it).name == "w" + it }
+        list.get(1234).name == "w1234"
+    }
+
+    def "a name in a char array is found without making a String"() {
+        given:
+        WordsList list = new WordsList()
+        TaskWord word = new TaskWord("dup2")
+        list.add(word)
+        char[] chars = "x dup2 y".toCharArray()
+
+        expect:
+        list.search(chars, 2, 4).is(word)
+        list.search(chars, 2, 3) == null
+    }
+
+    def "a session list searches its parent and can't forget the parent's words"() {
+        given:
+        WordsList parent = new WordsList()
+        TaskWord inherited = new TaskWord("p")
+        parent.add(inherited)
+        WordsList session = new WordsList(parent)
+        TaskWord shadow = new TaskWord("p")
+
+        expect:
+        session.search("p").is(inherited)
+
+        when:
+        session.add(shadow)
+
+        then:
+        session.search("p").is(shadow)
+        !session.truncateList(inherited)
+
+        when:
+        session.truncateList(shadow)
+
+        then:
+        session.search("p").is(inherited)
+        parent.size() == 1
+    }
+
+    def "forget in the interpreter brings back the shadowed definition"() {
+        expect:
+        ForthSpecification.run(': x 1 ; : x 2 ; x . forget x x .') == "21"
+    }
+
+    def "the version changes with every add and forget"() {
+        given:
+        WordsList list = new WordsList()
+        TaskWord word = new TaskWord("v")
+        int start = list.getVersion()
+
+        when:
+        list.add(word)
+        int added = list.getVersion()
+        list.truncateList(word)
+
+        then:
+        added != start
+        list.getVersion() != added
+    }
+
+    def "searches on other threads see whole snapshots while the list changes"() {
+        given:
+        WordsList list = new WordsList()
+        List<TaskWord> base = (0..<100).collect { new TaskWord("base" + it) }
+        base.each { list.add(it) }
+        TaskWord first = new TaskWord("w")
+        list.add(first)
+        AtomicBoolean done = new AtomicBoolean()
+        AtomicInteger misses = new AtomicInteger()
+
+        List<Thread> readers = (0..<4).collect {
+            Thread.start {
+                while (!done.get()) {
+                    for (int i = 0; i < base.size(); i++) {
+                        if (!list.search("base" + i).is(base[i])) {
+                            misses.incrementAndGet()
+                        }
+                    }
+
+                    BaseWord w = list.search("w")
+
+                    if ((w == null) || (w.name != "w")) {
+                        misses.incrementAndGet()
+                    }
+                }
+            }
+        }
+
+        when:
+        // Redefine, add enough to grow the table, then forget it all again
+        for (int round = 0; round < 200; round++) {
+            TaskWord redefined = new TaskWord("w")
+            list.add(redefined)
+            (0..<300).each { list.add(new TaskWord("temp" + it)) }
+            list.truncateList(redefined)
+        }
+
+        done.set(true)
+        readers*.join()
+
+        then:
+        misses.get() == 0
+        list.search("w").is(first)
+        list.search("temp0") == null
+        list.size() == 101
+    }
+
+    def "a snapshot taken before a change doesn't see it"() {
+        given:
+        WordsList list = new WordsList()
+        TaskWord old = new TaskWord("x")
+        list.add(old)
+        def before = list.@current
+
+        when:
+        list.add(new TaskWord("x"))
+        list.add(new TaskWord("y"))
+
+        then:
+        before.count == 1
+        list.@current.count == 3
+        list.@current.version != before.version
+        !list.search("x").is(old)
+    }
+}